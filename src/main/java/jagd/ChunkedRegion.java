@@ -0,0 +1,547 @@
+package jagd;
+
+import com.badlogic.gdx.math.GridPoint2;
+
+/**
+ * An unbounded on/off area made of 64x64 {@link Region} tiles ("chunks"), each using exactly 64 longs, that can be
+ * loaded and unloaded independently. World positions can be negative; the chunk holding world position (x, y) is
+ * {@code (x >> 6, y >> 6)}, and the position inside that chunk is {@code (x & 63, y & 63)}. This is meant for chunked
+ * or infinite worlds where only the area around players is kept in memory, where a Region's fixed width and height
+ * (and the full reallocation of {@link Region#alterBounds(int, int)}) would be a poor fit.
+ * <br>
+ * The spatial methods here ({@link #expand()}, {@link #expand8way()}, {@link #retract()}, {@link #fringe()},
+ * {@link #flood(ChunkedRegion)}, and their relatives) work across chunk boundaries by reading a one-cell halo from the
+ * neighboring chunks, 64 cells at a time like Region does. Chunks that are not loaded are treated as all "off," and
+ * are never created by these methods, so an expansion stops at the edge of the loaded area; load a ring of chunks
+ * around the interesting area if you need it to spread further.
+ * <br>
+ * Chunks are kept in least-recently-used order, where "use" is any call to {@link #chunk(int, int)},
+ * {@link #load(int, int)}, {@link #put(int, int, Region)}, {@link #insert(int, int)}, or {@link #remove(int, int)}.
+ * Reads such as {@link #contains(int, int)} and {@link #peek(int, int)} don't count as a use, so they don't reorder
+ * anything and stay cheap when called for many cells. If {@link #maxChunks} is
+ * greater than 0, loading more chunks than that evicts the coldest ones, first passing each to the
+ * {@link IChunkEvictor} if one was set, so it can be saved (perhaps with {@link Region#toRunBytes()}).
+ */
+public class ChunkedRegion {
+    /**
+     * The width and height of every chunk; each chunk is a Region with this width and height.
+     */
+    public static final int CHUNK_SIZE = 64;
+
+    /**
+     * Receives chunks as they are evicted for being the least-recently-used when there are too many loaded.
+     */
+    public interface IChunkEvictor {
+        /**
+         * Called when a chunk is evicted; the chunk is no longer part of the ChunkedRegion when this is called.
+         * @param chunkX the x-coordinate of the chunk, in chunks (world x divided by 64)
+         * @param chunkY the y-coordinate of the chunk, in chunks (world y divided by 64)
+         * @param chunk the evicted 64x64 Region, which can be saved or recycled
+         */
+        void evict(int chunkX, int chunkY, Region chunk);
+    }
+
+    /**
+     * The maximum number of chunks to keep loaded, or 0 (or less) to never evict chunks automatically.
+     */
+    public int maxChunks;
+    /**
+     * Called with each chunk that gets evicted automatically; may be null.
+     */
+    public IChunkEvictor evictor;
+
+    private final IndexedMap<Long, Region> chunks;
+    private long[] scratch = new long[0];
+    /**
+     * The last chunk found by {@link #peek(int, int)} and its key, so reads that stay in one chunk skip the map. Both
+     * are kept in one immutable object, so reads from several threads can't see a key with the wrong chunk.
+     */
+    private Recent recent;
+
+    private static final class Recent {
+        final long key;
+        final Region chunk;
+
+        Recent(long key, Region chunk) {
+            this.key = key;
+            this.chunk = chunk;
+        }
+    }
+
+    /**
+     * Constructs an empty ChunkedRegion that never evicts chunks automatically.
+     */
+    public ChunkedRegion()
+    {
+        this(0, null);
+    }
+
+    /**
+     * Constructs an empty ChunkedRegion that keeps at most maxChunks chunks loaded, passing any chunks that get
+     * evicted to evictor.
+     * @param maxChunks the maximum number of chunks to keep loaded, or 0 to never evict chunks automatically
+     * @param evictor called with each chunk evicted when too many are loaded; may be null
+     */
+    public ChunkedRegion(int maxChunks, IChunkEvictor evictor)
+    {
+        this.maxChunks = maxChunks;
+        this.evictor = evictor;
+        chunks = new IndexedMap<Long, Region>(maxChunks > 0 ? maxChunks + 1 : 16);
+    }
+
+    private static Long key(int chunkX, int chunkY)
+    {
+        return (long) chunkX << 32 | (chunkY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return how many chunks are currently loaded
+     */
+    public int chunkCount()
+    {
+        return chunks.size();
+    }
+
+    /**
+     * Gets the x-coordinate, in chunks, of the chunk at the given index in least-recently-used order.
+     * @param index from 0 (the coldest chunk) to {@link #chunkCount()} - 1 (the most recently used)
+     * @return the x-coordinate of that chunk, in chunks
+     */
+    public int chunkXAt(int index)
+    {
+        return (int) (chunks.keyAt(index) >> 32);
+    }
+
+    /**
+     * Gets the y-coordinate, in chunks, of the chunk at the given index in least-recently-used order.
+     * @param index from 0 (the coldest chunk) to {@link #chunkCount()} - 1 (the most recently used)
+     * @return the y-coordinate of that chunk, in chunks
+     */
+    public int chunkYAt(int index)
+    {
+        return (int) (long) chunks.keyAt(index);
+    }
+
+    /**
+     * Gets the chunk at the given index in least-recently-used order, without counting this as a use.
+     * @param index from 0 (the coldest chunk) to {@link #chunkCount()} - 1 (the most recently used)
+     * @return the 64x64 Region at that index
+     */
+    public Region chunkAt(int index)
+    {
+        return chunks.getAt(index);
+    }
+
+    /**
+     * Gets the chunk with the given chunk coordinates if it is loaded, marking it as recently used.
+     * @param chunkX the x-coordinate of the chunk, in chunks
+     * @param chunkY the y-coordinate of the chunk, in chunks
+     * @return the 64x64 Region for that chunk, or null if it is not loaded
+     */
+    public Region chunk(int chunkX, int chunkY)
+    {
+        return chunks.getAndMoveToLast(key(chunkX, chunkY));
+    }
+
+    /**
+     * Gets the chunk with the given chunk coordinates if it is loaded, without counting this as a use, so the
+     * least-recently-used order doesn't change. Repeated calls for the same chunk don't look it up again.
+     * @param chunkX the x-coordinate of the chunk, in chunks
+     * @param chunkY the y-coordinate of the chunk, in chunks
+     * @return the 64x64 Region for that chunk, or null if it is not loaded
+     */
+    public Region peek(int chunkX, int chunkY)
+    {
+        final long k = (long) chunkX << 32 | (chunkY & 0xFFFFFFFFL);
+        final Recent c = recent;
+        if(c != null && c.key == k)
+            return c.chunk;
+        final Region r = chunks.get(k);
+        if(r != null)
+            recent = new Recent(k, r);
+        return r;
+    }
+
+    /**
+     * Gets the chunk with the given chunk coordinates, creating an empty one if it is not loaded, and marking it as
+     * recently used. This may evict the least-recently-used chunk if this is over {@link #maxChunks}.
+     * @param chunkX the x-coordinate of the chunk, in chunks
+     * @param chunkY the y-coordinate of the chunk, in chunks
+     * @return the 64x64 Region for that chunk
+     */
+    public Region load(int chunkX, int chunkY)
+    {
+        final Long k = key(chunkX, chunkY);
+        Region r = chunks.getAndMoveToLast(k);
+        if(r == null) {
+            r = new Region(CHUNK_SIZE, CHUNK_SIZE);
+            chunks.putAndMoveToLast(k, r);
+            evictExtra();
+        }
+        return r;
+    }
+
+    /**
+     * Places a 64x64 Region as the chunk with the given chunk coordinates, replacing any chunk already there, and
+     * marks it as recently used. The Region is not copied. This may evict the least-recently-used chunk if this is
+     * over {@link #maxChunks}.
+     * @param chunkX the x-coordinate of the chunk, in chunks
+     * @param chunkY the y-coordinate of the chunk, in chunks
+     * @param chunk a Region that must be 64x64, such as one previously evicted
+     * @return the chunk that was replaced, or null if there was none
+     */
+    public Region put(int chunkX, int chunkY, Region chunk)
+    {
+        if(chunk == null || chunk.width != CHUNK_SIZE || chunk.height != CHUNK_SIZE)
+            throw new IllegalArgumentException("Chunks in a ChunkedRegion must be 64x64 Regions");
+        Region old = chunks.putAndMoveToLast(key(chunkX, chunkY), chunk);
+        recent = null;
+        evictExtra();
+        return old;
+    }
+
+    /**
+     * Removes the chunk with the given chunk coordinates, without passing it to the {@link #evictor}.
+     * @param chunkX the x-coordinate of the chunk, in chunks
+     * @param chunkY the y-coordinate of the chunk, in chunks
+     * @return the removed chunk, or null if it was not loaded
+     */
+    public Region unload(int chunkX, int chunkY)
+    {
+        recent = null;
+        return chunks.remove(key(chunkX, chunkY));
+    }
+
+    /**
+     * Evicts up to count of the least-recently-used chunks, passing each to the {@link #evictor} if it is non-null.
+     * @param count how many chunks to evict
+     * @return how many chunks were evicted
+     */
+    public int evictColdest(int count)
+    {
+        int i = 0;
+        recent = null;
+        for (; i < count && chunks.size() > 0; i++) {
+            long k = chunks.firstKey();
+            Region r = chunks.removeFirst();
+            if(evictor != null)
+                evictor.evict((int) (k >> 32), (int) k, r);
+        }
+        return i;
+    }
+
+    private void evictExtra()
+    {
+        if(maxChunks > 0 && chunks.size() > maxChunks)
+            evictColdest(chunks.size() - maxChunks);
+    }
+
+    /**
+     * Removes all chunks, without passing them to the {@link #evictor}.
+     * @return this for chaining
+     */
+    public ChunkedRegion clear()
+    {
+        recent = null;
+        chunks.clear();
+        return this;
+    }
+
+    /**
+     * Checks whether the cell at the given world position is "on"; cells in chunks that are not loaded are "off." This
+     * does not count as a use of the chunk.
+     * @param x world x-position, which may be negative
+     * @param y world y-position, which may be negative
+     * @return true if that cell is in a loaded chunk and is "on"
+     */
+    public boolean contains(int x, int y)
+    {
+        Region r = peek(x >> 6, y >> 6);
+        return r != null && (r.data[x & 63] & 1L << (y & 63)) != 0;
+    }
+
+    /**
+     * Checks whether the cell at the given world position is "on"; cells in chunks that are not loaded are "off."
+     * @param point a world position, which may have negative x or y
+     * @return true if that cell is in a loaded chunk and is "on"
+     */
+    public boolean contains(GridPoint2 point)
+    {
+        return point != null && contains(point.x, point.y);
+    }
+
+    /**
+     * Turns on the cell at the given world position, loading its chunk if needed.
+     * @param x world x-position, which may be negative
+     * @param y world y-position, which may be negative
+     * @return this for chaining
+     */
+    public ChunkedRegion insert(int x, int y)
+    {
+        load(x >> 6, y >> 6).data[x & 63] |= 1L << (y & 63);
+        return this;
+    }
+
+    /**
+     * Turns off the cell at the given world position, if its chunk is loaded.
+     * @param x world x-position, which may be negative
+     * @param y world y-position, which may be negative
+     * @return this for chaining
+     */
+    public ChunkedRegion remove(int x, int y)
+    {
+        Region r = chunk(x >> 6, y >> 6);
+        if(r != null)
+            r.data[x & 63] &= ~(1L << (y & 63));
+        return this;
+    }
+
+    /**
+     * @return the number of "on" cells in all loaded chunks
+     */
+    public int size()
+    {
+        int c = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            c += chunks.getAt(i).size();
+        }
+        return c;
+    }
+
+    /**
+     * Copies the cells from a world-space rectangle into a Region with the same size as the rectangle, reusing
+     * into if it has that size already. Cells in chunks that are not loaded are "off." This does not count as a use of
+     * any chunk.
+     * @param into a Region to write into, or null to allocate one
+     * @param startX the world x-position that will be x = 0 in the result
+     * @param startY the world y-position that will be y = 0 in the result
+     * @param width the width of the rectangle to copy
+     * @param height the height of the rectangle to copy
+     * @return into, or a new Region if into was null
+     */
+    public Region intoRegion(Region into, int startX, int startY, int width, int height)
+    {
+        if(into == null)
+            into = new Region(width, height);
+        else
+            into.resizeAndEmpty(width, height);
+        final long[] data = into.data;
+        final int ySections = into.ySections, shift = startY & 63;
+        // each word of into takes the top of one chunk's column word and, unless startY is a multiple of 64, the
+        // bottom of the column word in the chunk below it
+        for (int x = 0; x < width; ) {
+            final int wx = startX + x, column = wx & 63, run = Math.min(width - x, CHUNK_SIZE - column);
+            for (int s = 0; s < ySections; s++) {
+                final int chunkY = (startY >> 6) + s;
+                final Region low = peek(wx >> 6, chunkY), high = shift == 0 ? null : peek(wx >> 6, chunkY + 1);
+                if(low == null && high == null)
+                    continue;
+                for (int i = 0; i < run; i++) {
+                    long word = low == null ? 0L : low.data[column + i] >>> shift;
+                    if(high != null)
+                        word |= high.data[column + i] << -shift;
+                    data[(x + i) * ySections + s] = word;
+                }
+            }
+            x += run;
+        }
+        if(ySections > 0 && into.yEndMask != -1L) {
+            for (int i = ySections - 1; i < width * ySections; i += ySections) {
+                data[i] &= into.yEndMask;
+            }
+        }
+        return into;
+    }
+
+    private static final int EXPAND = 0, EXPAND_8WAY = 1, RETRACT = 2, RETRACT_8WAY = 3;
+
+    private static long word(Region r, int x)
+    {
+        return r == null ? 0L : r.data[x];
+    }
+
+    /**
+     * Computes one step of a spatial operation for every loaded chunk into scratch, reading halos from neighboring
+     * chunks, then writes the results back (optionally intersected with bounds or with the original removed).
+     */
+    private ChunkedRegion step(final int mode, final ChunkedRegion bounds, final boolean removeOriginal)
+    {
+        final int n = chunks.size();
+        if(scratch.length < n * CHUNK_SIZE)
+            scratch = new long[n * CHUNK_SIZE];
+        final long[] next = scratch;
+        final boolean eight = mode == EXPAND_8WAY || mode == RETRACT_8WAY, grow = mode == EXPAND || mode == EXPAND_8WAY;
+        for (int i = 0; i < n; i++) {
+            final long k = chunks.keyAt(i);
+            final int cx = (int) (k >> 32), cy = (int) k;
+            final long[] t = chunks.getAt(i).data;
+            final Region left = chunks.get(key(cx - 1, cy)), right = chunks.get(key(cx + 1, cy)),
+                    up = chunks.get(key(cx, cy - 1)), down = chunks.get(key(cx, cy + 1)),
+                    upLeft = eight ? chunks.get(key(cx - 1, cy - 1)) : null,
+                    upRight = eight ? chunks.get(key(cx + 1, cy - 1)) : null,
+                    downLeft = eight ? chunks.get(key(cx - 1, cy + 1)) : null,
+                    downRight = eight ? chunks.get(key(cx + 1, cy + 1)) : null;
+            final Region bound = bounds == null ? null : bounds.chunks.get(key(cx, cy));
+            final long[] b = bound == null ? null : bound.data;
+            for (int x = 0; x < CHUNK_SIZE; x++) {
+                final long c = t[x],
+                        l = x > 0 ? t[x - 1] : word(left, 63),
+                        r = x < 63 ? t[x + 1] : word(right, 0),
+                        cu = (c << 1) | (word(up, x) >>> 63),
+                        cd = (c >>> 1) | (word(down, x) << 63);
+                long result;
+                if(grow)
+                    result = c | l | r | cu | cd;
+                else
+                    result = c & l & r & cu & cd;
+                if(eight)
+                {
+                    final long lu = (l << 1) | ((x > 0 ? word(up, x - 1) : word(upLeft, 63)) >>> 63),
+                            ld = (l >>> 1) | ((x > 0 ? word(down, x - 1) : word(downLeft, 63)) << 63),
+                            ru = (r << 1) | ((x < 63 ? word(up, x + 1) : word(upRight, 0)) >>> 63),
+                            rd = (r >>> 1) | ((x < 63 ? word(down, x + 1) : word(downRight, 0)) << 63);
+                    if(grow)
+                        result |= lu | ld | ru | rd;
+                    else
+                        result &= lu & ld & ru & rd;
+                }
+                if(bounds != null)
+                    result &= b == null ? 0L : b[x];
+                if(removeOriginal)
+                    result &= ~c;
+                next[i * CHUNK_SIZE + x] = result;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(next, i * CHUNK_SIZE, chunks.getAt(i).data, 0, CHUNK_SIZE);
+        }
+        return this;
+    }
+
+    /**
+     * Like {@link Region#expand()}, but across all loaded chunks; does not create new chunks.
+     * @return this for chaining
+     */
+    public ChunkedRegion expand()
+    {
+        return step(EXPAND, null, false);
+    }
+
+    /**
+     * Like {@link Region#expand(int)}, but across all loaded chunks; does not create new chunks.
+     * @param amount how many times to expand
+     * @return this for chaining
+     */
+    public ChunkedRegion expand(int amount)
+    {
+        for (int i = 0; i < amount; i++) {
+            step(EXPAND, null, false);
+        }
+        return this;
+    }
+
+    /**
+     * Like {@link Region#expand8way()}, but across all loaded chunks; does not create new chunks.
+     * @return this for chaining
+     */
+    public ChunkedRegion expand8way()
+    {
+        return step(EXPAND_8WAY, null, false);
+    }
+
+    /**
+     * Like {@link Region#retract()}, but across all loaded chunks; unloaded neighbors count as "off."
+     * @return this for chaining
+     */
+    public ChunkedRegion retract()
+    {
+        return step(RETRACT, null, false);
+    }
+
+    /**
+     * Like {@link Region#retract8way()}, but across all loaded chunks; unloaded neighbors count as "off."
+     * @return this for chaining
+     */
+    public ChunkedRegion retract8way()
+    {
+        return step(RETRACT_8WAY, null, false);
+    }
+
+    /**
+     * Like {@link Region#fringe()}, but across all loaded chunks; does not create new chunks.
+     * @return this for chaining
+     */
+    public ChunkedRegion fringe()
+    {
+        return step(EXPAND, null, true);
+    }
+
+    /**
+     * Like {@link Region#fringe8way()}, but across all loaded chunks; does not create new chunks.
+     * @return this for chaining
+     */
+    public ChunkedRegion fringe8way()
+    {
+        return step(EXPAND_8WAY, null, true);
+    }
+
+    /**
+     * Like {@link Region#flood(Region)}, but across all loaded chunks; cells in chunks that are not loaded in bounds
+     * are treated as outside the bounds.
+     * @param bounds the ChunkedRegion this is permitted to expand into
+     * @return this for chaining
+     */
+    public ChunkedRegion flood(ChunkedRegion bounds)
+    {
+        return step(EXPAND, bounds, false);
+    }
+
+    /**
+     * Like {@link Region#flood(Region, int)}, but across all loaded chunks; stops early if a step doesn't change
+     * anything.
+     * @param bounds the ChunkedRegion this is permitted to expand into
+     * @param amount the most flood steps to perform
+     * @return this for chaining
+     */
+    public ChunkedRegion flood(ChunkedRegion bounds, int amount)
+    {
+        int ct = size(), ct2;
+        for (int i = 0; i < amount; i++) {
+            step(EXPAND, bounds, false);
+            if(ct == (ct2 = size()))
+                break;
+            ct = ct2;
+        }
+        return this;
+    }
+
+    /**
+     * Like {@link Region#flood8way(Region)}, but across all loaded chunks; cells in chunks that are not loaded in
+     * bounds are treated as outside the bounds.
+     * @param bounds the ChunkedRegion this is permitted to expand into
+     * @return this for chaining
+     */
+    public ChunkedRegion flood8way(ChunkedRegion bounds)
+    {
+        return step(EXPAND_8WAY, bounds, false);
+    }
+
+    /**
+     * Like {@link Region#flood8way(Region, int)}, but across all loaded chunks; stops early if a step doesn't change
+     * anything.
+     * @param bounds the ChunkedRegion this is permitted to expand into
+     * @param amount the most flood steps to perform
+     * @return this for chaining
+     */
+    public ChunkedRegion flood8way(ChunkedRegion bounds, int amount)
+    {
+        int ct = size(), ct2;
+        for (int i = 0; i < amount; i++) {
+            step(EXPAND_8WAY, bounds, false);
+            if(ct == (ct2 = size()))
+                break;
+            ct = ct2;
+        }
+        return this;
+    }
+}
@@ -2,11 +2,8 @@ package jagd;
 
 import com.badlogic.gdx.math.GridPoint2;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 
 /**
  * This class provides methods for calculating Field of View in grids. Field of
@@ -44,6 +41,9 @@ import java.util.List;
  * The order Region iterates in is somewhat strange, and doesn't, for example,
  * start at the center of an FOV map, but it will be the same every time you
  * create a Region with the same FOV map (or the same visible GridPoint2s).
+ * <br>
+ * None of the methods here keep any state between calls, so they can be called from many threads at once, as long as
+ * each thread gives them its own light map. {@link FOVBatch} does this for many viewers sharing one resistance map.
  *
  * @author Eben Howard - http://squidpony.com - howard@squidpony.com
  * @author Tommy Ettinger
@@ -171,17 +171,19 @@ public class FOV {
         light[startX][startY] = Math.min(1.0, radius);//make the starting space full power unless radius is tiny
 
 
-        shadowCast(0, 1, 1, 0, radius, startX, startY, decay, light, resistanceMap);
-        shadowCast(1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap);
+        // one stack for the intervals of every octant, grown as needed by each cast
+        double[] stack = new double[24];
+        stack = shadowCast(0, 1, 1, 0, radius, startX, startY, decay, light, resistanceMap, stack);
+        stack = shadowCast(1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, stack);
 
-        shadowCast(0, 1, -1, 0, radius, startX, startY, decay, light, resistanceMap);
-        shadowCast(1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(0, 1, -1, 0, radius, startX, startY, decay, light, resistanceMap, stack);
+        stack = shadowCast(1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, stack);
 
-        shadowCast(0, -1, -1, 0, radius, startX, startY, decay, light, resistanceMap);
-        shadowCast(-1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(0, -1, -1, 0, radius, startX, startY, decay, light, resistanceMap, stack);
+        stack = shadowCast(-1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, stack);
 
-        shadowCast(0, -1, 1, 0, radius, startX, startY, decay, light, resistanceMap);
-        shadowCast(-1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(0, -1, 1, 0, radius, startX, startY, decay, light, resistanceMap, stack);
+        stack = shadowCast(-1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, stack);
         return light;
     }
     /**
@@ -202,6 +204,7 @@ public class FOV {
      * @param startY the vertical component of the starting location
      * @param radius the distance the light will extend to
      * @return the computed light grid, which is the same 2D array as the value assigned to {@code light}
+     * @see #reuseFOVSymmetric(double[][], double[][], int, int, double) a much faster symmetric FOV for larger radii
      */
     public static double[][] reuseFOVSymmetrical(double[][] resistanceMap, double[][] light, int startX, int startY, double radius)
     {
@@ -210,75 +213,113 @@ public class FOV {
         light[startX][startY] = Math.min(1.0, radius);//make the starting space full power unless radius is tiny
 
 
-        shadowCast(0, 1, 1, 0, radius, startX, startY, decay, light, resistanceMap);
+        // one stack for the intervals of every octant, grown as needed by each cast
+        double[] stack = new double[24];
+        stack = shadowCast(0, 1, 1, 0, radius, startX, startY, decay, light, resistanceMap, stack);
         for (int row = 0; row <= radius + 1.0; row++) {
             for (int col = Math.max(1,row); col <= radius + 1.0; col++) {
                 if(startX - col >= 0 && startY - row >= 0 && resistanceMap[startX - col][startY - row] < 1.0 &&
-                        !shadowCastCheck(1, 1.0, 0.0, 0, -1, -1, 0, radius, startX - col, startY - row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY))
+                        !shadowCastCheck(1, 1.0, 0.0, 0, -1, -1, 0, radius, startX - col, startY - row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY, stack))
                     light[startX - col][startY - row] = 0.0;
             }
         }
-        shadowCast(1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, stack);
         for (int col = 0; col <= radius + 1.0; col++) {
             for (int row = Math.max(1,col); row <= radius + 1.0; row++) {
                 if(startX - col >= 0 && startY - row >= 0 && resistanceMap[startX - col][startY - row] < 1.0 &&
-                        !shadowCastCheck(1, 1.0, 0.0, -1, 0, 0, -1, radius, startX - col, startY - row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY))
+                        !shadowCastCheck(1, 1.0, 0.0, -1, 0, 0, -1, radius, startX - col, startY - row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY, stack))
                     light[startX - col][startY - row] = 0.0;
             }
         }
 
-        shadowCast(0, 1, -1, 0, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(0, 1, -1, 0, radius, startX, startY, decay, light, resistanceMap, stack);
         for (int row = 0; row <= radius + 1.0; row++) {
             for (int col = Math.max(1,row); col <= radius + 1.0; col++) {
                 if(startX - col >= 0 && startY + row < light[0].length &&  resistanceMap[startX - col][startY + row] < 1.0 &&
-                        !shadowCastCheck(1, 1.0, 0.0, 0, -1, 1, 0, radius, startX - col, startY + row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY))
+                        !shadowCastCheck(1, 1.0, 0.0, 0, -1, 1, 0, radius, startX - col, startY + row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY, stack))
                     light[startX - col][startY + row] = 0.0;
             }
         }
-        shadowCast(1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, stack);
         for (int col = 0; col <= radius + 1.0; col++) {
             for (int row = Math.max(1,col); row <= radius + 1.0; row++) {
                 if(startX - col >= 0 && startY + row < light[0].length && resistanceMap[startX - col][startY + row] < 1.0 &&
-                        !shadowCastCheck(1, 1.0, 0.0, -1, 0, 0, 1, radius, startX - col, startY + row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY))
+                        !shadowCastCheck(1, 1.0, 0.0, -1, 0, 0, 1, radius, startX - col, startY + row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY, stack))
                     light[startX - col][startY + row] = 0.0;
             }
         }
 
-        shadowCast(0, -1, -1, 0, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(0, -1, -1, 0, radius, startX, startY, decay, light, resistanceMap, stack);
         for (int row = 0; row <= radius + 1.0; row++) {
             for (int col = Math.max(1,row); col <= radius + 1.0; col++) {
                 if(startX + col < light.length && startY + row < light[0].length && resistanceMap[startX + col][startY + row] < 1.0 &&
-                        !shadowCastCheck(1, 1.0, 0.0, 0, 1, 1, 0, radius, startX + col, startY + row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY))
+                        !shadowCastCheck(1, 1.0, 0.0, 0, 1, 1, 0, radius, startX + col, startY + row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY, stack))
                     light[startX + col][startY + row] = 0.0;
             }
         }
-        shadowCast(-1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(-1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, stack);
         for (int col = 0; col <= radius + 1.0; col++) {
             for (int row = Math.max(1,col); row <= radius + 1.0; row++) {
                 if(startX + col < light.length && startY + row < light[0].length && resistanceMap[startX + col][startY + row] < 1.0 &&
-                        !shadowCastCheck(1, 1.0, 0.0, 1, 0, 0, 1, radius, startX + col, startY + row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY))
+                        !shadowCastCheck(1, 1.0, 0.0, 1, 0, 0, 1, radius, startX + col, startY + row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY, stack))
                     light[startX + col][startY + row] = 0.0;
             }
         }
 
-        shadowCast(0, -1, 1, 0, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(0, -1, 1, 0, radius, startX, startY, decay, light, resistanceMap, stack);
         for (int row = 0; row <= radius + 1.0 && startY + row < light[0].length; row++) {
             for (int col = Math.max(1,row); col <= radius + 1.0; col++) {
                 if(startX + col < light.length && startY - row >= 0 && resistanceMap[startX + col][startY - row] < 1.0 &&
-                        !shadowCastCheck(1, 1.0, 0.0, 0, 1, -1, 0, radius, startX + col, startY - row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY))
+                        !shadowCastCheck(1, 1.0, 0.0, 0, 1, -1, 0, radius, startX + col, startY - row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY, stack))
                     light[startX + col][startY - row] = 0.0;
             }
         }
-        shadowCast(-1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap);
+        stack = shadowCast(-1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, stack);
         for (int col = 0; col <= radius + 1.0; col++) {
             for (int row = Math.max(1,col); row <= radius + 1.0; row++) {
                 if(startX + col < light.length && startY - row >= 0 && resistanceMap[startX + col][startY - row] < 1.0 &&
-                        !shadowCastCheck(1, 1.0, 0.0, 1, 0, 0, -1, radius, startX + col, startY - row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY))
+                        !shadowCastCheck(1, 1.0, 0.0, 1, 0, 0, -1, radius, startX + col, startY - row, decay, light, resistanceMap, 0, 0, light.length, light[0].length, startX, startY, stack))
                     light[startX + col][startY - row] = 0.0;
             }
         }
         return light;
     }
+
+    /**
+     * Calculates the Field Of View for the provided map from the given x, y coordinates, using symmetric
+     * shadowcasting; a floor cell B is lit from floor cell A if and only if A would be lit from B, given the same
+     * radius. Assigns to, and returns, a light map where the values represent a percentage of fully lit, using the same
+     * light values as {@link #reuseFOV(double[][], double[][], int, int, double)} for the cells it lights. The values in
+     * light are always cleared before this is run.
+     * <br>
+     * This is an alternative to {@link #reuseFOVSymmetrical(double[][], double[][], int, int, double)}, which enforces
+     * symmetry by casting in reverse from each lit cell, and gets very slow at larger radii. This method instead uses
+     * Albert Ford's symmetric shadowcasting, which guarantees symmetry in one pass: it tracks the visible slopes of
+     * each row as exact fractions of integers, and only lights a floor cell if its center is inside those slopes. Walls
+     * are lit if any part of them is visible, so the walls around a room are all lit. Cells with resistance of at
+     * least 1.0 are walls; any other resistance is treated as clear. The results are similar to, but not the same as,
+     * the other FOV methods here; expansive areas look the same, but fewer cells are lit just past corners.
+     * <br>
+     * The starting point for the calculation is considered to be at the center of the origin cell. Radius
+     * determinations are based on Euclidean calculations.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light the grid of cells to assign to; may have existing values, and 0.0 is used to mean "unlit"
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return the computed light grid, which is the same 2D array as the value assigned to {@code light}
+     */
+    public static double[][] reuseFOVSymmetric(double[][] resistanceMap, double[][] light, int startX, int startY, double radius)
+    {
+        double decay = 1.0 / radius;
+        fill(light, 0.0);
+        light[startX][startY] = Math.min(1.0, radius);//make the starting space full power unless radius is tiny
+        int[] rows = new int[40];
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            rows = symmetricQuadrant(quadrant, radius, startX, startY, decay, light, resistanceMap, rows);
+        }
+        return light;
+    }
     /**
      * Calculates which cells have line of sight from the given x, y coordinates.
      * Assigns to, and returns, a light map where the values
@@ -329,17 +370,229 @@ public class FOV {
         fill(light, 0);
         light[startX][startY] = 1;//make the starting space full power
         
-        shadowCastBinary(1, 1.0, 0.0, 0, 1, 1, 0, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY);
-        shadowCastBinary(1, 1.0, 0.0, 1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY);
-        shadowCastBinary(1, 1.0, 0.0, 0, 1, -1, 0, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY);
-        shadowCastBinary(1, 1.0, 0.0, 1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY);
-        shadowCastBinary(1, 1.0, 0.0, 0, -1, -1, 0, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY);
-        shadowCastBinary(1, 1.0, 0.0, -1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY);
-        shadowCastBinary(1, 1.0, 0.0, 0, -1, 1, 0, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY);
-        shadowCastBinary(1, 1.0, 0.0, -1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY);
+        // one stack for the intervals of every octant, grown as needed by each cast
+        double[] stack = new double[24];
+        stack = shadowCastBinary(1, 1.0, 0.0, 0, 1, 1, 0, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY, stack);
+        stack = shadowCastBinary(1, 1.0, 0.0, 1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY, stack);
+        stack = shadowCastBinary(1, 1.0, 0.0, 0, 1, -1, 0, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY, stack);
+        stack = shadowCastBinary(1, 1.0, 0.0, 1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY, stack);
+        stack = shadowCastBinary(1, 1.0, 0.0, 0, -1, -1, 0, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY, stack);
+        stack = shadowCastBinary(1, 1.0, 0.0, -1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY, stack);
+        stack = shadowCastBinary(1, 1.0, 0.0, 0, -1, 1, 0, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY, stack);
+        stack = shadowCastBinary(1, 1.0, 0.0, -1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, minX, minY, maxX, maxY, stack);
         
         return light;
     }
+
+    /**
+     * Calculates which cells have line of sight from the given x, y coordinates, using a Region of blocking cells
+     * instead of a resistance map and writing the result into a Region instead of a light map. The result has the same
+     * "on" cells as {@link #reuseLOS(double[][], double[][], int, int)} has cells with 1.0, if the resistance map had
+     * 1.0 for exactly the cells that are "on" in blocking, but it uses 1 bit per cell and skips any conversion from
+     * {@code double[][]} to Region. The visible Region is resized to match blocking if needed and is cleared first.
+     * <br>
+     * The starting point for the calculation is considered to be at the center of the origin cell.
+     * @param blocking a Region where "on" cells block line of sight; will not be modified
+     * @param visible a Region that will be overwritten with the cells in line of sight; must not be blocking
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return visible, after modifications
+     */
+    public static Region reuseLOS(Region blocking, Region visible, int startX, int startY)
+    {
+        double radius = blocking.width + blocking.height;
+        return castRegion(blocking, visible, startX, startY, radius, true);
+    }
+
+    /**
+     * Calculates which cells are lit by Field Of View from the given x, y coordinates, using a Region of blocking cells
+     * instead of a resistance map and writing the result into a Region instead of a light map. The result has the same
+     * "on" cells as {@link #reuseFOV(double[][], double[][], int, int, double)} has cells with light greater than 0.0,
+     * if the resistance map had 1.0 for exactly the cells that are "on" in blocking, but it uses 1 bit per cell and
+     * skips any conversion from {@code double[][]} to Region. The visible Region is resized to match blocking if needed
+     * and is cleared first.
+     * <br>
+     * The starting point for the calculation is considered to be at the center of the origin cell. Radius
+     * determinations are based on Euclidean calculations.
+     * @param blocking a Region where "on" cells block light; will not be modified
+     * @param visible a Region that will be overwritten with the cells that are lit; must not be blocking
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return visible, after modifications
+     */
+    public static Region reuseFOV(Region blocking, Region visible, int startX, int startY, double radius)
+    {
+        return castRegion(blocking, visible, startX, startY, radius, false);
+    }
+
+    /**
+     * Calculates which cells have line of sight from the given x, y coordinates, using a Region of blocking cells
+     * instead of a resistance map, for maps where every cell either fully blocks light or doesn't block it at all.
+     * Assigns to, and returns, a light map with the same values as
+     * {@link #reuseLOS(double[][], double[][], int, int)} would produce if the resistance map had 1.0 for exactly the
+     * cells that are "on" in blocking. Like {@link #reuseLOS(Region, Region, int, int)}, this finds the walls and open
+     * cells along each row a word at a time, which is much faster than checking each cell in long corridors and large
+     * open caves. The values in light are always cleared before this is run.
+     * <br>
+     * The starting point for the calculation is considered to be at the center of the origin cell.
+     * @param blocking a Region where "on" cells block line of sight; will not be modified
+     * @param light a 2D double array with the same size as blocking, which will be overwritten
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return the computed light grid (the same as {@code light})
+     */
+    public static double[][] reuseLOS(Region blocking, double[][] light, int startX, int startY)
+    {
+        final Region visible = castWindow(blocking, 0, 0, startX, startY, blocking.width + blocking.height, true);
+        fill(light, 0);
+        return visible.writeDoublesInto(light, 1.0);
+    }
+
+    /**
+     * Calculates the Field Of View from the given x, y coordinates, using a Region of blocking cells instead of a
+     * resistance map, for maps where every cell either fully blocks light or doesn't block it at all. Assigns to, and
+     * returns, a light map with the same values as {@link #reuseFOV(double[][], double[][], int, int, double)} would
+     * produce if the resistance map had 1.0 for exactly the cells that are "on" in blocking. Like
+     * {@link #reuseFOV(Region, Region, int, int, double)}, this finds the walls and open cells along each row a word at
+     * a time, and only calculates light for the cells that turn out to be lit. The values in light are always cleared
+     * before this is run.
+     * <br>
+     * The starting point for the calculation is considered to be at the center of the origin cell. Radius
+     * determinations are based on Euclidean calculations.
+     * @param blocking a Region where "on" cells block light; will not be modified
+     * @param light a 2D double array with the same size as blocking, which will be overwritten
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return the computed light grid (the same as {@code light})
+     */
+    public static double[][] reuseFOV(Region blocking, double[][] light, int startX, int startY, double radius)
+    {
+        final int reach = reach(blocking, radius), minX = Math.max(0, startX - reach),
+                minY = Math.max(0, startY - reach) & -64;
+        final Region visible = castWindow(blocking, minX, minY, startX, startY, radius, false);
+        fill(light, 0);
+        final double decay = 1.0 / radius;
+        final long[] data = visible.data;
+        final int ySections = visible.ySections;
+        for (int x = minX, i = 0; x < minX + visible.width; x++) {
+            for (int s = 0; s < ySections; s++, i++) {
+                for (long w = data[i]; w != 0L; w &= w - 1L) {
+                    final int y = minY + (s << 6 | Long.numberOfTrailingZeros(w));
+                    light[x][y] = 1.0 - decay * radius(x - startX, y - startY);
+                }
+            }
+        }
+        light[startX][startY] = Math.min(1.0, radius);//make the starting space full power unless radius is tiny
+        return light;
+    }
+
+    /**
+     * Calculates which cells have line of sight from the given x, y coordinates, like
+     * {@link #reuseLOS(Region, Region, int, int)}, but using a transposed copy of blocking that the caller made ahead of
+     * time and a scratch Region for the caller to reuse, so nothing is allocated. That makes this the better choice
+     * when casting from many cells on one map, such as when building a {@link VisibilityIndex}. The other overload has
+     * to transpose blocking each time it is called.
+     * <br>
+     * The starting point for the calculation is considered to be at the center of the origin cell.
+     * @param blocking a Region where "on" cells block line of sight; will not be modified
+     * @param flipped the transpose of blocking, as produced by {@link Region#transpose(Region)}; will not be modified
+     * @param visible a Region that will be overwritten with the cells in line of sight; must not be blocking
+     * @param scratch a Region that will be overwritten with unspecified contents; must not be any other argument
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return visible, after modifications
+     */
+    public static Region reuseLOS(Region blocking, Region flipped, Region visible, Region scratch, int startX,
+                                  int startY)
+    {
+        return castRuns(blocking, flipped, visible, scratch, startX, startY, blocking.width + blocking.height, true);
+    }
+
+    /**
+     * How far from the start a cast with the given radius can reach; a cast never goes further than the map's width
+     * plus its height, even if radius is larger.
+     */
+    private static int reach(Region blocking, double radius)
+    {
+        return Math.max(0, (int) Math.ceil(Math.min(radius, blocking.width + blocking.height)));
+    }
+
+    private static Region castRegion(Region blocking, Region visible, int startX, int startY, double radius,
+                                     boolean binary)
+    {
+        final int reach = reach(blocking, radius), minX = Math.max(0, startX - reach),
+                minY = Math.max(0, startY - reach) & -64;
+        if(minX == 0 && minY == 0 && startX + reach >= blocking.width - 1 && startY + reach >= blocking.height - 1)
+            return castRuns(blocking, blocking.transpose(new Region(blocking.height, blocking.width)), visible,
+                    new Region(blocking.height, blocking.width), startX, startY, radius, binary);
+        if(visible.width != blocking.width || visible.height != blocking.height)
+            visible.resizeAndEmpty(blocking.width, blocking.height);
+        else
+            visible.clear();
+        // minY is a multiple of 64, so each column of the window is a run of whole words in visible
+        final Region window = castWindow(blocking, minX, minY, startX, startY, radius, binary);
+        final int windowSections = window.ySections;
+        for (int x = 0; x < window.width; x++) {
+            System.arraycopy(window.data, x * windowSections, visible.data,
+                    (minX + x) * visible.ySections + (minY >> 6), windowSections);
+        }
+        return visible;
+    }
+
+    /**
+     * Casts from startX, startY on only the part of blocking that radius can reach, starting at minX, minY (where minY
+     * must be a multiple of 64), so a small radius on a large map only copies and transposes a small window. Returns a
+     * new Region the size of that window, with the lit cells relative to minX, minY.
+     */
+    private static Region castWindow(Region blocking, int minX, int minY, int startX, int startY, double radius,
+                                     boolean binary)
+    {
+        final int reach = reach(blocking, radius),
+                width = Math.min(blocking.width, startX + reach + 1) - minX,
+                height = Math.min(blocking.height, startY + reach + 1) - minY;
+        Region walls = blocking;
+        if(width != blocking.width || height != blocking.height) {
+            walls = new Region(width, height);
+            final int ySections = walls.ySections;
+            for (int x = 0; x < width; x++) {
+                System.arraycopy(blocking.data, (minX + x) * blocking.ySections + (minY >> 6), walls.data,
+                        x * ySections, ySections);
+                walls.data[x * ySections + ySections - 1] &= walls.yEndMask;
+            }
+        }
+        return castRuns(walls, walls.transpose(new Region(height, width)), new Region(width, height),
+                new Region(height, width), startX - minX, startY - minY, radius, binary);
+    }
+
+    private static Region castRuns(Region blocking, Region flipped, Region visible, Region flippedVisible, int startX,
+                                   int startY, double radius, boolean binary)
+    {
+        if(visible.width != blocking.width || visible.height != blocking.height)
+            visible.resizeAndEmpty(blocking.width, blocking.height);
+        else
+            visible.clear();
+        if(flippedVisible.width != blocking.height || flippedVisible.height != blocking.width)
+            flippedVisible.resizeAndEmpty(blocking.height, blocking.width);
+        else
+            flippedVisible.clear();
+        double decay = 1.0 / radius;
+        if(binary || Math.min(1.0, radius) > 0.0)
+            visible.data[startX * visible.ySections + (startY >> 6)] |= 1L << (startY & 63);
+
+        // octants that scan along y can read whole words of blocking, since a Region stores columns in its words;
+        // the ones that scan along x do the same with the transposed copy, where x and y are swapped
+        double[] stack = new double[24];
+        for (int i = 0; i < 32; i += 4) {
+            final int xx = CONE_OCTANTS[i], xy = CONE_OCTANTS[i+1], yx = CONE_OCTANTS[i+2], yy = CONE_OCTANTS[i+3];
+            if(xx == 0)
+                stack = shadowCastRuns(xy, yx, radius, startX, startY, decay, visible, blocking, binary, stack);
+            else
+                stack = shadowCastRuns(yy, xx, radius, startY, startX, decay, flippedVisible, flipped, binary, stack);
+        }
+        return visible.orTranspose(flippedVisible);
+    }
     /**
      * Calculates the Field Of View for the provided map from the given x, y
      * coordinates, lighting at the given angle in  degrees and covering a span
@@ -373,336 +626,801 @@ public class FOV {
                 ? (((angle % 360.0) + 360.0) % 360.0) : angle) * 0.002777777777777778;
         span = span * 0.002777777777777778;
 
+        // one stack for the intervals of every octant, grown as needed by each cast
+        double[] stack = new double[24];
+        // octants the cone doesn't touch can't light anything, so they are skipped
+        for (int i = 0; i < 32; i += 4) {
+            final int xx = CONE_OCTANTS[i], xy = CONE_OCTANTS[i+1], yx = CONE_OCTANTS[i+2], yy = CONE_OCTANTS[i+3];
+            if(coneWindow(xx, xy, yx, yy, angle, span, null))
+                stack = shadowCastLimited(1, 1.0, 0.0, xx, xy, yx, yy, radius, startX, startY, decay, light,
+                        resistanceMap, angle, span, stack);
+        }
+        return light;
+    }
 
-        light = shadowCastLimited(1, 1.0, 0.0, 0, 1, 1, 0, radius, startX, startY, decay, light, resistanceMap, angle, span);
-        light = shadowCastLimited(1, 1.0, 0.0, 1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, angle, span);
+    /**
+     * Calculates the Field Of View for the provided map from the given x, y coordinates, lighting at the given angle in
+     * degrees and covering a span centered on that angle, also in degrees, while only examining the cells near the
+     * cone. Octants the cone doesn't touch are skipped entirely, and in the others, the range of slopes that is cast
+     * starts narrowed to the edges of the cone, so a narrow cone costs about as much as its own area instead of a full
+     * circle. This makes it a good fit for checking the vision cones of many guards.
+     * <br>
+     * The results are the same as {@link #reuseFOV(double[][], double[][], int, int, double, double, double)} except
+     * for a few cells along the edges of the cone, where that method can be affected by walls just outside the cone
+     * (such as a cell lit only through the corner of a wall outside the cone), and this isn't. If exact agreement
+     * matters, use that method, which still skips octants the cone doesn't touch. The values in light are cleared
+     * before this is run.
+     *
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a non-null 2D double array that will have its contents overwritten, modified, and returned
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @param angle the angle in degrees that will be the center of the FOV cone, 0 points right
+     * @param span the angle in degrees that measures the full arc contained in the FOV cone
+     * @return the computed light grid (the same as {@code light})
+     */
+    public static double[][] reuseFOVCone(double[][] resistanceMap, double[][] light, int startX, int startY,
+                                          double radius, double angle, double span)
+    {
+        double decay = 1.0 / radius;
+        fill(light, 0);
+        light[startX][startY] = Math.min(1.0, radius);//make the starting space full power unless radius is tiny
+        angle = ((angle >= 360.0 || angle < 0.0)
+                ? (((angle % 360.0) + 360.0) % 360.0) : angle) * 0.002777777777777778;
+        span = span * 0.002777777777777778;
 
-        light = shadowCastLimited(1, 1.0, 0.0, 0, -1, 1, 0, radius, startX, startY, decay, light, resistanceMap, angle, span);
-        light = shadowCastLimited(1, 1.0, 0.0, -1, 0, 0, 1, radius, startX, startY, decay, light, resistanceMap, angle, span);
+        // one stack for the intervals of every octant, grown as needed by each cast
+        double[] stack = new double[24];
+        final double[] window = new double[2];
+        for (int i = 0; i < 32; i += 4) {
+            final int xx = CONE_OCTANTS[i], xy = CONE_OCTANTS[i+1], yx = CONE_OCTANTS[i+2], yy = CONE_OCTANTS[i+3];
+            if(coneWindow(xx, xy, yx, yy, angle, span, window))
+                stack = shadowCastLimited(1, window[0], window[1], xx, xy, yx, yy, radius, startX, startY, decay, light,
+                        resistanceMap, angle, span, stack);
+        }
+        return light;
+    }
 
-        light = shadowCastLimited(1, 1.0, 0.0, 0, -1, -1, 0, radius, startX, startY, decay, light, resistanceMap, angle, span);
-        light = shadowCastLimited(1, 1.0, 0.0, -1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, angle, span);
 
-        light = shadowCastLimited(1, 1.0, 0.0, 0, 1, -1, 0, radius, startX, startY, decay, light, resistanceMap, angle, span);
-        light = shadowCastLimited(1, 1.0, 0.0, 1, 0, 0, -1, radius, startX, startY, decay, light, resistanceMap, angle, span);
+    /**
+     * Calculates the Field Of View for the provided map from the given x, y coordinates, using a precomputed table for
+     * the radius. This produces exactly the same results as
+     * {@link #reuseFOV(double[][], double[][], int, int, double)} with the table's radius, but reads each cell's slopes
+     * and light from the table instead of calculating them, which helps when the same few radii are used often.
+     * The values in light are always cleared before this is run.
+     *
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a non-null 2D double array that will have its contents overwritten, modified, and returned
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param table a table for the radius to use, such as from {@link FOVTable#get(double)}
+     * @return the computed light grid (the same as {@code light})
+     */
+    public static double[][] reuseFOV(double[][] resistanceMap, double[][] light, int startX, int startY, FOVTable table)
+    {
+        fill(light, 0);
+        light[startX][startY] = Math.min(1.0, table.radius);//make the starting space full power unless radius is tiny
+
+        // one stack for the intervals of every octant, grown as needed by each cast
+        double[] stack = new double[24];
+        stack = shadowCastTable(1, 1.0, 0.0, 0, 1, 1, 0, startX, startY, light, resistanceMap, table, 0.0, -1.0, stack);
+        stack = shadowCastTable(1, 1.0, 0.0, 1, 0, 0, 1, startX, startY, light, resistanceMap, table, 0.0, -1.0, stack);
+        stack = shadowCastTable(1, 1.0, 0.0, 0, 1, -1, 0, startX, startY, light, resistanceMap, table, 0.0, -1.0, stack);
+        stack = shadowCastTable(1, 1.0, 0.0, 1, 0, 0, -1, startX, startY, light, resistanceMap, table, 0.0, -1.0, stack);
+        stack = shadowCastTable(1, 1.0, 0.0, 0, -1, -1, 0, startX, startY, light, resistanceMap, table, 0.0, -1.0, stack);
+        stack = shadowCastTable(1, 1.0, 0.0, -1, 0, 0, -1, startX, startY, light, resistanceMap, table, 0.0, -1.0, stack);
+        stack = shadowCastTable(1, 1.0, 0.0, 0, -1, 1, 0, startX, startY, light, resistanceMap, table, 0.0, -1.0, stack);
+        stack = shadowCastTable(1, 1.0, 0.0, -1, 0, 0, 1, startX, startY, light, resistanceMap, table, 0.0, -1.0, stack);
         return light;
     }
-    
-    private static void doRippleFOV(double[][] lightMap, int ripple, int x, int y, int startX, int startY, double decay, double radius, double[][] map, boolean[][] indirect) {
-        final ArrayDeque<GridPoint2> dq = new ArrayDeque<>();
-        int width = lightMap.length;
-        int height = lightMap[0].length;
-        dq.offer(new GridPoint2(x, y));
-        while (!dq.isEmpty()) {
-            GridPoint2 p = dq.removeFirst();
-            if (lightMap[p.x][p.y] <= 0 || indirect[p.x][p.y]) {
-                continue;//no light to spread
-            }
-
-            for (GridPoint2 dir : ccw_full) {
-                int x2 = p.x + dir.x;
-                int y2 = p.y + dir.y;
-                if (x2 < 0 || x2 >= width || y2 < 0 || y2 >= height //out of bounds
-                        || radius(startX, startY, x2, y2) >= radius + 1) {//+1 to cover starting tile
-                    continue;
-                }
 
-                double surroundingLight = nearRippleLight(x2, y2, ripple, startX, startY, decay, lightMap, map, indirect);
-                if (lightMap[x2][y2] < surroundingLight) {
-                    lightMap[x2][y2] = surroundingLight;
-                    if (map[x2][y2] < 1) {//make sure it's not a wall
-                        dq.offer(new GridPoint2(x2, y2));//redo neighbors since this one's light changed
-                    }
-                }
-            }
+    /**
+     * Calculates the Field Of View for the provided map from the given x, y coordinates, lighting at the given angle in
+     * degrees and covering a span centered on that angle, also in degrees, using a precomputed table for the radius.
+     * This produces exactly the same results as {@link #reuseFOV(double[][], double[][], int, int, double, double, double)}
+     * with the table's radius, but reads each cell's slopes and light from the table instead of calculating them.
+     * The values in light are always cleared before this is run.
+     *
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a non-null 2D double array that will have its contents overwritten, modified, and returned
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param table a table for the radius to use, such as from {@link FOVTable#get(double)}
+     * @param angle the angle in degrees that will be the center of the FOV cone, 0 points right
+     * @param span the angle in degrees that measures the full arc contained in the FOV cone
+     * @return the computed light grid (the same as {@code light})
+     */
+    public static double[][] reuseFOV(double[][] resistanceMap, double[][] light, int startX, int startY,
+                                      FOVTable table, double angle, double span)
+    {
+        fill(light, 0);
+        light[startX][startY] = Math.min(1.0, table.radius);//make the starting space full power unless radius is tiny
+        angle = ((angle >= 360.0 || angle < 0.0)
+                ? (((angle % 360.0) + 360.0) % 360.0) : angle) * 0.002777777777777778;
+        span = span * 0.002777777777777778;
+
+        // one stack for the intervals of every octant, grown as needed by each cast
+        double[] stack = new double[24];
+        for (int i = 0; i < 32; i += 4) {
+            final int xx = CONE_OCTANTS[i], xy = CONE_OCTANTS[i+1], yx = CONE_OCTANTS[i+2], yy = CONE_OCTANTS[i+3];
+            if(coneWindow(xx, xy, yx, yy, angle, span, null))
+                stack = shadowCastTable(1, 1.0, 0.0, xx, xy, yx, yy, startX, startY, light, resistanceMap, table,
+                        angle, span, stack);
         }
+        return light;
     }
 
+    /**
+     * A convenience method that allocates a new {@link RippleFOV} on every call to calculate ripple FOV for the
+     * provided map from the given x, y coordinates. Assigns to, and returns, a light map where the values represent a
+     * percentage of fully lit. Ripple FOV spreads light like a flood fill, so it can bend slightly around corners and
+     * seep through translucent cells; see {@link RippleFOV} for details. The values in light are cleared before this
+     * is run.
+     * <br>
+     * The RippleFOV this allocates has buffers that take about 4 bytes per cell of the map, and they become garbage
+     * when this returns. If you need ripple FOV more than once, such as every frame for dynamic lights, construct one
+     * RippleFOV (one per thread) and call its {@link RippleFOV#reuseFOV(double[][], double[][], int, int, int, double)}
+     * method instead, which reuses its buffers and doesn't produce any garbage.
+     *
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a non-null 2D double array that will have its contents overwritten, modified, and returned
+     * @param rippleLooseness how many of each cell's closest neighbors can light it; clamped between 1 and 6
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return the computed light grid (the same as {@code light})
+     */
+    public static double[][] reuseRippleFOV(double[][] resistanceMap, double[][] light, int rippleLooseness,
+                                            int startX, int startY, double radius)
+    {
+        return new RippleFOV(light.length, light[0].length)
+                .reuseFOV(resistanceMap, light, rippleLooseness, startX, startY, radius);
+    }
+
+    /**
+     * A convenience method that allocates a new {@link RippleFOV} on every call to calculate ripple FOV for the
+     * provided map from the given x, y coordinates, lighting at the given angle in degrees and covering a span
+     * centered on that angle, also in degrees. Assigns to, and returns, a light map where the values represent a
+     * percentage of fully lit. The values in light are cleared before this is run.
+     * <br>
+     * The RippleFOV this allocates has buffers that take about 4 bytes per cell of the map, and they become garbage
+     * when this returns. If you need ripple FOV more than once, construct one RippleFOV (one per thread) and call its
+     * {@link RippleFOV#reuseFOV(double[][], double[][], int, int, int, double, double, double)} method instead.
+     *
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a non-null 2D double array that will have its contents overwritten, modified, and returned
+     * @param rippleLooseness how many of each cell's closest neighbors can light it; clamped between 1 and 6
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @param angle the angle in degrees that will be the center of the FOV cone, 0 points right
+     * @param span the angle in degrees that measures the full arc contained in the FOV cone
+     * @return the computed light grid (the same as {@code light})
+     */
+    public static double[][] reuseRippleFOV(double[][] resistanceMap, double[][] light, int rippleLooseness,
+                                            int startX, int startY, double radius, double angle, double span)
+    {
+        return new RippleFOV(light.length, light[0].length)
+                .reuseFOV(resistanceMap, light, rippleLooseness, startX, startY, radius, angle, span);
+    }
 
+    private static double[] shadowCast(int xx, int xy, int yx, int yy,
+                                       double radius, int startX, int startY, double decay, double[][] lightMap,
+                                       double[][] map, double[] stack) {
+        return shadowCast(1, 1.0, 0.0, xx, xy, yx, yy, radius, startX, startY, decay, lightMap, map,
+                0, 0, lightMap.length, lightMap[0].length, null, stack);
+    }
 
-    private static void doRippleFOV(double[][] lightMap, int ripple, int x, int y, int startX, int startY, double decay, double radius, double[][] map, boolean[][] indirect, double angle, double span) {
-        final ArrayDeque<GridPoint2> dq = new ArrayDeque<GridPoint2>();
-        int width = lightMap.length;
-        int height = lightMap[0].length;
-        dq.offer(new GridPoint2(x, y));
-        while (!dq.isEmpty()) {
-            GridPoint2 p = dq.removeFirst();
-            if (lightMap[p.x][p.y] <= 0 || indirect[p.x][p.y]) {
-                continue;//no light to spread
-            }
-
-            for (GridPoint2 dir : ccw_full) {
-                int x2 = p.x + dir.x;
-                int y2 = p.y + dir.y;
-                if (x2 < 0 || x2 >= width || y2 < 0 || y2 >= height //out of bounds
-                        || radius(startX, startY, x2, y2) >= radius + 1) {//+1 to cover starting tile
-                    continue;
-                }
-                double newAngle = atan2_(y2 - startY, x2 - startX);
-                if (newAngle > span * 0.5 && newAngle < 1.0 - span * 0.5) 
-                    continue;
-//if (Math.abs(MathExtras.remainder(angle - newAngle, Math.PI * 2)) > span * 0.5)
-
-                double surroundingLight = nearRippleLight(x2, y2, ripple, startX, startY, decay, lightMap, map, indirect);
-                if (lightMap[x2][y2] < surroundingLight) {
-                    lightMap[x2][y2] = surroundingLight;
-                    if (map[x2][y2] < 1) {//make sure it's not a wall
-                        dq.offer(new GridPoint2(x2, y2));//redo neighbors since this one's light changed
+    static double[] shadowCastBinary(int row, double start, double end, int xx, int xy, int yx, int yy,
+                                     double radius, int startX, int startY, double decay, double[][] lightMap,
+                                     double[][] map,
+                                     int minX, int minY, int maxX, int maxY, double[] stack) {
+        // intervals split off by walls are pushed onto stack as row, start, end, instead of recursing
+        int top = 0;
+        while (true) {
+            if (start >= end) {
+                double newStart = 0;
+                boolean blocked = false;
+                for (int distance = row; distance <= radius && distance < maxX - minX + maxY - minY && !blocked; distance++) {
+                    int deltaY = -distance;
+                    // cells before this one are all skipped because start < rightSlope, so don't visit them
+                    int firstX = Math.max(-distance, (int) Math.floor(-start * (distance + 0.5) - 0.5) - 1);
+                    for (int deltaX = firstX; deltaX <= 0; deltaX++) {
+                        int currentX = startX + deltaX * xx + deltaY * xy;
+                        int currentY = startY + deltaX * yx + deltaY * yy;
+                        double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
+                        double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+
+                        if (!(currentX >= minX && currentY >= minY && currentX < maxX && currentY < maxY) || start < rightSlope) {
+                            continue;
+                        } else if (end > leftSlope) {
+                            break;
+                        }
+
+                        lightMap[currentX][currentY] = 1.0;
+
+                        if (blocked) { //previous cell was a blocking one
+                            if (map[currentX][currentY] >= 1) {//hit a wall
+                                newStart = rightSlope;
+                            } else {
+                                blocked = false;
+                                start = newStart;
+                            }
+                        } else {
+                            if (map[currentX][currentY] >= 1 && distance < radius) {//hit a wall within sight line
+                                blocked = true;
+                                if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length << 1);
+                                stack[top++] = distance + 1;
+                                stack[top++] = start;
+                                stack[top++] = leftSlope;
+                                newStart = rightSlope;
+                            }
+                        }
                     }
                 }
             }
+            if (top == 0) break;
+            end = stack[--top];
+            start = stack[--top];
+            row = (int) stack[--top];
         }
+        return stack;
     }
 
-    private static double nearRippleLight(int x, int y, int rippleNeighbors, int startX, int startY, double decay, double[][] lightMap, double[][] map, boolean[][] indirect) {
-        if (x == startX && y == startY) {
-            return 1;
-        }
-        int width = lightMap.length;
-        int height = lightMap[0].length;
-        List<GridPoint2> neighbors = new ArrayList<>();
-        double tmpDistance = 0, testDistance;
-        GridPoint2 c;
-        for (GridPoint2 di : ccw_full) {
-            int x2 = x + di.x;
-            int y2 = y + di.y;
-            if (x2 >= 0 && x2 < width && y2 >= 0 && y2 < height) {
-                tmpDistance = radius(startX, startY, x2, y2);
-                int idx = 0;
-                for(int i = 0; i < neighbors.size() && i <= rippleNeighbors; i++)
-                {
-                    c = neighbors.get(i);
-                    testDistance = radius(startX, startY, c.x, c.y);
-                    if(tmpDistance < testDistance) {
-                        break;
+    static double leftSlope(int deltaX, int deltaY)
+    {
+        return (deltaX - 0.5f) / (deltaY + 0.5f);
+    }
+
+    static double rightSlope(int deltaX, int deltaY)
+    {
+        return (deltaX + 0.5f) / (deltaY - 0.5f);
+    }
+
+    /**
+     * The same shadowcast as the others here, for one octant that scans each row along y (where x is
+     * {@code startX - distance * xy} and y is {@code startY + deltaX * yx}), but working on runs of cells instead of
+     * one cell at a time. The cells a row covers and the cells within the radius are found from the slopes and radius
+     * directly, and are lit by filling whole words, while the next wall or the next open cell along the row is found
+     * with {@link Long#numberOfTrailingZeros(long)} or {@link Long#numberOfLeadingZeros(long)}. This lights exactly
+     * the cells the cell-by-cell shadowcast would. Returns the stack, which may have grown, so it can be reused.
+     */
+    private static double[] shadowCastRuns(int xy, int yx, double radius, int startX, int startY, double decay,
+                                           Region visible, Region blocking, boolean binary, double[] stack)
+    {
+        final long[] lit = visible.data, walls = blocking.data;
+        final int width = blocking.width, height = blocking.height, ySections = blocking.ySections;
+        // the deltaX values that stay within the map, and the direction y moves as deltaX increases
+        final int minDeltaX = yx > 0 ? -startY : startY - height + 1, maxDeltaX = yx > 0 ? height - 1 - startY : startY;
+        int top = 0, row = 1;
+        double start = 1.0, end = 0.0;
+        while (true) {
+            if (start >= end) {
+                for (int distance = row; distance <= radius && distance < width + height; distance++) {
+                    final int deltaY = -distance, x = startX + deltaY * xy;
+                    if (x < 0 || x >= width)
+                        continue;
+                    // the first deltaX not skipped because start < rightSlope, starting from an estimate
+                    int first = Math.min(1, Math.max(-distance, (int) Math.ceil(start * (deltaY - 0.5) - 0.5)));
+                    while (first > -distance && !(start < rightSlope(first - 1, deltaY))) first--;
+                    while (first <= 0 && start < rightSlope(first, deltaY)) first++;
+                    // the last deltaX before the scan would stop because end > leftSlope
+                    int last = Math.min(0, Math.max(-distance - 1, (int) Math.floor(end * (deltaY + 0.5) + 0.5)));
+                    while (last < 0 && !(end > leftSlope(last + 1, deltaY))) last++;
+                    while (last >= -distance && end > leftSlope(last, deltaY)) last--;
+                    final int lo = Math.max(first, minDeltaX), hi = Math.min(last, maxDeltaX);
+                    if (lo > hi)
+                        continue;
+                    final int base = x * ySections;
+                    if (binary)
+                        fillRun(lit, base, startY + lo * yx, startY + hi * yx);
+                    else {
+                        // light falls off with distance, so the lit cells are the ones with deltaX closest to 0
+                        int m = Math.max(lo, -(int) Math.sqrt(Math.max(0.0, radius * radius - distance * distance)));
+                        while (m > lo && isLit(m - 1, deltaY, radius, decay)) m--;
+                        while (m <= hi && !isLit(m, deltaY, radius, decay)) m++;
+                        if (m <= hi)
+                            fillRun(lit, base, startY + m * yx, startY + hi * yx);
                     }
-                    idx++;
+                    if (distance >= radius)
+                        continue;
+                    // walk the runs of walls and open cells in scan order
+                    final int stop = startY + hi * yx;
+                    int y = startY + lo * yx, wall;
+                    boolean blocked = false;
+                    while ((wall = nextRun(walls, base, y, stop, yx, 0L)) != stop + yx) {
+                        //hit a wall within sight line, after an open cell or at the start of the row
+                        if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length << 1);
+                        stack[top++] = distance + 1;
+                        stack[top++] = start;
+                        stack[top++] = leftSlope((wall - startY) * yx, deltaY);
+                        y = nextRun(walls, base, wall, stop, yx, -1L);
+                        if (y == stop + yx) {
+                            blocked = true;
+                            break;
+                        }
+                        start = rightSlope((y - yx - startY) * yx, deltaY);
+                    }
+                    if (blocked)
+                        break;
                 }
-                neighbors.add(idx, new GridPoint2(x2, y2));
             }
+            if (top == 0) break;
+            end = stack[--top];
+            start = stack[--top];
+            row = (int) stack[--top];
         }
+        return stack;
+    }
 
-        if (neighbors.isEmpty()) {
-            return 0;
+    private static boolean isLit(int deltaX, int deltaY, double radius, double decay)
+    {
+        final double deltaRadius = radius(deltaX, deltaY);
+        return deltaRadius <= radius && 1.0 - decay * deltaRadius > 0.0;
+    }
+
+    /**
+     * Turns on the bits from y1 to y2, inclusive and in either order, in the column of a Region's data starting at
+     * base, a word at a time.
+     */
+    private static void fillRun(final long[] data, final int base, int y1, int y2)
+    {
+        if(y1 > y2) {
+            final int t = y1;
+            y1 = y2;
+            y2 = t;
         }
-        neighbors = neighbors.subList(0, Math.min(neighbors.size(), rippleNeighbors));
-        double light = 0;
-        int lit = 0, indirects = 0;
-        for (GridPoint2 p : neighbors) {
-            if (lightMap[p.x][p.y] > 0) {
-                lit++;
-                if (indirect[p.x][p.y]) {
-                    indirects++;
-                }
-                double dist = radius(x, y, p.x, p.y);
-                light = Math.max(light, lightMap[p.x][p.y] - dist * decay - map[p.x][p.y]);
-            }
+        final int ss = y1 >> 6, es = y2 >> 6;
+        if(ss == es) {
+            data[base + ss] |= (-1L >>> (63 - (y2 & 63))) & (-1L << (y1 & 63));
+            return;
         }
-
-        if (map[x][y] >= 1 || indirects >= lit) {
-            indirect[x][y] = true;
+        data[base + ss] |= -1L << (y1 & 63);
+        for (int s = ss + 1; s < es; s++) {
+            data[base + s] = -1L;
         }
-        return light;
-    }
-
-    private static void shadowCast(int xx, int xy, int yx, int yy,
-                                   double radius, int startX, int startY, double decay, double[][] lightMap,
-                                   double[][] map) {
-	    shadowCast(1, 1.0, 0.0, xx, xy, yx, yy, radius, startX, startY, decay, lightMap, map,
-                0, 0, lightMap.length, lightMap[0].length);
+        data[base + es] |= -1L >>> (63 - (y2 & 63));
     }
 
-    private static void shadowCastBinary(int row, double start, double end, int xx, int xy, int yx, int yy,
-                                         double radius, int startX, int startY, double decay, double[][] lightMap,
-                                         double[][] map,
-                                         int minX, int minY, int maxX, int maxY) {
-        double newStart = 0;
-        if (start < end) {
-            return;
+    /**
+     * Finds the first y, going from y toward stop (inclusive) in direction dir (1 or -1), where the bit in the column
+     * of a Region's data starting at base is on, if flip is 0, or off, if flip is -1. Returns stop + dir if there is
+     * no such y.
+     */
+    private static int nextRun(final long[] data, final int base, int y, final int stop, final int dir,
+                               final long flip)
+    {
+        if(dir > 0) {
+            long w = (data[base + (y >> 6)] ^ flip) & (-1L << (y & 63));
+            while (w == 0L) {
+                y = (y | 63) + 1;
+                if(y > stop)
+                    return stop + 1;
+                w = data[base + (y >> 6)] ^ flip;
+            }
+            y = (y & ~63) | Long.numberOfTrailingZeros(w);
+            return y > stop ? stop + 1 : y;
+        }
+        else {
+            long w = (data[base + (y >> 6)] ^ flip) & (-1L >>> (63 - (y & 63)));
+            while (w == 0L) {
+                y = (y & ~63) - 1;
+                if(y < stop)
+                    return stop - 1;
+                w = data[base + (y >> 6)] ^ flip;
+            }
+            y = (y & ~63) | 63 - Long.numberOfLeadingZeros(w);
+            return y < stop ? stop - 1 : y;
         }
+    }
 
-        boolean blocked = false;
-        for (int distance = row; distance <= radius && distance < maxX - minX + maxY - minY && !blocked; distance++) {
-            int deltaY = -distance;
-            for (int deltaX = -distance; deltaX <= 0; deltaX++) {
-                int currentX = startX + deltaX * xx + deltaY * xy;
-                int currentY = startY + deltaX * yx + deltaY * yy;
-                double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
-                double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+    /**
+     * Floor division that works in GWT and before Java 8; the divisor must be positive.
+     */
+    private static int floorDiv(int dividend, int divisor)
+    {
+        return dividend >= 0 ? dividend / divisor : -((divisor - 1 - dividend) / divisor);
+    }
 
-                if (!(currentX >= minX && currentY >= minY && currentX < maxX && currentY < maxY) || start < rightSlope) {
-                    continue;
-                } else if (end > leftSlope) {
-                    break;
+    /**
+     * Symmetric shadowcasting over one quadrant (0 is up, 1 is right, 2 is down, 3 is left), using rows stored as
+     * groups of 5 ints in the reusable rows stack: depth, then the numerators and denominators of the start and end
+     * slopes. Returns the stack, which may have been enlarged.
+     */
+    private static int[] symmetricQuadrant(int quadrant, double radius, int startX, int startY, double decay,
+                                           double[][] lightMap, double[][] map, int[] rows)
+    {
+        final int width = lightMap.length, height = lightMap[0].length;
+        int top = 0, depth, startNum, startDen, endNum, endDen, minCol, maxCol, x, y, prev;
+        rows[top++] = 1;
+        rows[top++] = -1;
+        rows[top++] = 1;
+        rows[top++] = 1;
+        rows[top++] = 1;
+        while (top > 0) {
+            endDen = rows[--top];
+            endNum = rows[--top];
+            startDen = rows[--top];
+            startNum = rows[--top];
+            depth = rows[--top];
+            if(depth > radius)
+                continue;
+            // the start column rounds ties up, and the end column rounds ties down
+            minCol = floorDiv(2 * depth * startNum + startDen, 2 * startDen);
+            maxCol = -floorDiv(endDen - 2 * depth * endNum, 2 * endDen);
+            prev = -1;
+            for (int col = minCol; col <= maxCol; col++) {
+                switch (quadrant) {
+                    case 0: x = startX + col; y = startY - depth; break;
+                    case 1: x = startX + depth; y = startY + col; break;
+                    case 2: x = startX + col; y = startY + depth; break;
+                    default: x = startX - depth; y = startY + col; break;
                 }
-
-                lightMap[currentX][currentY] = 1.0;
-
-                if (blocked) { //previous cell was a blocking one
-                    if (map[currentX][currentY] >= 1) {//hit a wall
-                        newStart = rightSlope;
-                    } else {
-                        blocked = false;
-                        start = newStart;
+                final boolean inside = x >= 0 && y >= 0 && x < width && y < height,
+                        wall = !inside || map[x][y] >= 1.0;
+                if(inside && (wall || (col * startDen >= depth * startNum && col * endDen <= depth * endNum))) {
+                    double deltaRadius = radius(col, depth);
+                    if (deltaRadius <= radius) {
+                        lightMap[x][y] = 1.0 - decay * deltaRadius;
                     }
-                } else {
-                    if (map[currentX][currentY] >= 1 && distance < radius) {//hit a wall within sight line
-                        blocked = true;
-                        shadowCastBinary(distance + 1, start, leftSlope, xx, xy, yx, yy, radius, startX, startY, decay,
-                                lightMap, map, minX, minY, maxX, maxY);
-                        newStart = rightSlope;
+                }
+                if(prev == 1 && !wall) {
+                    startNum = 2 * col - 1;
+                    startDen = 2 * depth;
+                }
+                else if(prev == 0 && wall) {
+                    if(top + 5 > rows.length)
+                        rows = Arrays.copyOf(rows, rows.length << 1);
+                    rows[top++] = depth + 1;
+                    rows[top++] = startNum;
+                    rows[top++] = startDen;
+                    rows[top++] = 2 * col - 1;
+                    rows[top++] = 2 * depth;
+                }
+                prev = wall ? 1 : 0;
+            }
+            if(prev == 0) {
+                if(top + 5 > rows.length)
+                    rows = Arrays.copyOf(rows, rows.length << 1);
+                rows[top++] = depth + 1;
+                rows[top++] = startNum;
+                rows[top++] = startDen;
+                rows[top++] = endNum;
+                rows[top++] = endDen;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Like shadowCast() or shadowCastLimited(), but reads slopes and light from table; span is negative to light the
+     * full octant, or is the span of the cone in turns (already scaled from degrees) to act like shadowCastLimited().
+     */
+    private static double[] shadowCastTable(int row, double start, double end, int xx, int xy, int yx, int yy,
+                                            int startX, int startY, double[][] lightMap, double[][] map,
+                                            FOVTable table, double angle, double span, double[] stack) {
+        // intervals split off by walls are pushed onto stack as row, start, end, instead of recursing
+        int top = 0;
+        final int width = lightMap.length, height = lightMap[0].length;
+        final int[] rowStart = table.rowStart;
+        final double[] leftSlopes = table.leftSlopes, rightSlopes = table.rightSlopes, lights = table.light;
+        final double radius = table.radius;
+        while (true) {
+            if (start >= end) {
+                double newStart = 0;
+                boolean blocked = false;
+                for (int distance = row; distance <= table.maxDistance && distance < width + height && !blocked; distance++) {
+                    int deltaY = -distance;
+                    for (int deltaX = -distance, i = rowStart[distance]; deltaX <= 0; deltaX++, i++) {
+                        int currentX = startX + deltaX * xx + deltaY * xy;
+                        int currentY = startY + deltaX * yx + deltaY * yy;
+                        double leftSlope = leftSlopes[i];
+
+                        if (!(currentX >= 0 && currentY >= 0 && currentX < width && currentY < height) || start < rightSlopes[i]) {
+                            continue;
+                        } else if (end > leftSlope) {
+                            break;
+                        }
+                        //NaN means this is outside the lightable area
+                        final double bright = lights[i];
+                        if (bright == bright) {
+                            if(span < 0.0)
+                                lightMap[currentX][currentY] = bright;
+                            else {
+                                double at2 = Math.abs(angle - atan2_(currentY - startY, currentX - startX));
+                                if (at2 <= span * 0.5 || at2 >= 1.0 - span * 0.5)
+                                    lightMap[currentX][currentY] = bright;
+                            }
+                        }
+
+                        if (blocked) { //previous cell was a blocking one
+                            if (map[currentX][currentY] >= 1) {//hit a wall
+                                newStart = rightSlopes[i];
+                            } else {
+                                blocked = false;
+                                start = newStart;
+                            }
+                        } else {
+                            if (map[currentX][currentY] >= 1 && distance < radius) {//hit a wall within sight line
+                                blocked = true;
+                                if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length << 1);
+                                stack[top++] = distance + 1;
+                                stack[top++] = start;
+                                stack[top++] = leftSlope;
+                                newStart = rightSlopes[i];
+                            }
+                        }
                     }
                 }
             }
+            if (top == 0) break;
+            end = stack[--top];
+            start = stack[--top];
+            row = (int) stack[--top];
         }
+        return stack;
     }
 
+    /**
+     * Checks whether (targetX, targetY) is reached by a shadowcast from (startX, startY) over one octant. Uses stack for
+     * its intervals, but if the stack has to grow, the larger one is dropped, since this returns whether it was found.
+     */
     private static boolean shadowCastCheck(int row, double start, double end, int xx, int xy, int yx, int yy,
                                          double radius, int startX, int startY, double decay, double[][] lightMap,
                                          double[][] map,
-                                         int minX, int minY, int maxX, int maxY, int targetX, int targetY) {
-        double newStart = 0;
-        if (start < end) {
-            return false;
-        }
-
-        boolean blocked = false;
-        for (int distance = row; distance <= radius && distance < maxX - minX + maxY - minY && !blocked; distance++) {
-            int deltaY = -distance;
-            for (int deltaX = -distance; deltaX <= 0; deltaX++) {
-                int currentX = startX + deltaX * xx + deltaY * xy;
-                int currentY = startY + deltaX * yx + deltaY * yy;
-                double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
-                double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
-
-                if (!(currentX >= minX && currentY >= minY && currentX < maxX && currentY < maxY) || start < rightSlope) {
-                    continue;
-                } else if (end > leftSlope) {
-                    break;
-                }
-
-                if(currentX == targetX && currentY == targetY) return true;
-
-                if (blocked) { //previous cell was a blocking one
-                    if (map[currentX][currentY] >= 1.0) {//hit a wall
-                        newStart = rightSlope;
-                    } else {
-                        blocked = false;
-                        start = newStart;
-                    }
-                } else {
-                    if (map[currentX][currentY] >= 1.0 && distance < radius) {//hit a wall within sight line
-                        blocked = true;
-                        if(shadowCastCheck(distance + 1, start, leftSlope, xx, xy, yx, yy, radius, startX, startY, decay,
-                                lightMap, map, minX, minY, maxX, maxY, targetX, targetY))
-                            return true;
-                        newStart = rightSlope;
+                                         int minX, int minY, int maxX, int maxY, int targetX, int targetY,
+                                         double[] stack) {
+        // intervals split off by walls are pushed onto stack as row, start, end, instead of recursing
+        int top = 0;
+        while (true) {
+            if (start >= end) {
+                double newStart = 0;
+                boolean blocked = false;
+                for (int distance = row; distance <= radius && distance < maxX - minX + maxY - minY && !blocked; distance++) {
+                    int deltaY = -distance;
+                    for (int deltaX = -distance; deltaX <= 0; deltaX++) {
+                        int currentX = startX + deltaX * xx + deltaY * xy;
+                        int currentY = startY + deltaX * yx + deltaY * yy;
+                        double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
+                        double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+
+                        if (!(currentX >= minX && currentY >= minY && currentX < maxX && currentY < maxY) || start < rightSlope) {
+                            continue;
+                        } else if (end > leftSlope) {
+                            break;
+                        }
+
+                        if(currentX == targetX && currentY == targetY) return true;
+
+                        if (blocked) { //previous cell was a blocking one
+                            if (map[currentX][currentY] >= 1.0) {//hit a wall
+                                newStart = rightSlope;
+                            } else {
+                                blocked = false;
+                                start = newStart;
+                            }
+                        } else {
+                            if (map[currentX][currentY] >= 1.0 && distance < radius) {//hit a wall within sight line
+                                blocked = true;
+                                if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length << 1);
+                                stack[top++] = distance + 1;
+                                stack[top++] = start;
+                                stack[top++] = leftSlope;
+                                newStart = rightSlope;
+                            }
+                        }
                     }
                 }
             }
+            if (top == 0) break;
+            end = stack[--top];
+            start = stack[--top];
+            row = (int) stack[--top];
         }
         return false;
     }
 
-    private static void shadowCast(int row, double start, double end, int xx, int xy, int yx, int yy,
-                                   double radius, int startX, int startY, double decay, double[][] lightMap,
-                                   double[][] map, int minX, int minY, int maxX, int maxY) {
-        double newStart = 0;
-        if (start < end) {
-            return;
-        }
-        boolean blocked = false;
-        for (int distance = row; distance <= radius && distance < maxX - minX + maxY - minY && !blocked; distance++) {
-            int deltaY = -distance;
-            for (int deltaX = -distance; deltaX <= 0; deltaX++) {
-                int currentX = startX + deltaX * xx + deltaY * xy;
-                int currentY = startY + deltaX * yx + deltaY * yy;
-                double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
-                double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
-
-                if (!(currentX >= minX && currentY >= minY && currentX < maxX && currentY < maxY) || start < rightSlope) {
-                    continue;
-                } else if (end > leftSlope) {
-                    break;
-                }
-                double deltaRadius = radius(deltaX, deltaY);
-                //check if it's within the lightable area and light if needed
-                if (deltaRadius <= radius) {
-                    lightMap[currentX][currentY] = 1.0 - decay * deltaRadius; 
-                }
-
-                if (blocked) { //previous cell was a blocking one
-                    if (map[currentX][currentY] >= 1) {//hit a wall
-                        newStart = rightSlope;
-                    } else {
-                        blocked = false;
-                        start = newStart;
-                    }
-                } else {
-                    if (map[currentX][currentY] >= 1 && distance < radius) {//hit a wall within sight line
-                        blocked = true;
-                        shadowCast(distance + 1, start, leftSlope, xx, xy, yx, yy, radius, startX, startY, decay,
-                                lightMap, map, minX, minY, maxX, maxY);
-                        newStart = rightSlope;
+    /**
+     * The iterative shadowcast used by most of FOV and by other classes in this package, over one octant. If examined
+     * is not null, every cell whose resistance this reads is inserted into it. Returns stack, which may have grown, so
+     * it can be passed to the cast of the next octant.
+     */
+    static double[] shadowCast(int row, double start, double end, int xx, int xy, int yx, int yy,
+                               double radius, int startX, int startY, double decay, double[][] lightMap,
+                               double[][] map, int minX, int minY, int maxX, int maxY, Region examined,
+                               double[] stack) {
+        // intervals split off by walls are pushed onto stack as row, start, end, instead of recursing
+        int top = 0;
+        while (true) {
+            if (start >= end) {
+                double newStart = 0;
+                boolean blocked = false;
+                for (int distance = row; distance <= radius && distance < maxX - minX + maxY - minY && !blocked; distance++) {
+                    int deltaY = -distance;
+                    // cells before this one are all skipped because start < rightSlope, so don't visit them
+                    int firstX = Math.max(-distance, (int) Math.floor(-start * (distance + 0.5) - 0.5) - 1);
+                    for (int deltaX = firstX; deltaX <= 0; deltaX++) {
+                        int currentX = startX + deltaX * xx + deltaY * xy;
+                        int currentY = startY + deltaX * yx + deltaY * yy;
+                        double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
+                        double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+
+                        if (!(currentX >= minX && currentY >= minY && currentX < maxX && currentY < maxY) || start < rightSlope) {
+                            continue;
+                        } else if (end > leftSlope) {
+                            break;
+                        }
+                        double deltaRadius = radius(deltaX, deltaY);
+                        //check if it's within the lightable area and light if needed
+                        if (deltaRadius <= radius) {
+                            lightMap[currentX][currentY] = 1.0 - decay * deltaRadius; 
+                        }
+                        if (examined != null) {
+                            examined.insert(currentX, currentY);
+                        }
+
+                        if (blocked) { //previous cell was a blocking one
+                            if (map[currentX][currentY] >= 1) {//hit a wall
+                                newStart = rightSlope;
+                            } else {
+                                blocked = false;
+                                start = newStart;
+                            }
+                        } else {
+                            if (map[currentX][currentY] >= 1 && distance < radius) {//hit a wall within sight line
+                                blocked = true;
+                                if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length << 1);
+                                stack[top++] = distance + 1;
+                                stack[top++] = start;
+                                stack[top++] = leftSlope;
+                                newStart = rightSlope;
+                            }
+                        }
                     }
                 }
             }
+            if (top == 0) break;
+            end = stack[--top];
+            start = stack[--top];
+            row = (int) stack[--top];
         }
+        return stack;
     }
-    private static double[][] shadowCastLimited(int row, double start, double end, int xx, int xy, int yx, int yy,
-                                                double radius, int startX, int startY, double decay, double[][] lightMap,
-                                                double[][] map, double angle, double span) {
-        double newStart = 0;
-        if (start < end) {
-            return lightMap;
+    /**
+     * The xx, xy, yx, yy transforms for the 8 octants, as used by the cone-limited methods.
+     */
+    private static final int[] CONE_OCTANTS = {0, 1, 1, 0,  1, 0, 0, 1,  0, -1, 1, 0,  -1, 0, 0, 1,
+            0, -1, -1, 0,  -1, 0, 0, -1,  0, 1, -1, 0,  1, 0, 0, -1};
+    /**
+     * How far past the exact edges of a cone {@link #coneWindow(int, int, int, int, double, double, double[])} looks,
+     * as a slope, so cells whose centers are barely in the cone by {@link #atan2_(double, double)} are still reached.
+     */
+    private static final double CONE_MARGIN = 0.001;
+
+    /**
+     * Checks whether a cone (with angle and span measured in turns) overlaps one octant, and if window is not null,
+     * writes the start and end slopes of the part of the octant the cone covers into it. Slope 0 is along the octant's
+     * axis and slope 1 along its diagonal. If the octant and the cone don't overlap, this returns false and the octant
+     * can be skipped; if it isn't clear which part of the octant the cone covers (such as when the span is nearly a
+     * full circle), the window is the whole octant, and the per-cell angle check still limits what is lit.
+     */
+    private static boolean coneWindow(int xx, int xy, int yx, int yy, double angle, double span, double[] window)
+    {
+        if(window != null) {
+            window[0] = 1.0;
+            window[1] = 0.0;
+        }
+        if(span >= 1.0)
+            return true;
+        final double half = span * 0.5;
+        // the directions on the map of the octant's axis (slope 0) and diagonal (slope 1), checked the same way as cells
+        final boolean axisIn = inCone(atan2_(-yy, -xy), angle, half),
+                diagonalIn = inCone(atan2_(-yx - yy, -xx - xy), angle, half);
+        double low = 2.0, high = -1.0;
+        int edges = 0;
+        for (int e = -1; e <= 1; e += 2) {
+            final double edge = (angle + e * half) * 6.283185307179586, ox = Math.cos(edge), oy = Math.sin(edge),
+                    dx = xx * ox + yx * oy, dy = xy * ox + yy * oy;
+            // the inverse of each octant transform is its transpose; an edge is in the octant if dx/dy is from 0 to 1,
+            // but edges just outside count too, because atan2_() is slightly off from the exact angle
+            if(dy < 0.0 && dx <= -CONE_MARGIN * dy && dx >= (1.0 + CONE_MARGIN) * dy) {
+                final double slope = Math.min(Math.max(dx / dy, 0.0), 1.0);
+                low = Math.min(low, slope);
+                high = Math.max(high, slope);
+                ++edges;
+            }
         }
+        if(edges == 0) {
+            // the cone either covers the whole octant or misses it
+            return axisIn || diagonalIn;
+        }
+        if(edges == 1) {
+            if(axisIn && !diagonalIn)
+                low = 0.0;
+            else if(diagonalIn && !axisIn)
+                high = 1.0;
+            else
+                return true;
+        }
+        else if(axisIn || diagonalIn)
+            return true;
+        if(window != null) {
+            window[0] = Math.min(1.0, high + CONE_MARGIN);
+            window[1] = Math.max(0.0, low - CONE_MARGIN);
+        }
+        return true;
+    }
+
+    private static boolean inCone(double direction, double angle, double half)
+    {
+        final double at2 = Math.abs(angle - direction);
+        return at2 <= half || at2 >= 1.0 - half;
+    }
+
+    private static double[] shadowCastLimited(int row, double start, double end, int xx, int xy, int yx, int yy,
+                                              double radius, int startX, int startY, double decay, double[][] lightMap,
+                                              double[][] map, double angle, double span, double[] stack) {
+        // intervals split off by walls are pushed onto stack as row, start, end, instead of recursing
+        int top = 0;
         int width = lightMap.length;
         int height = lightMap[0].length;
 
-        boolean blocked = false;
-        for (int distance = row; distance <= radius && distance < width + height && !blocked; distance++) {
-            int deltaY = -distance;
-            for (int deltaX = -distance; deltaX <= 0; deltaX++) {
-                int currentX = startX + deltaX * xx + deltaY * xy;
-                int currentY = startY + deltaX * yx + deltaY * yy;
-                double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
-                double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
-
-                if (!(currentX >= 0 && currentY >= 0 && currentX < width && currentY < height) || start < rightSlope) {
-                    continue;
-                } else if (end > leftSlope) {
-                    break;
-                }
-                double deltaRadius = radius(deltaX, deltaY),
-                        at2 = Math.abs(angle - atan2_(currentY - startY, currentX - startX));// + 1.0) % 1.0;
-                //check if it's within the lightable area and light if needed
-                if (deltaRadius <= radius
-                        && (at2 <= span * 0.5
-                        || at2 >= 1.0 - span * 0.5)) {
-                    double bright = 1 - decay * deltaRadius;
-                    lightMap[currentX][currentY] = bright;
-                }
-
-                if (blocked) { //previous cell was a blocking one
-                    if (map[currentX][currentY] >= 1) {//hit a wall
-                        newStart = rightSlope;
-                    } else {
-                        blocked = false;
-                        start = newStart;
-                    }
-                } else {
-                    if (map[currentX][currentY] >= 1 && distance < radius) {//hit a wall within sight line
-                        blocked = true;
-                        lightMap = shadowCastLimited(distance + 1, start, leftSlope, xx, xy, yx, yy, radius, startX, startY, decay, lightMap, map, angle, span);
-                        newStart = rightSlope;
+        while (true) {
+            if (start >= end) {
+                double newStart = 0;
+                boolean blocked = false;
+                for (int distance = row; distance <= radius && distance < width + height && !blocked; distance++) {
+                    int deltaY = -distance;
+                    for (int deltaX = -distance; deltaX <= 0; deltaX++) {
+                        int currentX = startX + deltaX * xx + deltaY * xy;
+                        int currentY = startY + deltaX * yx + deltaY * yy;
+                        double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
+                        double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+
+                        if (!(currentX >= 0 && currentY >= 0 && currentX < width && currentY < height) || start < rightSlope) {
+                            continue;
+                        } else if (end > leftSlope) {
+                            break;
+                        }
+                        double deltaRadius = radius(deltaX, deltaY),
+                                at2 = Math.abs(angle - atan2_(currentY - startY, currentX - startX));// + 1.0) % 1.0;
+                        //check if it's within the lightable area and light if needed
+                        if (deltaRadius <= radius
+                                && (at2 <= span * 0.5
+                                || at2 >= 1.0 - span * 0.5)) {
+                            double bright = 1 - decay * deltaRadius;
+                            lightMap[currentX][currentY] = bright;
+                        }
+
+                        if (blocked) { //previous cell was a blocking one
+                            if (map[currentX][currentY] >= 1) {//hit a wall
+                                newStart = rightSlope;
+                            } else {
+                                blocked = false;
+                                start = newStart;
+                            }
+                        } else {
+                            if (map[currentX][currentY] >= 1 && distance < radius) {//hit a wall within sight line
+                                blocked = true;
+                                if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length << 1);
+                                stack[top++] = distance + 1;
+                                stack[top++] = start;
+                                stack[top++] = leftSlope;
+                                newStart = rightSlope;
+                            }
+                        }
                     }
                 }
             }
+            if (top == 0) break;
+            end = stack[--top];
+            start = stack[--top];
+            row = (int) stack[--top];
         }
-        return lightMap;
+        return stack;
     }
 
-    private static final double[] directionRanges = new double[8];
     /**
      * Calculates the Field Of View for the provided map from the given x, y
      * coordinates, lighting with the view "pointed at" the given {@code angle} in degrees,
@@ -736,6 +1454,8 @@ public class FOV {
     public static double[][] reuseFOV(double[][] resistanceMap, double[][] light, int startX, int startY,
                                       double radius, double angle,
                                       double forward, double sideForward, double side, double sideBack, double back) {
+        // allocated per call so this can be used from many threads at once
+        final double[] directionRanges = new double[8];
         directionRanges[0] = forward * radius;
         directionRanges[7] = directionRanges[1] = sideForward * radius;
         directionRanges[6] = directionRanges[2] = side * radius;
@@ -749,67 +1469,80 @@ public class FOV {
                 ? (((angle % 360.0) + 360.0) % 360.0) : angle) * 0.002777777777777778;
 
 
-        light = shadowCastPersonalized(1, 1.0, 0.0, 0, 1, 1, 0,   radius, startX, startY, light, resistanceMap, angle, directionRanges);
-        light = shadowCastPersonalized(1, 1.0, 0.0, 1, 0, 0, 1,   radius, startX, startY, light, resistanceMap, angle, directionRanges);
-        light = shadowCastPersonalized(1, 1.0, 0.0, 0, -1, 1, 0,  radius, startX, startY, light, resistanceMap, angle, directionRanges);
-        light = shadowCastPersonalized(1, 1.0, 0.0, -1, 0, 0, 1,  radius, startX, startY, light, resistanceMap, angle, directionRanges);
-        light = shadowCastPersonalized(1, 1.0, 0.0, 0, -1, -1, 0, radius, startX, startY, light, resistanceMap, angle, directionRanges);
-        light = shadowCastPersonalized(1, 1.0, 0.0, -1, 0, 0, -1, radius, startX, startY, light, resistanceMap, angle, directionRanges);
-        light = shadowCastPersonalized(1, 1.0, 0.0, 0, 1, -1, 0,  radius, startX, startY, light, resistanceMap, angle, directionRanges);
-        light = shadowCastPersonalized(1, 1.0, 0.0, 1, 0, 0, -1,  radius, startX, startY, light, resistanceMap, angle, directionRanges);
+        // one stack for the intervals of every octant, grown as needed by each cast
+        double[] stack = new double[24];
+        stack = shadowCastPersonalized(1, 1.0, 0.0, 0, 1, 1, 0,   radius, startX, startY, light, resistanceMap, angle, directionRanges, stack);
+        stack = shadowCastPersonalized(1, 1.0, 0.0, 1, 0, 0, 1,   radius, startX, startY, light, resistanceMap, angle, directionRanges, stack);
+        stack = shadowCastPersonalized(1, 1.0, 0.0, 0, -1, 1, 0,  radius, startX, startY, light, resistanceMap, angle, directionRanges, stack);
+        stack = shadowCastPersonalized(1, 1.0, 0.0, -1, 0, 0, 1,  radius, startX, startY, light, resistanceMap, angle, directionRanges, stack);
+        stack = shadowCastPersonalized(1, 1.0, 0.0, 0, -1, -1, 0, radius, startX, startY, light, resistanceMap, angle, directionRanges, stack);
+        stack = shadowCastPersonalized(1, 1.0, 0.0, -1, 0, 0, -1, radius, startX, startY, light, resistanceMap, angle, directionRanges, stack);
+        stack = shadowCastPersonalized(1, 1.0, 0.0, 0, 1, -1, 0,  radius, startX, startY, light, resistanceMap, angle, directionRanges, stack);
+        stack = shadowCastPersonalized(1, 1.0, 0.0, 1, 0, 0, -1,  radius, startX, startY, light, resistanceMap, angle, directionRanges, stack);
         return light;
     }
 
-    private static double[][] shadowCastPersonalized(int row, double start, double end, int xx, int xy, int yx, int yy,
-                                                     double radius, int startX, int startY, double[][] lightMap,
-                                                     double[][] map, double angle, final double[] directionRanges) {
-        double newStart = 0;
-        if (start < end) {
-            return lightMap;
-        }
+    private static double[] shadowCastPersonalized(int row, double start, double end, int xx, int xy, int yx, int yy,
+                                                   double radius, int startX, int startY, double[][] lightMap,
+                                                   double[][] map, double angle, final double[] directionRanges,
+                                                   double[] stack) {
+        // intervals split off by walls are pushed onto stack as row, start, end, instead of recursing
+        int top = 0;
         int width = lightMap.length;
         int height = lightMap[0].length;
 
-        boolean blocked = false;
-        for (int distance = row; distance <= radius && distance < width + height && !blocked; distance++) {
-            int deltaY = -distance;
-            for (int deltaX = -distance; deltaX <= 0; deltaX++) {
-                int currentX = startX + deltaX * xx + deltaY * xy;
-                int currentY = startY + deltaX * yx + deltaY * yy;
-                double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
-                double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
-
-                if (!(currentX >= 0 && currentY >= 0 && currentX < width && currentY < height) || start < rightSlope) {
-                    continue;
-                } else if (end > leftSlope) {
-                    break;
-                }
-                double at2 = Math.abs(angle - atan2_(currentY - startY, currentX - startX)) * 8.0,
-                        deltaRadius = radius(deltaX, deltaY);
-                int ia = (int)(at2), low = ia & 7, high = ia + 1 & 7;
-                double a = at2 - ia, adjRadius = (1.0 - a) * directionRanges[low] + a * directionRanges[high];
-                //check if it's within the lightable area and light if needed
-                if (deltaRadius <= adjRadius) {
-                    lightMap[currentX][currentY] = 1.0 - (deltaRadius / (adjRadius + 1.0)); // how bright the tile is
-                }
-
-                if (blocked) { //previous cell was a blocking one
-                    if (map[currentX][currentY] >= 1) {//hit a wall
-                        newStart = rightSlope;
-                    } else {
-                        blocked = false;
-                        start = newStart;
-                    }
-                } else {
-                    if (map[currentX][currentY] >= 1 && distance < adjRadius) {//hit a wall within sight line
-                        blocked = true;
-                        lightMap = shadowCastPersonalized(distance + 1, start, leftSlope, xx, xy, yx, yy, radius, startX, startY, lightMap, map, angle, directionRanges);
-                        newStart = rightSlope;
+        while (true) {
+            if (start >= end) {
+                double newStart = 0;
+                boolean blocked = false;
+                for (int distance = row; distance <= radius && distance < width + height && !blocked; distance++) {
+                    int deltaY = -distance;
+                    for (int deltaX = -distance; deltaX <= 0; deltaX++) {
+                        int currentX = startX + deltaX * xx + deltaY * xy;
+                        int currentY = startY + deltaX * yx + deltaY * yy;
+                        double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
+                        double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+
+                        if (!(currentX >= 0 && currentY >= 0 && currentX < width && currentY < height) || start < rightSlope) {
+                            continue;
+                        } else if (end > leftSlope) {
+                            break;
+                        }
+                        double at2 = Math.abs(angle - atan2_(currentY - startY, currentX - startX)) * 8.0,
+                                deltaRadius = radius(deltaX, deltaY);
+                        int ia = (int)(at2), low = ia & 7, high = ia + 1 & 7;
+                        double a = at2 - ia, adjRadius = (1.0 - a) * directionRanges[low] + a * directionRanges[high];
+                        //check if it's within the lightable area and light if needed
+                        if (deltaRadius <= adjRadius) {
+                            lightMap[currentX][currentY] = 1.0 - (deltaRadius / (adjRadius + 1.0)); // how bright the tile is
+                        }
+
+                        if (blocked) { //previous cell was a blocking one
+                            if (map[currentX][currentY] >= 1) {//hit a wall
+                                newStart = rightSlope;
+                            } else {
+                                blocked = false;
+                                start = newStart;
+                            }
+                        } else {
+                            if (map[currentX][currentY] >= 1 && distance < adjRadius) {//hit a wall within sight line
+                                blocked = true;
+                                if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length << 1);
+                                stack[top++] = distance + 1;
+                                stack[top++] = start;
+                                stack[top++] = leftSlope;
+                                newStart = rightSlope;
+                            }
+                        }
                     }
                 }
             }
+            if (top == 0) break;
+            end = stack[--top];
+            start = stack[--top];
+            row = (int) stack[--top];
         }
-        return lightMap;
+        return stack;
     }
 
     /**
@@ -0,0 +1,180 @@
+package jagd;
+
+import jagd.annotation.GwtIncompatible;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes FOV for many viewers at once, sharing one resistance map and splitting the viewers across the threads of
+ * a {@link ForkJoinPool}. Each viewer gets its own light map, supplied by the caller so they can be reused between
+ * turns; any null light maps are allocated with the same size as the resistance map. The results are exactly what
+ * {@link FOV#reuseFOV(double[][], double[][], int, int, double)} and
+ * {@link FOV#reuseLOS(double[][], double[][], int, int)} would produce for each viewer.
+ * <br>
+ * This is not available on GWT, since it needs threads; the methods in {@link FOV} are, and are safe to call from
+ * your own threads as long as each thread uses its own light map.
+ */
+@GwtIncompatible
+public class FOVBatch {
+    /**
+     * How many viewers a single task handles before it stops splitting its work further.
+     */
+    private static final int THRESHOLD = 4;
+
+    private static ForkJoinPool sharedPool;
+
+    /**
+     * Unneeded.
+     */
+    protected FOVBatch() {
+    }
+
+    /**
+     * Gets the ForkJoinPool used by the methods here that don't take one, creating it with one thread per available
+     * processor the first time this is called.
+     * @return the shared ForkJoinPool
+     */
+    public static synchronized ForkJoinPool sharedPool()
+    {
+        if(sharedPool == null)
+            sharedPool = new ForkJoinPool();
+        return sharedPool;
+    }
+
+    /**
+     * Calculates FOV for every viewer, with viewer i at {@code (xs[i], ys[i])} and lighting {@code lights[i]}, all with
+     * the same radius. Uses {@link #sharedPool()}.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param lights an array with one light map per viewer; null items will be allocated
+     * @param xs the x-positions of the viewers; must have at least as many items as lights
+     * @param ys the y-positions of the viewers; must have at least as many items as lights
+     * @param radius the distance the light will extend to, for every viewer
+     * @return lights, after filling it
+     */
+    public static double[][][] reuseFOVs(double[][] resistanceMap, double[][][] lights, int[] xs, int[] ys,
+                                         double radius)
+    {
+        return reuseFOVs(sharedPool(), resistanceMap, lights, xs, ys, null, radius);
+    }
+
+    /**
+     * Calculates FOV for every viewer, with viewer i at {@code (xs[i], ys[i])} with radius {@code radii[i]}, lighting
+     * {@code lights[i]}. Uses {@link #sharedPool()}.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param lights an array with one light map per viewer; null items will be allocated
+     * @param xs the x-positions of the viewers; must have at least as many items as lights
+     * @param ys the y-positions of the viewers; must have at least as many items as lights
+     * @param radii the radius for each viewer; must have at least as many items as lights
+     * @return lights, after filling it
+     */
+    public static double[][][] reuseFOVs(double[][] resistanceMap, double[][][] lights, int[] xs, int[] ys,
+                                         double[] radii)
+    {
+        return reuseFOVs(sharedPool(), resistanceMap, lights, xs, ys, radii, 0.0);
+    }
+
+    /**
+     * Calculates FOV for every viewer, with viewer i at {@code (xs[i], ys[i])} with radius {@code radii[i]} (or
+     * {@code radius} if radii is null), lighting {@code lights[i]}. The work is split across the given pool, and this
+     * waits until every light map has been filled.
+     * @param pool the ForkJoinPool to run in, such as {@link #sharedPool()}
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param lights an array with one light map per viewer; null items will be allocated
+     * @param xs the x-positions of the viewers; must have at least as many items as lights
+     * @param ys the y-positions of the viewers; must have at least as many items as lights
+     * @param radii the radius for each viewer, or null to use radius for all of them
+     * @param radius the radius used for every viewer if radii is null
+     * @return lights, after filling it
+     */
+    public static double[][][] reuseFOVs(ForkJoinPool pool, double[][] resistanceMap, double[][][] lights,
+                                         int[] xs, int[] ys, double[] radii, double radius)
+    {
+        check(lights, xs, ys, radii);
+        pool.invoke(new Task(resistanceMap, lights, xs, ys, radii, radius, false, 0, lights.length));
+        return lights;
+    }
+
+    /**
+     * Calculates line of sight for every viewer, with viewer i at {@code (xs[i], ys[i])}, lighting {@code lights[i]}.
+     * Uses {@link #sharedPool()}.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param lights an array with one light map per viewer; null items will be allocated
+     * @param xs the x-positions of the viewers; must have at least as many items as lights
+     * @param ys the y-positions of the viewers; must have at least as many items as lights
+     * @return lights, after filling it
+     */
+    public static double[][][] reuseLOSs(double[][] resistanceMap, double[][][] lights, int[] xs, int[] ys)
+    {
+        return reuseLOSs(sharedPool(), resistanceMap, lights, xs, ys);
+    }
+
+    /**
+     * Calculates line of sight for every viewer, with viewer i at {@code (xs[i], ys[i])}, lighting {@code lights[i]}.
+     * The work is split across the given pool, and this waits until every light map has been filled.
+     * @param pool the ForkJoinPool to run in, such as {@link #sharedPool()}
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param lights an array with one light map per viewer; null items will be allocated
+     * @param xs the x-positions of the viewers; must have at least as many items as lights
+     * @param ys the y-positions of the viewers; must have at least as many items as lights
+     * @return lights, after filling it
+     */
+    public static double[][][] reuseLOSs(ForkJoinPool pool, double[][] resistanceMap, double[][][] lights,
+                                         int[] xs, int[] ys)
+    {
+        check(lights, xs, ys, null);
+        pool.invoke(new Task(resistanceMap, lights, xs, ys, null, 0.0, true, 0, lights.length));
+        return lights;
+    }
+
+    private static void check(double[][][] lights, int[] xs, int[] ys, double[] radii)
+    {
+        if(lights == null || xs == null || ys == null || xs.length < lights.length || ys.length < lights.length
+                || (radii != null && radii.length < lights.length))
+            throw new IllegalArgumentException("FOVBatch needs a position (and radius, if given) for every light map");
+    }
+
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 0L;
+
+        private final double[][] resistanceMap;
+        private final double[][][] lights;
+        private final int[] xs, ys;
+        private final double[] radii;
+        private final double radius;
+        private final boolean los;
+        private final int start, end;
+
+        Task(double[][] resistanceMap, double[][][] lights, int[] xs, int[] ys, double[] radii, double radius,
+             boolean los, int start, int end) {
+            this.resistanceMap = resistanceMap;
+            this.lights = lights;
+            this.xs = xs;
+            this.ys = ys;
+            this.radii = radii;
+            this.radius = radius;
+            this.los = los;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start > THRESHOLD)
+            {
+                final int mid = start + end >>> 1;
+                invokeAll(new Task(resistanceMap, lights, xs, ys, radii, radius, los, start, mid),
+                        new Task(resistanceMap, lights, xs, ys, radii, radius, los, mid, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                if(lights[i] == null)
+                    lights[i] = new double[resistanceMap.length][resistanceMap[0].length];
+                if(los)
+                    FOV.reuseLOS(resistanceMap, lights[i], xs[i], ys[i]);
+                else
+                    FOV.reuseFOV(resistanceMap, lights[i], xs[i], ys[i], radii == null ? radius : radii[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package jagd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Caches the results of FOV and LOS calculations on one resistance map, so viewers that stay in the same place with
+ * the same radius (such as monsters standing still in a static area) don't need to cast again each turn. Results are
+ * keyed by position, radius, and which kind of calculation was done, and stay valid until {@link #invalidate()} is
+ * called, which should be done whenever the resistance map changes. Invalidating is cheap; it just increments a
+ * version number, and entries from older versions are recalculated the next time they are requested.
+ * <br>
+ * Each entry stores the cells it lit as 1 bit per cell, laid out like {@link Region#data} but only over the smallest
+ * rectangle that holds them. FOV entries also store the light of each lit cell, in the order the bits are read.
+ * Answering from an entry costs about as much as the cells it lit, not the whole map: Regions get each column shifted
+ * into place a word at a time, and light maps get only the lit cells written, found by skipping to each set bit. If the
+ * light map is the same array given to the previous call that filled one, and it wasn't changed since, only the
+ * rectangle that call lit is cleared; any other array is cleared completely first.
+ * <br>
+ * At most {@link #capacity} entries are kept, with the least-recently-used ones evicted first; finding an entry and
+ * marking it as recently used take constant time. The storage of evicted entries is pooled and reused for new ones.
+ * <br>
+ * This is not thread-safe; use one FOVCache per thread, or synchronize on it.
+ */
+public class FOVCache {
+    private static final int FOV_VARIANT = 0, LOS_VARIANT = 1;
+
+    private static final class Key {
+        int x, y, variant;
+        double radius;
+
+        Key(int x, int y, int variant, double radius) {
+            this.x = x;
+            this.y = y;
+            this.variant = variant;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return x == key.x && y == key.y && variant == key.variant
+                    && Double.doubleToLongBits(radius) == Double.doubleToLongBits(key.radius);
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(radius);
+            return (x * 0x1F1F1 + y) * 0x9E3779B1 ^ variant * 31 ^ (int) (bits ^ bits >>> 32);
+        }
+    }
+
+    private static final class Entry {
+        /**
+         * The lit cells, with sections longs per column for columns columns, starting at minX, minY.
+         */
+        long[] words = new long[0];
+        /**
+         * The light of each lit cell, in the order the bits of words are read; only used by FOV entries.
+         */
+        double[] levels = new double[0];
+        int minX, minY, columns, sections, version;
+    }
+
+    /**
+     * The most entries this will keep before evicting the least-recently-used ones.
+     */
+    public final int capacity;
+    private double[][] resistanceMap;
+    private int width, height, version;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final ArrayList<Entry> pool = new ArrayList<>(16);
+    private final Key probe = new Key(0, 0, 0, 0.0);
+    private double[][] scratch;
+    // the array the last light map was written to, and the rectangle that was lit in it
+    private double[][] lastLight;
+    private int lastMinX, lastMinY, lastMaxX, lastMaxY;
+    private long hits, misses, evictions;
+
+    /**
+     * Constructs an FOVCache for the given resistance map (which is not copied), keeping at most capacity entries.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param capacity the most entries to keep at once; must be at least 1
+     */
+    public FOVCache(double[][] resistanceMap, int capacity)
+    {
+        if(capacity < 1)
+            throw new IllegalArgumentException("FOVCache capacity must be at least 1");
+        this.capacity = capacity;
+        // access order moves each entry to the end when it is used, so the first entry is the least-recently-used
+        entries = new LinkedHashMap<>(capacity * 2, 0.75f, true);
+        setResistanceMap(resistanceMap);
+    }
+
+    /**
+     * Changes the resistance map this uses, invalidating all entries.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @return this for chaining
+     */
+    public FOVCache setResistanceMap(double[][] resistanceMap)
+    {
+        this.resistanceMap = resistanceMap;
+        width = resistanceMap.length;
+        height = resistanceMap[0].length;
+        scratch = null;
+        return invalidate();
+    }
+
+    /**
+     * @return the resistance map this uses, which is not a copy
+     */
+    public double[][] getResistanceMap()
+    {
+        return resistanceMap;
+    }
+
+    /**
+     * Marks all entries as out of date; call this after any change to the resistance map.
+     * @return this for chaining
+     */
+    public FOVCache invalidate()
+    {
+        ++version;
+        return this;
+    }
+
+    /**
+     * Gets the version of the resistance map, which starts at 1 and increases by 1 each time {@link #invalidate()} is
+     * called; entries are only used if they were calculated with the current version.
+     * @return the current version
+     */
+    public int version()
+    {
+        return version;
+    }
+
+    /**
+     * @return how many requests were answered from the cache
+     */
+    public long hits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return how many requests had to be calculated, including ones with out-of-date entries
+     */
+    public long misses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return how many entries have been evicted to stay within {@link #capacity}
+     */
+    public long evictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return how many entries are currently stored, including out-of-date ones
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Resets the counts of hits, misses, and evictions to 0.
+     * @return this for chaining
+     */
+    public FOVCache resetStats()
+    {
+        hits = misses = evictions = 0;
+        return this;
+    }
+
+    /**
+     * Removes all entries, pooling their storage for reuse.
+     * @return this for chaining
+     */
+    public FOVCache clear()
+    {
+        pool.addAll(entries.values());
+        entries.clear();
+        return this;
+    }
+
+    /**
+     * Gets the same light map as {@link FOV#reuseFOV(double[][], double[][], int, int, double)} would produce, using a
+     * cached result if one is available for this position and radius. If light is the array given to the previous
+     * call that filled a light map, and it hasn't been changed since, only the cells that call lit are cleared.
+     * @param light a 2D double array with the same size as the resistance map; will be overwritten
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return light, after filling it
+     */
+    public double[][] reuseFOV(double[][] light, int startX, int startY, double radius)
+    {
+        Entry e = lookup(startX, startY, FOV_VARIANT, radius);
+        if(e == null) {
+            FOV.reuseFOV(resistanceMap, light, startX, startY, radius);
+            return remember(light, store(light, startX, startY, FOV_VARIANT, radius));
+        }
+        return write(e, light, true);
+    }
+
+    /**
+     * Gets the same light map as {@link FOV#reuseLOS(double[][], double[][], int, int)} would produce, using a cached
+     * result if one is available for this position. If light is the array given to the previous call that filled a
+     * light map, and it hasn't been changed since, only the cells that call lit are cleared.
+     * @param light a 2D double array with the same size as the resistance map; will be overwritten
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return light, after filling it
+     */
+    public double[][] reuseLOS(double[][] light, int startX, int startY)
+    {
+        Entry e = lookup(startX, startY, LOS_VARIANT, 0.0);
+        if(e == null) {
+            FOV.reuseLOS(resistanceMap, light, startX, startY);
+            return remember(light, store(light, startX, startY, LOS_VARIANT, 0.0));
+        }
+        return write(e, light, false);
+    }
+
+    /**
+     * Gets the cells with light greater than 0 in the result of
+     * {@link FOV#reuseFOV(double[][], double[][], int, int, double)}, using a cached result if one is available for
+     * this position and radius. Shares cached results with {@link #reuseFOV(double[][], int, int, double)}.
+     * @param visible a Region that will be resized if needed to match the resistance map, then overwritten
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return visible, after filling it
+     */
+    public Region reuseFOV(Region visible, int startX, int startY, double radius)
+    {
+        Entry e = lookup(startX, startY, FOV_VARIANT, radius);
+        if(e == null) {
+            e = store(FOV.reuseFOV(resistanceMap, scratch(), startX, startY, radius), startX, startY, FOV_VARIANT, radius);
+        }
+        return expand(e, visible);
+    }
+
+    /**
+     * Gets the cells in line of sight, as {@link FOV#reuseLOS(double[][], double[][], int, int)} would find them,
+     * using a cached result if one is available for this position. Shares cached results with
+     * {@link #reuseLOS(double[][], int, int)}.
+     * @param visible a Region that will be resized if needed to match the resistance map, then overwritten
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return visible, after filling it
+     */
+    public Region reuseLOS(Region visible, int startX, int startY)
+    {
+        Entry e = lookup(startX, startY, LOS_VARIANT, 0.0);
+        if(e == null) {
+            e = store(FOV.reuseLOS(resistanceMap, scratch(), startX, startY), startX, startY, LOS_VARIANT, 0.0);
+        }
+        return expand(e, visible);
+    }
+
+    private double[][] scratch()
+    {
+        if(scratch == null)
+            scratch = new double[width][height];
+        return scratch;
+    }
+
+    /**
+     * Clears the cells the last light map lit if light is the same array, or all of light otherwise, then writes the
+     * lit cells of e into it, reading each lit cell's light from e.levels if useLevels is true, or using 1.0 if not.
+     */
+    private double[][] write(Entry e, double[][] light, boolean useLevels)
+    {
+        if(light == lastLight) {
+            for (int x = lastMinX; x < lastMaxX; x++) {
+                Arrays.fill(light[x], lastMinY, lastMaxY, 0.0);
+            }
+        }
+        else
+            FOV.fill(light, 0.0);
+        final long[] words = e.words;
+        final double[] levels = e.levels;
+        for (int c = 0, i = 0, n = 0; c < e.columns; c++) {
+            final double[] column = light[e.minX + c];
+            for (int s = 0, y = e.minY; s < e.sections; s++, i++, y += 64) {
+                for (long word = words[i]; word != 0L; word &= word - 1L) {
+                    column[y + Long.numberOfTrailingZeros(word)] = useLevels ? levels[n++] : 1.0;
+                }
+            }
+        }
+        return remember(light, e);
+    }
+
+    private double[][] remember(double[][] light, Entry e)
+    {
+        lastLight = light;
+        lastMinX = e.minX;
+        lastMinY = e.minY;
+        lastMaxX = e.minX + e.columns;
+        lastMaxY = Math.min(height, e.minY + (e.sections << 6));
+        return light;
+    }
+
+    private Region expand(Entry e, Region visible)
+    {
+        if(visible.width != width || visible.height != height)
+            visible.resizeAndEmpty(width, height);
+        else
+            visible.clear();
+        // each column of the entry is shifted into place a word at a time
+        final long[] words = e.words, data = visible.data;
+        final int ySections = visible.ySections, start = e.minY >> 6, shift = e.minY & 63;
+        for (int c = 0, i = 0; c < e.columns; c++) {
+            final int base = (e.minX + c) * ySections + start;
+            for (int s = 0; s < e.sections; s++, i++) {
+                final long word = words[i];
+                data[base + s] |= word << shift;
+                if(shift != 0 && start + s + 1 < ySections)
+                    data[base + s + 1] |= word >>> -shift;
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Finds an up-to-date entry, marking it as recently used and counting a hit, or counts a miss and returns null.
+     */
+    private Entry lookup(int x, int y, int variant, double radius)
+    {
+        probe.x = x;
+        probe.y = y;
+        probe.variant = variant;
+        probe.radius = radius;
+        Entry e = entries.get(probe);
+        if(e != null && e.version == version) {
+            ++hits;
+            return e;
+        }
+        ++misses;
+        return null;
+    }
+
+    private Entry store(double[][] light, int startX, int startY, int variant, double radius)
+    {
+        probe.x = startX;
+        probe.y = startY;
+        probe.variant = variant;
+        probe.radius = radius;
+        Entry e = entries.get(probe);
+        if(e == null) {
+            if(entries.size() >= capacity) {
+                final Iterator<Entry> eldest = entries.values().iterator();
+                pool.add(eldest.next());
+                eldest.remove();
+                ++evictions;
+            }
+            e = pool.isEmpty() ? new Entry() : pool.remove(pool.size() - 1);
+            entries.put(new Key(startX, startY, variant, radius), e);
+        }
+        e.version = version;
+        // FOV can't light anything farther than radius in each direction, so only that window needs searching
+        final int reach = variant == LOS_VARIANT ? width + height : (int) Math.min(width + height, Math.ceil(radius));
+        int minX = Math.max(0, startX - reach), minY = Math.max(0, startY - reach),
+                maxX = Math.min(width, startX + reach + 1), maxY = Math.min(height, startY + reach + 1);
+        // shrink the window to the lit cells; the start is always lit, so it can't be empty
+        int lowX = startX, lowY = startY, highX = startX, highY = startY, count = 0;
+        for (int x = minX; x < maxX; x++) {
+            final double[] column = light[x];
+            for (int y = minY; y < maxY; y++) {
+                if(column[y] > 0.0) {
+                    lowX = Math.min(lowX, x);
+                    highX = Math.max(highX, x);
+                    lowY = Math.min(lowY, y);
+                    highY = Math.max(highY, y);
+                    ++count;
+                }
+            }
+        }
+        minX = e.minX = lowX;
+        minY = e.minY = lowY;
+        maxX = highX + 1;
+        maxY = highY + 1;
+        final int sections = e.sections = (maxY - minY + 63) >> 6, size = (e.columns = maxX - minX) * sections;
+        if(e.words.length < size)
+            e.words = new long[size];
+        else
+            Arrays.fill(e.words, 0, size, 0L);
+        final boolean useLevels = variant == FOV_VARIANT;
+        if(useLevels && e.levels.length < count)
+            e.levels = new double[count];
+        final long[] words = e.words;
+        final double[] levels = e.levels;
+        for (int x = minX, n = 0; x < maxX; x++) {
+            final double[] column = light[x];
+            final int base = (x - minX) * sections;
+            for (int y = minY; y < maxY; y++) {
+                if(column[y] > 0.0) {
+                    words[base + (y - minY >> 6)] |= 1L << (y - minY);
+                    if(useLevels)
+                        levels[n++] = column[y];
+                }
+            }
+        }
+        return e;
+    }
+}
@@ -0,0 +1,89 @@
+package jagd;
+
+/**
+ * Precomputed values for shadowcasting FOV with one radius, shared by all 8 octants and by every start position: the
+ * two slopes bounding each cell and the light each cell gets, for every cell in an octant out to the radius. Passing
+ * one of these to {@link FOV#reuseFOV(double[][], double[][], int, int, FOVTable)} or
+ * {@link FOV#reuseFOV(double[][], double[][], int, int, FOVTable, double, double)} lets the cast skip the division
+ * and square root it would otherwise do for each cell, while producing exactly the same results as the methods that
+ * take a radius.
+ * <br>
+ * Tables are immutable, so they can be shared between threads. Use {@link #get(double)} to get a table from a small
+ * shared cache of recently-used radii, or construct and keep your own for radii you use often. Each table uses about
+ * {@code 12 * radius * radius} bytes, so radii are limited to {@link #MAX_RADIUS}.
+ */
+public final class FOVTable {
+    /**
+     * The largest radius a table can be made for.
+     */
+    public static final int MAX_RADIUS = 512;
+    private static final int CACHE_SIZE = 16;
+    private static final IndexedMap<Double, FOVTable> cache = new IndexedMap<>(CACHE_SIZE + 1);
+
+    public final double radius, decay;
+    /**
+     * The largest distance (row) from the start that an octant cast can reach, which is radius rounded down.
+     */
+    public final int maxDistance;
+    /**
+     * For each distance from 1 to {@link #maxDistance}, the index in the other arrays of the cell at deltaX equal to
+     * {@code -distance}; the cell at a given deltaX (from {@code -distance} to 0) is at
+     * {@code rowStart[distance] + distance + deltaX}.
+     */
+    final int[] rowStart;
+    final double[] leftSlopes, rightSlopes;
+    /**
+     * The light for each cell, or NaN if the cell is too far away to be lit.
+     */
+    final double[] light;
+
+    /**
+     * Builds a table for the given radius.
+     * @param radius the distance the light will extend to; must be between 0 (exclusive) and {@link #MAX_RADIUS}
+     */
+    public FOVTable(double radius)
+    {
+        if(!(radius > 0.0 && radius <= MAX_RADIUS))
+            throw new IllegalArgumentException("FOVTable radius must be greater than 0 and at most " + MAX_RADIUS);
+        this.radius = radius;
+        decay = 1.0 / radius;
+        maxDistance = (int) radius;
+        rowStart = new int[maxDistance + 2];
+        for (int d = 1; d <= maxDistance + 1; d++) {
+            rowStart[d] = d * (d + 1) / 2 - 1;
+        }
+        final int size = rowStart[maxDistance + 1];
+        leftSlopes = new double[size];
+        rightSlopes = new double[size];
+        light = new double[size];
+        for (int distance = 1, i = 0; distance <= maxDistance; distance++) {
+            int deltaY = -distance;
+            for (int deltaX = -distance; deltaX <= 0; deltaX++, i++) {
+                // these must be computed exactly as FOV computes them, so the results are identical
+                leftSlopes[i] = (deltaX - 0.5f) / (deltaY + 0.5f);
+                rightSlopes[i] = (deltaX + 0.5f) / (deltaY - 0.5f);
+                double deltaRadius = FOV.radius(deltaX, deltaY);
+                light[i] = deltaRadius <= radius ? 1.0 - decay * deltaRadius : Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Gets a table for the given radius, reusing a cached one if that radius was used recently.
+     * @param radius the distance the light will extend to; must be between 0 (exclusive) and {@link #MAX_RADIUS}
+     * @return a table for radius, which may be shared
+     */
+    public static FOVTable get(double radius)
+    {
+        synchronized (cache) {
+            FOVTable table = cache.getAndMoveToLast(radius);
+            if(table == null) {
+                table = new FOVTable(radius);
+                if(cache.size() >= CACHE_SIZE)
+                    cache.removeFirst();
+                cache.putAndMoveToLast(radius, table);
+            }
+            return table;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package jagd;
+
+import java.util.Arrays;
+
+/**
+ * Shadowcasting FOV and LOS like {@link FOV}, but over flat 1D arrays with an explicit width and height instead of
+ * {@code double[][]}. The resistance and light buffers are row-major, so the cell at (x, y) is at index
+ * {@code y * width + x}, which is the layout most rendering code and texture uploads use; this means light maps can be
+ * handed to a renderer without copying. Both {@code float[]} and {@code double[]} buffers are supported; the float
+ * versions use half the memory and produce the same values as the double versions, rounded to float. Light can also be
+ * written quantized into {@code byte[]} or {@code short[]} buffers, as unsigned levels up to 255 or 65535, for storing
+ * or sending light maps at an eighth or a quarter of the size of doubles.
+ * <br>
+ * Every buffer type shares one cast that does all of its math in double, and only converts each light value when it
+ * is stored, so the float, byte, and short versions save memory but don't compute any faster than the double version.
+ * <br>
+ * Compared to {@link FOV#reuseFOV(double[][], double[][], int, int, double)}, these avoid one array object per column
+ * (and the pointer chasing and bounds checks that go with it), and clear the light map with a single fill. The results
+ * match FOV's for the same resistance map, start, and radius.
+ * <br>
+ * Like FOV, these keep no state between calls, so they can be called from many threads at once as long as each thread
+ * uses its own light buffer.
+ */
+public class FlatFOV {
+    /**
+     * The xx, xy, yx, yy transforms for the 8 octants, in the order {@link FOV} casts them.
+     */
+    private static final int[] OCTANTS = {
+            0, 1, 1, 0,    1, 0, 0, 1,    0, 1, -1, 0,   1, 0, 0, -1,
+            0, -1, -1, 0,  -1, 0, 0, -1,  0, -1, 1, 0,   -1, 0, 0, 1};
+
+    /**
+     * Unneeded.
+     */
+    protected FlatFOV() {
+    }
+
+    /**
+     * Copies a {@code double[][]} grid, indexed as {@code [x][y]}, into a row-major float buffer.
+     * @param grid a 2D double array, such as a resistance map used with {@link FOV}
+     * @param into a float array with at least {@code grid.length * grid[0].length} items, or null to allocate one
+     * @return into, or a new float array if into was null
+     */
+    public static float[] flatten(double[][] grid, float[] into)
+    {
+        final int width = grid.length, height = grid[0].length;
+        if(into == null)
+            into = new float[width * height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0, i = x; y < height; y++, i += width) {
+                into[i] = (float) grid[x][y];
+            }
+        }
+        return into;
+    }
+
+    /**
+     * Copies a {@code double[][]} grid, indexed as {@code [x][y]}, into a row-major double buffer.
+     * @param grid a 2D double array, such as a resistance map used with {@link FOV}
+     * @param into a double array with at least {@code grid.length * grid[0].length} items, or null to allocate one
+     * @return into, or a new double array if into was null
+     */
+    public static double[] flatten(double[][] grid, double[] into)
+    {
+        final int width = grid.length, height = grid[0].length;
+        if(into == null)
+            into = new double[width * height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0, i = x; y < height; y++, i += width) {
+                into[i] = grid[x][y];
+            }
+        }
+        return into;
+    }
+
+    /**
+     * Calculates the Field Of View from the given x, y coordinates, exactly like
+     * {@link FOV#reuseFOV(double[][], double[][], int, int, double)} but with flat row-major float buffers. The light
+     * buffer is cleared before this is run.
+     * @param resistanceMap row-major cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a row-major float array with at least {@code width * height} items; will be overwritten
+     * @param width the width of the map, which is also the distance between rows in both buffers
+     * @param height the height of the map
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return the computed light buffer (the same as {@code light})
+     */
+    public static float[] reuseFOV(float[] resistanceMap, float[] light, int width, int height,
+                                   int startX, int startY, double radius)
+    {
+        Arrays.fill(light, 0, width * height, 0f);
+        light[startY * width + startX] = (float) Math.min(1.0, radius);
+        cast(resistanceMap, null, light, null, null, null, width, height, startX, startY, radius, false);
+        return light;
+    }
+
+    /**
+     * Calculates which cells have line of sight from the given x, y coordinates, exactly like
+     * {@link FOV#reuseLOS(double[][], double[][], int, int)} but with flat row-major float buffers; cells are 1 if
+     * they are in line of sight or 0 otherwise. The light buffer is cleared before this is run.
+     * @param resistanceMap row-major cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a row-major float array with at least {@code width * height} items; will be overwritten
+     * @param width the width of the map, which is also the distance between rows in both buffers
+     * @param height the height of the map
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return the computed light buffer (the same as {@code light})
+     */
+    public static float[] reuseLOS(float[] resistanceMap, float[] light, int width, int height,
+                                   int startX, int startY)
+    {
+        Arrays.fill(light, 0, width * height, 0f);
+        light[startY * width + startX] = 1f;
+        cast(resistanceMap, null, light, null, null, null, width, height, startX, startY, width + height, true);
+        return light;
+    }
+
+    /**
+     * Calculates the Field Of View from the given x, y coordinates, exactly like
+     * {@link FOV#reuseFOV(double[][], double[][], int, int, double)} but with flat row-major double buffers. The light
+     * buffer is cleared before this is run.
+     * @param resistanceMap row-major cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a row-major double array with at least {@code width * height} items; will be overwritten
+     * @param width the width of the map, which is also the distance between rows in both buffers
+     * @param height the height of the map
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return the computed light buffer (the same as {@code light})
+     */
+    public static double[] reuseFOV(double[] resistanceMap, double[] light, int width, int height,
+                                    int startX, int startY, double radius)
+    {
+        Arrays.fill(light, 0, width * height, 0.0);
+        light[startY * width + startX] = Math.min(1.0, radius);
+        cast(null, resistanceMap, null, light, null, null, width, height, startX, startY, radius, false);
+        return light;
+    }
+
+    /**
+     * Calculates which cells have line of sight from the given x, y coordinates, exactly like
+     * {@link FOV#reuseLOS(double[][], double[][], int, int)} but with flat row-major double buffers; cells are 1 if
+     * they are in line of sight or 0 otherwise. The light buffer is cleared before this is run.
+     * @param resistanceMap row-major cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a row-major double array with at least {@code width * height} items; will be overwritten
+     * @param width the width of the map, which is also the distance between rows in both buffers
+     * @param height the height of the map
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return the computed light buffer (the same as {@code light})
+     */
+    public static double[] reuseLOS(double[] resistanceMap, double[] light, int width, int height,
+                                    int startX, int startY)
+    {
+        Arrays.fill(light, 0, width * height, 0.0);
+        light[startY * width + startX] = 1.0;
+        cast(null, resistanceMap, null, light, null, null, width, height, startX, startY, width + height, true);
+        return light;
+    }
+
+    /**
+     * Calculates the Field Of View from the given x, y coordinates like
+     * {@link #reuseFOV(float[], float[], int, int, int, int, double)}, but writes light quantized to 8 bits, using an
+     * eighth of the memory of a double light map. Each item is an unsigned level from 0 to 255, where 255 is full
+     * light; read it with {@code light[i] & 255}. Each level is the light FOV would give that cell, times the full
+     * level and rounded. The light buffer is cleared before this is run.
+     * @param resistanceMap row-major cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a row-major byte array with at least {@code width * height} items; will be overwritten
+     * @param width the width of the map, which is also the distance between rows in both buffers
+     * @param height the height of the map
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return the computed light buffer (the same as {@code light})
+     */
+    public static byte[] reuseFOV(float[] resistanceMap, byte[] light, int width, int height,
+                                  int startX, int startY, double radius)
+    {
+        Arrays.fill(light, 0, width * height, (byte) 0);
+        light[startY * width + startX] = (byte) (Math.min(1.0, radius) * 255 + 0.5);
+        cast(resistanceMap, null, null, null, light, null, width, height, startX, startY, radius, false);
+        return light;
+    }
+
+    /**
+     * Calculates which cells have line of sight from the given x, y coordinates like
+     * {@link #reuseLOS(float[], float[], int, int, int, int)}, but into a byte buffer, where cells in line of sight
+     * get the unsigned level 255 (-1 as a signed byte) and all others get 0. The light buffer is cleared before this
+     * is run.
+     * @param resistanceMap row-major cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a row-major byte array with at least {@code width * height} items; will be overwritten
+     * @param width the width of the map, which is also the distance between rows in both buffers
+     * @param height the height of the map
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return the computed light buffer (the same as {@code light})
+     */
+    public static byte[] reuseLOS(float[] resistanceMap, byte[] light, int width, int height,
+                                  int startX, int startY)
+    {
+        Arrays.fill(light, 0, width * height, (byte) 0);
+        light[startY * width + startX] = (byte) 255;
+        cast(resistanceMap, null, null, null, light, null, width, height, startX, startY, width + height, true);
+        return light;
+    }
+
+    /**
+     * Calculates the Field Of View from the given x, y coordinates like
+     * {@link #reuseFOV(float[], float[], int, int, int, int, double)}, but writes light quantized to 16 bits, using a
+     * quarter of the memory of a double light map. Each item is an unsigned level from 0 to 65535, where 65535 is full
+     * light; read it with {@code light[i] & 0xFFFF}. Each level is the light FOV would give that cell, times the full
+     * level and rounded. The light buffer is cleared before this is run.
+     * @param resistanceMap row-major cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a row-major short array with at least {@code width * height} items; will be overwritten
+     * @param width the width of the map, which is also the distance between rows in both buffers
+     * @param height the height of the map
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return the computed light buffer (the same as {@code light})
+     */
+    public static short[] reuseFOV(float[] resistanceMap, short[] light, int width, int height,
+                                   int startX, int startY, double radius)
+    {
+        Arrays.fill(light, 0, width * height, (short) 0);
+        light[startY * width + startX] = (short) (Math.min(1.0, radius) * 65535 + 0.5);
+        cast(resistanceMap, null, null, null, null, light, width, height, startX, startY, radius, false);
+        return light;
+    }
+
+    /**
+     * Calculates which cells have line of sight from the given x, y coordinates like
+     * {@link #reuseLOS(float[], float[], int, int, int, int)}, but into a short buffer, where cells in line of sight
+     * get the unsigned level 65535 (-1 as a signed short) and all others get 0. The light buffer is cleared before
+     * this is run.
+     * @param resistanceMap row-major cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a row-major short array with at least {@code width * height} items; will be overwritten
+     * @param width the width of the map, which is also the distance between rows in both buffers
+     * @param height the height of the map
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @return the computed light buffer (the same as {@code light})
+     */
+    public static short[] reuseLOS(float[] resistanceMap, short[] light, int width, int height,
+                                   int startX, int startY)
+    {
+        Arrays.fill(light, 0, width * height, (short) 0);
+        light[startY * width + startX] = (short) 65535;
+        cast(resistanceMap, null, null, null, null, light, width, height, startX, startY, width + height, true);
+        return light;
+    }
+
+    /**
+     * Casts all 8 octants from startX, startY. The resistance map is floatMap unless it is null, in which case it is
+     * doubleMap; light is written to whichever of floats, doubles, bytes, or shorts is not null, with bytes and shorts
+     * getting the light scaled to 255 or 65535 and rounded.
+     */
+    private static void cast(float[] floatMap, double[] doubleMap, float[] floats, double[] doubles, byte[] bytes,
+                             short[] shorts, int width, int height, int startX, int startY, double radius,
+                             boolean binary)
+    {
+        final double decay = 1.0 / radius;
+        double[] stack = new double[24];
+        for (int o = 0; o < 32; o += 4) {
+            stack = shadowCast(OCTANTS[o], OCTANTS[o+1], OCTANTS[o+2], OCTANTS[o+3], radius, startX, startY, decay,
+                    floatMap, doubleMap, floats, doubles, bytes, shorts, width, height, binary, stack);
+        }
+    }
+
+    /**
+     * The same iterative cast as {@link FOV}'s, over one octant of a flat map, pushing the intervals split off by walls
+     * onto stack as row, start, end. Returns the stack, which may have grown, so it can be reused for the next octant.
+     */
+    private static double[] shadowCast(int xx, int xy, int yx, int yy, double radius, int startX, int startY,
+                                       double decay, float[] floatMap, double[] doubleMap, float[] floats,
+                                       double[] doubles, byte[] bytes, short[] shorts, int width, int height,
+                                       boolean binary, double[] stack) {
+        int top = 0, row = 1;
+        double start = 1.0, end = 0.0;
+        while (true) {
+            if (start >= end) {
+                double newStart = 0;
+                boolean blocked = false;
+                for (int distance = row; distance <= radius && distance < width + height && !blocked; distance++) {
+                    int deltaY = -distance;
+                    // cells before this one are all skipped because start < rightSlope, so don't visit them
+                    int firstX = Math.max(-distance, (int) Math.floor(-start * (distance + 0.5) - 0.5) - 1);
+                    for (int deltaX = firstX; deltaX <= 0; deltaX++) {
+                        int currentX = startX + deltaX * xx + deltaY * xy;
+                        int currentY = startY + deltaX * yx + deltaY * yy;
+                        double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
+                        double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+
+                        if (!(currentX >= 0 && currentY >= 0 && currentX < width && currentY < height) || start < rightSlope) {
+                            continue;
+                        } else if (end > leftSlope) {
+                            break;
+                        }
+                        final int index = currentY * width + currentX;
+                        double level = 1.0;
+                        if (!binary) {
+                            double deltaRadius = FOV.radius(deltaX, deltaY);
+                            level = deltaRadius <= radius ? 1.0 - decay * deltaRadius : -1.0;
+                        }
+                        if (level >= 0.0) {
+                            if (floats != null)
+                                floats[index] = (float) level;
+                            else if (doubles != null)
+                                doubles[index] = level;
+                            else if (bytes != null)
+                                bytes[index] = (byte) (level * 255 + 0.5);
+                            else
+                                shorts[index] = (short) (level * 65535 + 0.5);
+                        }
+
+                        final boolean wall = (floatMap != null ? floatMap[index] : doubleMap[index]) >= 1;
+                        if (blocked) { //previous cell was a blocking one
+                            if (wall) {//hit a wall
+                                newStart = rightSlope;
+                            } else {
+                                blocked = false;
+                                start = newStart;
+                            }
+                        } else {
+                            if (wall && distance < radius) {//hit a wall within sight line
+                                blocked = true;
+                                if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length << 1);
+                                stack[top++] = distance + 1;
+                                stack[top++] = start;
+                                stack[top++] = leftSlope;
+                                newStart = rightSlope;
+                            }
+                        }
+                    }
+                }
+            }
+            if (top == 0) break;
+            end = stack[--top];
+            start = stack[--top];
+            row = (int) stack[--top];
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,292 @@
+package jagd;
+
+/**
+ * Shadowcasting FOV and LOS for very large radii on huge maps whose walls don't change, which skips the per-cell work
+ * in areas with no walls. It keeps a pyramid of Regions built from the map, where each level marks the blocks (of 2 by
+ * 2, 4 by 4, 8 by 8 cells, and so on) that contain at least one wall, which is the same as the highest resistance in
+ * the block being 1.0 or more. Each octant is split into sectors of equal slope; for each sector, the pyramid is used
+ * to find how far out the sector stays fully clear, answering for whole blocks at a time. Rows of the sector inside
+ * that distance are lit directly, since there is nothing in them to cast shadows, and the ordinary shadowcast only
+ * runs on the rest of the sector, starting from the first row that may hold a wall. Sectors that become fully blocked
+ * cost little, because the cast stops as soon as walls cover its whole window.
+ * <br>
+ * Inside each sector, the result is exactly what the shadowcast in {@link FOV} gives, but casting sectors separately
+ * can differ from one cast over the whole octant in a few cells along sector edges, where the full cast would light a
+ * cell through the corner of a wall outside the sector. Use {@link #compareFOV(int, int, double)} or
+ * {@link #compareLOS(int, int)} to measure how much the result differs from the exact light map for a given map;
+ * using fewer sectors makes the result closer, and more sectors let more of the map be skipped.
+ * <br>
+ * Instances only read the map and the pyramid after they are built, so one can be shared between threads as long as
+ * each thread passes its own light array.
+ */
+public class HierarchicalFOV {
+    /**
+     * The number of sectors each octant is split into if no count is given.
+     */
+    public static final int DEFAULT_SECTORS = 16;
+
+    public final double[][] resistanceMap;
+    public final int width, height, sectors;
+    /**
+     * The wall pyramid; level k has one cell for each block of {@code 1 << k} by {@code 1 << k} cells, which is on if
+     * any cell in the block is a wall. Level 0 is the walls themselves, and the last level is a single cell.
+     */
+    private final Region[] levels;
+
+    /**
+     * Builds the wall pyramid for resistanceMap, splitting each octant into {@link #DEFAULT_SECTORS} sectors.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 or more blocks light. This is not copied, so it
+     *                      shouldn't be changed while this is in use.
+     */
+    public HierarchicalFOV(double[][] resistanceMap)
+    {
+        this(resistanceMap, DEFAULT_SECTORS);
+    }
+
+    /**
+     * Builds the wall pyramid for resistanceMap, splitting each octant into the given number of sectors.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 or more blocks light. This is not copied, so it
+     *                      shouldn't be changed while this is in use.
+     * @param sectors how many sectors to split each octant into; 1 gives exactly the results of FOV
+     */
+    public HierarchicalFOV(double[][] resistanceMap, int sectors)
+    {
+        if(sectors < 1)
+            throw new IllegalArgumentException("HierarchicalFOV needs at least 1 sector per octant");
+        this.resistanceMap = resistanceMap;
+        this.sectors = sectors;
+        width = resistanceMap.length;
+        height = resistanceMap[0].length;
+        int count = 1;
+        while ((width - 1 >> count - 1) > 0 || (height - 1 >> count - 1) > 0) {
+            count++;
+        }
+        levels = new Region[count];
+        levels[0] = new Region(resistanceMap, 1.0, Double.POSITIVE_INFINITY);
+        for (int k = 1; k < count; k++) {
+            final Region below = levels[k - 1];
+            final Region level = new Region((below.width + 1) >> 1, (below.height + 1) >> 1);
+            final long[] data = below.data;
+            final int ySections = below.ySections;
+            for (int x = 0; x < below.width; x++) {
+                for (int s = 0; s < ySections; s++) {
+                    long word = data[x * ySections + s];
+                    while (word != 0L) {
+                        level.insert(x >> 1, (s << 6 | Long.numberOfTrailingZeros(word)) >> 1);
+                        word &= word - 1L;
+                    }
+                }
+            }
+            levels[k] = level;
+        }
+    }
+
+    /**
+     * Calculates which cells have line of sight from the given start, like
+     * {@link FOV#reuseLOS(double[][], double[][], int, int)}: cells in line of sight get 1.0, and all others get 0.0.
+     * @param light a 2D double array with the same size as the map, which will be overwritten
+     * @param startX the x-position of the start
+     * @param startY the y-position of the start
+     * @return light, after filling it
+     */
+    public double[][] reuseLOS(double[][] light, int startX, int startY)
+    {
+        FOV.fill(light, 0.0);
+        light[startX][startY] = 1.0;
+        cast(light, startX, startY, width + height, true);
+        return light;
+    }
+
+    /**
+     * Calculates FOV from the given start with the given radius, like
+     * {@link FOV#reuseFOV(double[][], double[][], int, int, double)}.
+     * @param light a 2D double array with the same size as the map, which will be overwritten
+     * @param startX the x-position of the start
+     * @param startY the y-position of the start
+     * @param radius the distance the light will extend to
+     * @return light, after filling it
+     */
+    public double[][] reuseFOV(double[][] light, int startX, int startY, double radius)
+    {
+        FOV.fill(light, 0.0);
+        light[startX][startY] = Math.min(1.0, radius);
+        cast(light, startX, startY, radius, false);
+        return light;
+    }
+
+    /**
+     * Calculates LOS from the given start both with this and with FOV, and reports how the results differ, as
+     * described in {@link #difference(double[][], double[][])}.
+     * @param startX the x-position of the start
+     * @param startY the y-position of the start
+     * @return an int array with the cells missing, the extra cells, the changed cells, and the cells FOV lit
+     */
+    public int[] compareLOS(int startX, int startY)
+    {
+        return difference(reuseLOS(new double[width][height], startX, startY),
+                FOV.reuseLOS(resistanceMap, new double[width][height], startX, startY));
+    }
+
+    /**
+     * Calculates FOV from the given start both with this and with FOV, and reports how the results differ, as
+     * described in {@link #difference(double[][], double[][])}.
+     * @param startX the x-position of the start
+     * @param startY the y-position of the start
+     * @param radius the distance the light will extend to
+     * @return an int array with the cells missing, the extra cells, the changed cells, and the cells FOV lit
+     */
+    public int[] compareFOV(int startX, int startY, double radius)
+    {
+        return difference(reuseFOV(new double[width][height], startX, startY, radius),
+                FOV.reuseFOV(resistanceMap, new double[width][height], startX, startY, radius));
+    }
+
+    /**
+     * Compares an approximate light map with an exact one of the same size. The result has 4 items: the number of
+     * cells lit in exact but not in approximate, the number lit in approximate but not in exact, the number lit in
+     * both but with different values, and the number lit in exact, to compare the others against.
+     * @param approximate a light map to check
+     * @param exact a light map to check against
+     * @return an int array with the cells missing, the extra cells, the changed cells, and the cells exact lit
+     */
+    public static int[] difference(double[][] approximate, double[][] exact)
+    {
+        int missing = 0, extra = 0, changed = 0, lit = 0;
+        for (int x = 0; x < exact.length; x++) {
+            for (int y = 0; y < exact[x].length; y++) {
+                final double a = approximate[x][y], e = exact[x][y];
+                if(e > 0.0) {
+                    lit++;
+                    if(a <= 0.0)
+                        missing++;
+                    else if(a != e)
+                        changed++;
+                }
+                else if(a > 0.0)
+                    extra++;
+            }
+        }
+        return new int[]{missing, extra, changed, lit};
+    }
+
+    private void cast(double[][] light, int startX, int startY, double radius, boolean binary)
+    {
+        final double decay = 1.0 / radius;
+        final int maxRow = (int) Math.min(radius, width + height - 1);
+        // local rather than a field, so instances can still be shared between threads
+        double[] stack = new double[24];
+        for (int o = 0; o < 8; o++) {
+            // the same 8 octants FOV casts, as xx, xy, yx, yy
+            final int xx = (o & 1) == 0 ? 0 : (o & 4) == 0 ? 1 : -1, xy = (o & 1) == 0 ? ((o & 2) == 0 ? 1 : -1) : 0;
+            final int yx = (o & 1) == 0 ? ((o & 4) == 0 ? 1 : -1) : 0, yy = (o & 1) == 0 ? 0 : (o & 2) == 0 ? 1 : -1;
+            // rows past lastRow are off the map, and cells in a row before lowX are too
+            final int lastRow = Math.min(maxRow, xy == 1 ? startX : xy == -1 ? width - 1 - startX
+                    : yy == 1 ? startY : height - 1 - startY);
+            final int lowX = -(xx == 1 ? startX : xx == -1 ? width - 1 - startX
+                    : yx == 1 ? startY : height - 1 - startY);
+            for (int s = 0; s < sectors; s++) {
+                final double start = (s + 1.0) / sectors, end = (double) s / sectors;
+                final int row = clearRows(xx, xy, yx, yy, startX, startY, start, end, lastRow);
+                fillRows(light, xx, xy, yx, yy, startX, startY, start, end, row, lowX, radius, decay, binary);
+                if(row <= lastRow) {
+                    if(binary) // LOS doesn't use the radius for anything but where to stop
+                        stack = FOV.shadowCastBinary(row, start, end, xx, xy, yx, yy, lastRow, startX, startY, decay,
+                                light, resistanceMap, 0, 0, width, height, stack);
+                    else
+                        stack = FOV.shadowCast(row, start, end, xx, xy, yx, yy, radius, startX, startY, decay,
+                                light, resistanceMap, 0, 0, width, height, null, stack);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the first row of a sector that may contain a wall, or maxRow + 1 if none do, checking bands of rows that
+     * double in height while they stay clear and halve when they aren't.
+     */
+    private int clearRows(int xx, int xy, int yx, int yy, int startX, int startY, double start, double end,
+                          int maxRow)
+    {
+        int row = 1, band = 8;
+        while (row <= maxRow) {
+            final int last = Math.min(maxRow, row + band - 1);
+            if(bandClear(xx, xy, yx, yy, startX, startY, start, end, row, last)) {
+                row = last + 1;
+                band <<= 1;
+            }
+            else if(band > 1)
+                band >>= 1;
+            else
+                break;
+        }
+        return row;
+    }
+
+    /**
+     * Checks the bounding box of the cells the sector can touch from row first to row last, with a cell of margin.
+     */
+    private boolean bandClear(int xx, int xy, int yx, int yy, int startX, int startY, double start, double end,
+                              int first, int last)
+    {
+        final int lowX = Math.max(-last, (int) Math.floor(-last * start) - 1),
+                highX = Math.min(0, (int) Math.ceil(-first * end) + 1);
+        final int ax = startX + lowX * xx - first * xy, ay = startY + lowX * yx - first * yy,
+                bx = startX + highX * xx - last * xy, by = startY + highX * yx - last * yy;
+        final int x0 = Math.max(0, Math.min(ax, bx)), x1 = Math.min(width - 1, Math.max(ax, bx)),
+                y0 = Math.max(0, Math.min(ay, by)), y1 = Math.min(height - 1, Math.max(ay, by));
+        return x0 > x1 || y0 > y1 || clear(levels.length - 1, 0, 0, x0, y0, x1, y1);
+    }
+
+    /**
+     * True if the block at bx, by on the given level has no walls inside the rectangle from x0, y0 to x1, y1
+     * (inclusive), which it is assumed to overlap.
+     */
+    private boolean clear(int level, int bx, int by, int x0, int y0, int x1, int y1)
+    {
+        if(!levels[level].contains(bx, by))
+            return true;
+        if(level == 0 || (bx << level >= x0 && by << level >= y0
+                && (bx + 1 << level) - 1 <= x1 && (by + 1 << level) - 1 <= y1))
+            return false;
+        final int half = level - 1;
+        for (int cx = bx << 1; cx <= (bx << 1 | 1); cx++) {
+            if(cx << half > x1 || (cx + 1 << half) - 1 < x0)
+                continue;
+            for (int cy = by << 1; cy <= (by << 1 | 1); cy++) {
+                if(cy << half > y1 || (cy + 1 << half) - 1 < y0)
+                    continue;
+                if(!clear(half, cx, cy, x0, y0, x1, y1))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lights the cells of a sector from row 1 up to (not including) row stop, which have no walls, exactly as the
+     * shadowcast would light them. Rows before stop must be on the map, and cells with deltaX below lowX are not.
+     */
+    private void fillRows(double[][] light, int xx, int xy, int yx, int yy, int startX, int startY, double start,
+                          double end, int stop, int lowX, double radius, double decay, boolean binary)
+    {
+        for (int distance = 1; distance < stop; distance++) {
+            final int deltaY = -distance;
+            // a little before the first cell the sector covers, but not off the map; the loop skips the rest exactly
+            int deltaX = Math.max(Math.max(-distance, lowX), (int) Math.floor(-start * (distance + 0.5) - 0.5) - 1);
+            for (; deltaX <= 0; deltaX++) {
+                if(start < FOV.rightSlope(deltaX, deltaY))
+                    continue;
+                if(end > FOV.leftSlope(deltaX, deltaY))
+                    break;
+                final int currentX = startX + deltaX * xx + deltaY * xy, currentY = startY + deltaX * yx + deltaY * yy;
+                if(binary)
+                    light[currentX][currentY] = 1.0;
+                else {
+                    final double deltaRadius = FOV.radius(deltaX, deltaY);
+                    if(deltaRadius <= radius)
+                        light[currentX][currentY] = 1.0 - decay * deltaRadius;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package jagd;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the FOV light maps of many viewers up to date as cells of a shared resistance map change, recomputing only the
+ * parts of each viewer's FOV that could be affected. The results are always the same as calling
+ * {@link FOV#reuseFOV(double[][], double[][], int, int, double)} for each viewer, but when a door opens or a wall is
+ * destroyed, most viewers won't need any work at all, and the rest only need one to three of their eight octants cast
+ * again.
+ * <br>
+ * This works because shadowcasting only reads the resistance of cells it examines, so a viewer that never examined a
+ * changed cell would get exactly the same result; each viewer keeps a Region of the cells its last cast examined. If a
+ * viewer did examine a changed cell, only the octants containing that cell can change, so those octants are cleared and
+ * cast again, along with the octants next to them (which share a border line of cells with the cleared octants, and
+ * cast those cells the same way).
+ * <br>
+ * Usage: construct this with a resistance map, add viewers with {@link #addViewer(int, int, double)}, then whenever
+ * the resistance map changes, either call {@link #set(int, int, double)} to change and update one cell, or change
+ * the map yourself and call {@link #update(int, int)} or {@link #update(Region)} with the cells that changed.
+ */
+public class IncrementalFOV {
+    /**
+     * The xx, xy, yx, yy transforms for the 8 octants, ordered so octant i borders octants i - 1 and i + 1 (wrapping).
+     */
+    private static final int[] OCTANTS = {
+            0, -1, 1, 0,   -1, 0, 0, 1,   1, 0, 0, 1,    0, 1, 1, 0,
+            0, 1, -1, 0,   1, 0, 0, -1,   -1, 0, 0, -1,  0, -1, -1, 0};
+
+    private static final class Viewer {
+        int x, y;
+        double radius;
+        double[][] light;
+        Region examined;
+        int dirty;
+    }
+
+    /**
+     * The resistance map all viewers share; if you change it directly, call {@link #update(int, int)} or
+     * {@link #update(Region)} afterwards with the changed cells.
+     */
+    public final double[][] resistanceMap;
+    public final int width, height;
+    private final ArrayList<Viewer> viewers = new ArrayList<>(16);
+    private int octantsCast;
+    private double[] stack = new double[24];
+
+    /**
+     * Constructs an IncrementalFOV with no viewers that uses the given resistance map (without copying it).
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     */
+    public IncrementalFOV(double[][] resistanceMap)
+    {
+        this.resistanceMap = resistanceMap;
+        width = resistanceMap.length;
+        height = resistanceMap[0].length;
+    }
+
+    /**
+     * Adds a viewer and calculates its full FOV.
+     * @param x the horizontal component of the viewer's location
+     * @param y the vertical component of the viewer's location
+     * @param radius the distance the viewer's light will extend to
+     * @return the index of the new viewer, for use with {@link #light(int)} and {@link #moveViewer(int, int, int)}
+     */
+    public int addViewer(int x, int y, double radius)
+    {
+        Viewer v = new Viewer();
+        v.light = new double[width][height];
+        v.examined = new Region(width, height);
+        v.radius = radius;
+        viewers.add(v);
+        moveViewer(viewers.size() - 1, x, y);
+        return viewers.size() - 1;
+    }
+
+    /**
+     * Moves a viewer, fully recalculating its FOV.
+     * @param viewer the index of a viewer, as returned by {@link #addViewer(int, int, double)}
+     * @param x the horizontal component of the viewer's new location
+     * @param y the vertical component of the viewer's new location
+     * @return this for chaining
+     */
+    public IncrementalFOV moveViewer(int viewer, int x, int y)
+    {
+        Viewer v = viewers.get(viewer);
+        v.x = x;
+        v.y = y;
+        FOV.fill(v.light, 0.0);
+        v.light[x][y] = Math.min(1.0, v.radius);
+        v.examined.clear();
+        for (int o = 0; o < 8; o++) {
+            castOctant(v, o);
+        }
+        return this;
+    }
+
+    /**
+     * @return how many viewers have been added
+     */
+    public int viewerCount()
+    {
+        return viewers.size();
+    }
+
+    /**
+     * Gets the light map of the given viewer, which is kept up to date by this; don't modify it.
+     * @param viewer the index of a viewer, as returned by {@link #addViewer(int, int, double)}
+     * @return the light map for that viewer, the same as FOV.reuseFOV would produce
+     */
+    public double[][] light(int viewer)
+    {
+        return viewers.get(viewer).light;
+    }
+
+    /**
+     * Gets how many octants have been cast by this in total, including the 8 for each viewer added or moved; this is
+     * mostly useful to check how much work updates are taking.
+     * @return the total number of octants cast so far
+     */
+    public int octantsCast()
+    {
+        return octantsCast;
+    }
+
+    /**
+     * Changes the resistance of one cell and updates every viewer that could be affected.
+     * @param x the x-position of the cell to change
+     * @param y the y-position of the cell to change
+     * @param resistance the new resistance for that cell; 1.0 resists all light, 0.0 does not resist
+     * @return this for chaining
+     */
+    public IncrementalFOV set(int x, int y, double resistance)
+    {
+        if(resistanceMap[x][y] != resistance) {
+            resistanceMap[x][y] = resistance;
+            update(x, y);
+        }
+        return this;
+    }
+
+    /**
+     * Updates every viewer that could be affected by a change to the resistance of the given cell, which should have
+     * already been changed in {@link #resistanceMap}.
+     * @param x the x-position of the cell that changed
+     * @param y the y-position of the cell that changed
+     * @return this for chaining
+     */
+    public IncrementalFOV update(int x, int y)
+    {
+        for (int i = 0; i < viewers.size(); i++) {
+            Viewer v = viewers.get(i);
+            markDirty(v, x, y);
+            recast(v);
+        }
+        return this;
+    }
+
+    /**
+     * Updates every viewer that could be affected by changes to the resistance of the "on" cells in changed, which
+     * should have already been changed in {@link #resistanceMap}.
+     * @param changed a Region with the same size as the resistance map, with the changed cells "on"
+     * @return this for chaining
+     * @throws IllegalArgumentException if changed has a different width or height than the resistance map
+     */
+    public IncrementalFOV update(Region changed)
+    {
+        if(changed.width != width || changed.height != height)
+            throw new IllegalArgumentException("update() requires a changed Region with the same size as the map");
+        final long[] bits = changed.data;
+        final int ySections = changed.ySections;
+        for (int i = 0; i < viewers.size(); i++) {
+            Viewer v = viewers.get(i);
+            final long[] examined = v.examined.data;
+            // only cells that changed and that this viewer examined can affect it, so the rest are skipped a word at a time
+            for (int x = 0, w = 0; x < width && v.dirty != 255; x++) {
+                for (int s = 0; s < ySections; s++, w++) {
+                    for (long word = bits[w] & examined[w]; word != 0L; word &= word - 1L) {
+                        markOctants(v, x, s << 6 | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            }
+            recast(v);
+        }
+        return this;
+    }
+
+    /**
+     * If the viewer examined the cell at x, y, marks each octant that contains that cell as needing to be cast again.
+     */
+    private void markDirty(Viewer v, int x, int y)
+    {
+        if(v.examined.contains(x, y))
+            markOctants(v, x, y);
+    }
+
+    /**
+     * Marks each octant of the viewer that contains the cell at x, y as needing to be cast again.
+     */
+    private void markOctants(Viewer v, int x, int y)
+    {
+        final int ox = x - v.x, oy = y - v.y;
+        for (int o = 0, i = 0; o < 8; o++, i += 4) {
+            // each octant transform's inverse is its transpose, so this undoes the transform in castOctant()
+            final int dx = OCTANTS[i] * ox + OCTANTS[i+2] * oy, distance = -(OCTANTS[i+1] * ox + OCTANTS[i+3] * oy);
+            if(distance >= 1 && dx <= 0 && dx >= -distance)
+                v.dirty |= 1 << o;
+        }
+    }
+
+    /**
+     * Clears and recasts each dirty octant, then recasts the neighbors of each dirty octant to fill in the border
+     * lines of cells they share.
+     */
+    private void recast(Viewer v)
+    {
+        final int dirty = v.dirty;
+        if(dirty == 0)
+            return;
+        v.dirty = 0;
+        int recast = 0;
+        for (int o = 0; o < 8; o++) {
+            if((dirty & 1 << o) != 0) {
+                clearOctant(v, o);
+                recast |= 1 << o | 1 << (o + 1 & 7) | 1 << (o + 7 & 7);
+            }
+        }
+        for (int o = 0; o < 8; o++) {
+            if((recast & 1 << o) != 0)
+                castOctant(v, o);
+        }
+    }
+
+    private void clearOctant(Viewer v, int octant)
+    {
+        final int xx = OCTANTS[octant << 2], xy = OCTANTS[octant << 2 | 1],
+                yx = OCTANTS[octant << 2 | 2], yy = OCTANTS[octant << 2 | 3];
+        final double[][] light = v.light;
+        final Region examined = v.examined;
+        for (int distance = 1; distance <= v.radius && distance < width + height; distance++) {
+            int deltaY = -distance;
+            for (int deltaX = -distance; deltaX <= 0; deltaX++) {
+                int currentX = v.x + deltaX * xx + deltaY * xy;
+                int currentY = v.y + deltaX * yx + deltaY * yy;
+                if (currentX >= 0 && currentY >= 0 && currentX < width && currentY < height) {
+                    light[currentX][currentY] = 0.0;
+                    examined.remove(currentX, currentY);
+                }
+            }
+        }
+    }
+
+    private void castOctant(Viewer v, int octant)
+    {
+        ++octantsCast;
+        // the shared cast marks each cell whose resistance it reads in examined
+        stack = FOV.shadowCast(1, 1.0, 0.0, OCTANTS[octant << 2], OCTANTS[octant << 2 | 1], OCTANTS[octant << 2 | 2],
+                OCTANTS[octant << 2 | 3], v.radius, v.x, v.y, 1.0 / v.radius, v.light, resistanceMap,
+                0, 0, width, height, v.examined, stack);
+    }
+}
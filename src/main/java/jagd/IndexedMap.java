@@ -658,12 +658,12 @@ public class IndexedMap<K, V> implements SortedMap<K, V>, Serializable, Cloneabl
     private void moveIndexToFirst(final int i) {
         if(size <= 1 || order.items[0] == i)
             return;
-        DataCommon.moveToFirst(order, i);
+        DataCommon.moveToFirst(order, order.indexOf(i));
     }
     private void moveIndexToLast(final int i) {
         if(size <= 1 || order.items[order.size-1] == i)
             return;
-        DataCommon.moveToLast(order, i);
+        DataCommon.moveToLast(order, order.indexOf(i));
     }
     /**
      * Returns the value to which the given key is mapped; if the key is
@@ -821,7 +821,7 @@ public class IndexedMap<K, V> implements SortedMap<K, V>, Serializable, Cloneabl
         }
         key[pos] = k;
         value[pos] = v;
-        if(order.peek() != pos)
+        if(order.size == 0 || order.peek() != pos)
             order.add(pos);
         if (size++ >= maxFill)
             rehash(arraySize(size, f));
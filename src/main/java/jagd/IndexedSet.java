@@ -674,13 +674,13 @@ public class IndexedSet<K> implements SortedSet<K>, java.io.Serializable, Clonea
     private void moveIndexToFirst(final int i) {
         if (size <= 1 || order.items[0] == i)
             return;
-        DataCommon.moveToFirst(order, i);
+        DataCommon.moveToFirst(order, order.indexOf(i));
     }
 
     private void moveIndexToLast(final int i) {
         if (size <= 1 || order.items[size-1] == i)
             return;
-        DataCommon.moveToLast(order, i);
+        DataCommon.moveToLast(order, order.indexOf(i));
     }
 
     /**
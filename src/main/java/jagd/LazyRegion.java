@@ -0,0 +1,691 @@
+package jagd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A deferred chain of {@link Region} operations that is only computed when {@link #evaluate()} or
+ * {@link #into(Region)} is called. Where a chain like {@code floors.copy().retract8way().andNot(walls)} copies and
+ * fully writes a Region for every step, a LazyRegion only records each step as a node in a small directed acyclic
+ * graph, and then evaluates the whole graph in one pass over the columns of the result, word-by-word. Each node keeps
+ * only the few columns its consumers still need (a column is {@code (height + 63) >> 6} longs), so intermediate
+ * results are never materialized as full Regions, which cuts memory traffic a lot on large maps.
+ * <br>
+ * LazyRegion values are immutable and may be shared, so the same sub-expression can be used more than once in a
+ * graph (as in {@code a.and(a.expand())}), and it will still only be computed once per column. The supported
+ * operations are the bitwise ones ({@link #and(LazyRegion)}, {@link #or(LazyRegion)}, {@link #andNot(LazyRegion)},
+ * {@link #xor(LazyRegion)}, {@link #not()}), the single-cell shifts ({@link #neighborUp()} and the other neighbor
+ * methods), and the spatial methods built from those ({@link #expand()}, {@link #expand8way()}, {@link #retract()},
+ * {@link #retract8way()}, {@link #fringe()}, {@link #surface()}, and {@link #flood(LazyRegion)}, among others). Cells
+ * outside the bounds are always treated as "off," including at the edges where Region's own multiple-section methods
+ * may differ slightly.
+ * <br>
+ * All Regions used as leaves should have the same width and height; the result has that size as well. A leaf Region
+ * may also be the target of {@link #into(Region)}, in which case writes are delayed just long enough that no column
+ * is overwritten before it is read. Leaves are read when this is evaluated, not when the LazyRegion is built, so
+ * changes to a leaf between building and evaluating will show up in the result.
+ * <br>
+ * Evaluation keeps some scratch state inside each node, so one LazyRegion graph should not be evaluated from more
+ * than one thread at a time.
+ */
+public class LazyRegion {
+    private static final int LEAF = 0, AND = 1, OR = 2, AND_NOT = 3, XOR = 4, NOT = 5,
+            UP = 6, DOWN = 7, LEFT = 8, RIGHT = 9, UP_LEFT = 10, UP_RIGHT = 11, DOWN_LEFT = 12, DOWN_RIGHT = 13,
+            EXPAND = 14, EXPAND_8WAY = 15, RETRACT = 16, RETRACT_8WAY = 17;
+
+    private final int op;
+    private final LazyRegion left, right;
+    private final Region region;
+
+    // scratch used only while evaluating
+    private long[] store;
+    private int[] storedColumns;
+    private int capacity, minLead, maxLead, width, ySections;
+    private long yEndMask;
+
+    private LazyRegion(int op, LazyRegion left, LazyRegion right, Region region)
+    {
+        this.op = op;
+        this.left = left;
+        this.right = right;
+        this.region = region;
+    }
+
+    /**
+     * Creates a LazyRegion that reads from the given Region when it is evaluated. The Region is not copied.
+     * @param region a non-null Region to use as a leaf of the expression
+     * @return a new LazyRegion that evaluates to the contents of region
+     */
+    public static LazyRegion of(Region region)
+    {
+        if(region == null)
+            throw new NullPointerException("LazyRegion.of() requires a non-null Region");
+        return new LazyRegion(LEAF, null, null, region);
+    }
+
+    private LazyRegion unary(int op)
+    {
+        return new LazyRegion(op, this, null, null);
+    }
+
+    private LazyRegion binary(int op, LazyRegion other)
+    {
+        if(other == null)
+            throw new NullPointerException("LazyRegion operations require a non-null other LazyRegion");
+        return new LazyRegion(op, this, other, null);
+    }
+
+    /**
+     * Lazy version of {@link Region#and(Region)}.
+     * @param other another LazyRegion
+     * @return a new LazyRegion for the intersection of this and other
+     */
+    public LazyRegion and(LazyRegion other)
+    {
+        return binary(AND, other);
+    }
+
+    /**
+     * Lazy version of {@link Region#and(Region)}.
+     * @param other a Region that will be read when this is evaluated
+     * @return a new LazyRegion for the intersection of this and other
+     */
+    public LazyRegion and(Region other)
+    {
+        return binary(AND, of(other));
+    }
+
+    /**
+     * Lazy version of {@link Region#or(Region)}.
+     * @param other another LazyRegion
+     * @return a new LazyRegion for the union of this and other
+     */
+    public LazyRegion or(LazyRegion other)
+    {
+        return binary(OR, other);
+    }
+
+    /**
+     * Lazy version of {@link Region#or(Region)}.
+     * @param other a Region that will be read when this is evaluated
+     * @return a new LazyRegion for the union of this and other
+     */
+    public LazyRegion or(Region other)
+    {
+        return binary(OR, of(other));
+    }
+
+    /**
+     * Lazy version of {@link Region#andNot(Region)}.
+     * @param other another LazyRegion
+     * @return a new LazyRegion for the cells in this that are not in other
+     */
+    public LazyRegion andNot(LazyRegion other)
+    {
+        return binary(AND_NOT, other);
+    }
+
+    /**
+     * Lazy version of {@link Region#andNot(Region)}.
+     * @param other a Region that will be read when this is evaluated
+     * @return a new LazyRegion for the cells in this that are not in other
+     */
+    public LazyRegion andNot(Region other)
+    {
+        return binary(AND_NOT, of(other));
+    }
+
+    /**
+     * Lazy version of {@link Region#xor(Region)}.
+     * @param other another LazyRegion
+     * @return a new LazyRegion for the cells in exactly one of this and other
+     */
+    public LazyRegion xor(LazyRegion other)
+    {
+        return binary(XOR, other);
+    }
+
+    /**
+     * Lazy version of {@link Region#xor(Region)}.
+     * @param other a Region that will be read when this is evaluated
+     * @return a new LazyRegion for the cells in exactly one of this and other
+     */
+    public LazyRegion xor(Region other)
+    {
+        return binary(XOR, of(other));
+    }
+
+    /**
+     * Lazy version of {@link Region#not()}.
+     * @return a new LazyRegion for the cells not in this
+     */
+    public LazyRegion not()
+    {
+        return unary(NOT);
+    }
+
+    /**
+     * Lazy version of {@link Region#neighborUp()}; up is negative y.
+     * @return a new LazyRegion with the cells that have an "on" neighbor upwards in this
+     */
+    public LazyRegion neighborUp()
+    {
+        return unary(UP);
+    }
+
+    /**
+     * Lazy version of {@link Region#neighborDown()}; down is positive y.
+     * @return a new LazyRegion with the cells that have an "on" neighbor downwards in this
+     */
+    public LazyRegion neighborDown()
+    {
+        return unary(DOWN);
+    }
+
+    /**
+     * Lazy version of {@link Region#neighborLeft()}; left is negative x.
+     * @return a new LazyRegion with the cells that have an "on" neighbor to the left in this
+     */
+    public LazyRegion neighborLeft()
+    {
+        return unary(LEFT);
+    }
+
+    /**
+     * Lazy version of {@link Region#neighborRight()}; right is positive x.
+     * @return a new LazyRegion with the cells that have an "on" neighbor to the right in this
+     */
+    public LazyRegion neighborRight()
+    {
+        return unary(RIGHT);
+    }
+
+    /**
+     * Lazy version of {@link Region#neighborUpLeft()}.
+     * @return a new LazyRegion with the cells that have an "on" neighbor upwards and to the left in this
+     */
+    public LazyRegion neighborUpLeft()
+    {
+        return unary(UP_LEFT);
+    }
+
+    /**
+     * Lazy version of {@link Region#neighborUpRight()}.
+     * @return a new LazyRegion with the cells that have an "on" neighbor upwards and to the right in this
+     */
+    public LazyRegion neighborUpRight()
+    {
+        return unary(UP_RIGHT);
+    }
+
+    /**
+     * Lazy version of {@link Region#neighborDownLeft()}.
+     * @return a new LazyRegion with the cells that have an "on" neighbor downwards and to the left in this
+     */
+    public LazyRegion neighborDownLeft()
+    {
+        return unary(DOWN_LEFT);
+    }
+
+    /**
+     * Lazy version of {@link Region#neighborDownRight()}.
+     * @return a new LazyRegion with the cells that have an "on" neighbor downwards and to the right in this
+     */
+    public LazyRegion neighborDownRight()
+    {
+        return unary(DOWN_RIGHT);
+    }
+
+    /**
+     * Lazy version of {@link Region#expand()}.
+     * @return a new LazyRegion with this expanded by one cell orthogonally
+     */
+    public LazyRegion expand()
+    {
+        return unary(EXPAND);
+    }
+
+    /**
+     * Lazy version of {@link Region#expand(int)}.
+     * @param amount how many times to expand; if 0 or less, this returns this LazyRegion
+     * @return a LazyRegion with this expanded by amount cells orthogonally
+     */
+    public LazyRegion expand(int amount)
+    {
+        LazyRegion r = this;
+        for (int i = 0; i < amount; i++) {
+            r = r.unary(EXPAND);
+        }
+        return r;
+    }
+
+    /**
+     * Lazy version of {@link Region#expand8way()}.
+     * @return a new LazyRegion with this expanded by one cell orthogonally and diagonally
+     */
+    public LazyRegion expand8way()
+    {
+        return unary(EXPAND_8WAY);
+    }
+
+    /**
+     * Lazy version of {@link Region#expand8way(int)}.
+     * @param amount how many times to expand; if 0 or less, this returns this LazyRegion
+     * @return a LazyRegion with this expanded by amount cells orthogonally and diagonally
+     */
+    public LazyRegion expand8way(int amount)
+    {
+        LazyRegion r = this;
+        for (int i = 0; i < amount; i++) {
+            r = r.unary(EXPAND_8WAY);
+        }
+        return r;
+    }
+
+    /**
+     * Lazy version of {@link Region#retract()}.
+     * @return a new LazyRegion with this retracted by one cell orthogonally
+     */
+    public LazyRegion retract()
+    {
+        return unary(RETRACT);
+    }
+
+    /**
+     * Lazy version of {@link Region#retract(int)}.
+     * @param amount how many times to retract; if 0 or less, this returns this LazyRegion
+     * @return a LazyRegion with this retracted by amount cells orthogonally
+     */
+    public LazyRegion retract(int amount)
+    {
+        LazyRegion r = this;
+        for (int i = 0; i < amount; i++) {
+            r = r.unary(RETRACT);
+        }
+        return r;
+    }
+
+    /**
+     * Lazy version of {@link Region#retract8way()}.
+     * @return a new LazyRegion with this retracted by one cell orthogonally and diagonally
+     */
+    public LazyRegion retract8way()
+    {
+        return unary(RETRACT_8WAY);
+    }
+
+    /**
+     * Lazy version of {@link Region#retract8way(int)}.
+     * @param amount how many times to retract; if 0 or less, this returns this LazyRegion
+     * @return a LazyRegion with this retracted by amount cells orthogonally and diagonally
+     */
+    public LazyRegion retract8way(int amount)
+    {
+        LazyRegion r = this;
+        for (int i = 0; i < amount; i++) {
+            r = r.unary(RETRACT_8WAY);
+        }
+        return r;
+    }
+
+    /**
+     * Lazy version of {@link Region#fringe()}.
+     * @return a new LazyRegion with only the cells just outside this, orthogonally
+     */
+    public LazyRegion fringe()
+    {
+        return expand().andNot(this);
+    }
+
+    /**
+     * Lazy version of {@link Region#fringe8way()}.
+     * @return a new LazyRegion with only the cells just outside this, orthogonally or diagonally
+     */
+    public LazyRegion fringe8way()
+    {
+        return expand8way().andNot(this);
+    }
+
+    /**
+     * Lazy version of {@link Region#surface()}.
+     * @return a new LazyRegion with only the cells on the orthogonal edge of this
+     */
+    public LazyRegion surface()
+    {
+        return andNot(retract());
+    }
+
+    /**
+     * Lazy version of {@link Region#surface8way()}.
+     * @return a new LazyRegion with only the cells on the orthogonal or diagonal edge of this
+     */
+    public LazyRegion surface8way()
+    {
+        return andNot(retract8way());
+    }
+
+    /**
+     * Lazy version of {@link Region#flood(Region)}, expanding once orthogonally while staying inside bounds.
+     * @param bounds the area this is permitted to expand into
+     * @return a new LazyRegion with this flooded by one step
+     */
+    public LazyRegion flood(LazyRegion bounds)
+    {
+        return expand().and(bounds);
+    }
+
+    /**
+     * Lazy version of {@link Region#flood(Region)}, expanding once orthogonally while staying inside bounds.
+     * @param bounds the area this is permitted to expand into
+     * @return a new LazyRegion with this flooded by one step
+     */
+    public LazyRegion flood(Region bounds)
+    {
+        return flood(of(bounds));
+    }
+
+    /**
+     * Similar to {@link Region#flood(Region, int)}, but always performs all amount steps, since a lazy graph can't
+     * check whether the flood stopped growing early.
+     * @param bounds the area this is permitted to expand into
+     * @param amount how many flood steps to perform
+     * @return a LazyRegion with this flooded by amount steps
+     */
+    public LazyRegion flood(Region bounds, int amount)
+    {
+        LazyRegion b = of(bounds), r = this;
+        for (int i = 0; i < amount; i++) {
+            r = r.flood(b);
+        }
+        return r;
+    }
+
+    /**
+     * Lazy version of {@link Region#flood8way(Region)}, expanding once in 8 directions while staying inside bounds.
+     * @param bounds the area this is permitted to expand into
+     * @return a new LazyRegion with this flooded by one step
+     */
+    public LazyRegion flood8way(LazyRegion bounds)
+    {
+        return expand8way().and(bounds);
+    }
+
+    /**
+     * Similar to {@link Region#flood8way(Region, int)}, but always performs all amount steps, since a lazy graph
+     * can't check whether the flood stopped growing early.
+     * @param bounds the area this is permitted to expand into
+     * @param amount how many flood steps to perform
+     * @return a LazyRegion with this flooded by amount steps
+     */
+    public LazyRegion flood8way(Region bounds, int amount)
+    {
+        LazyRegion b = of(bounds), r = this;
+        for (int i = 0; i < amount; i++) {
+            r = r.flood8way(b);
+        }
+        return r;
+    }
+
+    /**
+     * Evaluates this expression into a newly-allocated Region.
+     * @return a new Region holding the result
+     */
+    public Region evaluate()
+    {
+        return into(null);
+    }
+
+    /**
+     * Evaluates this expression, writing the result into target, which is resized if needed (like
+     * {@link Region#resizeAndEmpty(int, int)}) and otherwise written in-place without allocating a new data array.
+     * The target may be one of the leaf Regions of this expression.
+     * @param target the Region to write into; if null, a new Region will be allocated
+     * @return target after modification, or a new Region if target was null
+     */
+    public Region into(Region target)
+    {
+        final ArrayList<LazyRegion> order = new ArrayList<LazyRegion>();
+        collect(this, order);
+        Region first = null;
+        for (int i = 0; i < order.size(); i++) {
+            LazyRegion n = order.get(i);
+            if(n.op == LEAF) {
+                if(first == null)
+                    first = n.region;
+                else if(n.region.width != first.width || n.region.height != first.height)
+                    throw new IllegalArgumentException("All Regions in a LazyRegion must have the same width and height");
+            }
+        }
+        final int w = first.width, h = first.height;
+        if(target == null)
+            target = new Region(w, h);
+        else if(target.width != w || target.height != h)
+            target.resizeAndEmpty(w, h);
+        if(w <= 0 || target.ySections <= 0)
+            return target;
+
+        // order holds children before parents, so walking backwards visits every parent before its children
+        for (int i = 0; i < order.size(); i++) {
+            LazyRegion n = order.get(i);
+            n.minLead = Integer.MAX_VALUE;
+            n.maxLead = Integer.MIN_VALUE;
+        }
+        minLead = 0;
+        maxLead = 0;
+        for (int i = order.size() - 1; i >= 0; i--) {
+            LazyRegion n = order.get(i);
+            int reach = n.reach();
+            if(n.left != null) n.left.spread(n.minLead - reach, n.maxLead + reach);
+            if(n.right != null) n.right.spread(n.minLead - reach, n.maxLead + reach);
+        }
+        int delay = 0;
+        for (int i = 0; i < order.size(); i++) {
+            LazyRegion n = order.get(i);
+            if(n.op == LEAF && n.region == target)
+                delay = Math.max(delay, -n.minLead);
+        }
+        final int ys = target.ySections;
+        for (int i = 0; i < order.size(); i++) {
+            LazyRegion n = order.get(i);
+            n.width = w;
+            n.ySections = ys;
+            n.yEndMask = target.yEndMask;
+            if(n.op == LEAF)
+                continue;
+            n.capacity = Math.max(3, n.maxLead - n.minLead + 2);
+            if(n == this)
+                n.capacity = Math.max(n.capacity, delay + 2);
+            if(n.store == null || n.store.length != n.capacity * ys)
+                n.store = new long[n.capacity * ys];
+            if(n.storedColumns == null || n.storedColumns.length != n.capacity)
+                n.storedColumns = new int[n.capacity];
+            Arrays.fill(n.storedColumns, Integer.MIN_VALUE);
+        }
+        final long[] zero = new long[ys], out = target.data;
+        if(op == LEAF)
+        {
+            if(region != target)
+                System.arraycopy(region.data, 0, out, 0, w * ys);
+            return target;
+        }
+        int o;
+        for (int x = 0; x < w + delay; x++) {
+            if(x < w)
+                column(x, zero);
+            if(x >= delay) {
+                o = locate(x - delay, zero);
+                System.arraycopy(store, o, out, (x - delay) * ys, ys);
+            }
+        }
+        for (int i = 0; i < order.size(); i++) {
+            LazyRegion n = order.get(i);
+            if(n.op != LEAF)
+                Arrays.fill(n.storedColumns, Integer.MIN_VALUE);
+        }
+        return target;
+    }
+
+    private static void collect(LazyRegion node, ArrayList<LazyRegion> order)
+    {
+        for (int i = 0; i < order.size(); i++) {
+            if(order.get(i) == node)
+                return;
+        }
+        if(node.left != null) collect(node.left, order);
+        if(node.right != null) collect(node.right, order);
+        order.add(node);
+    }
+
+    private void spread(int min, int max)
+    {
+        if(min < minLead) minLead = min;
+        if(max > maxLead) maxLead = max;
+    }
+
+    /**
+     * @return how far, in columns, this node's operation reads from its inputs
+     */
+    private int reach()
+    {
+        switch (op)
+        {
+            case LEFT:
+            case RIGHT:
+            case UP_LEFT:
+            case UP_RIGHT:
+            case DOWN_LEFT:
+            case DOWN_RIGHT:
+            case EXPAND:
+            case EXPAND_8WAY:
+            case RETRACT:
+            case RETRACT_8WAY:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Finds column x of this node, computing it if it isn't already stored, and returns its offset in
+     * {@link #store} (or, for a leaf, in the leaf's data). Columns outside the bounds use zero, with offset 0.
+     */
+    private int locate(int x, long[] zero)
+    {
+        if(op == LEAF)
+            return x * ySections;
+        int slot = x % capacity;
+        if(storedColumns[slot] != x)
+            column(x, zero);
+        return slot * ySections;
+    }
+
+    private long[] source(LazyRegion n, int x, long[] zero)
+    {
+        if(x < 0 || x >= width)
+            return zero;
+        return n.op == LEAF ? n.region.data : n.store;
+    }
+
+    private int offset(LazyRegion n, int x, long[] zero)
+    {
+        if(x < 0 || x >= width)
+            return 0;
+        return n.locate(x, zero);
+    }
+
+    private static long up(long[] d, int o, int s)
+    {
+        return s > 0 ? (d[o + s] << 1) | (d[o + s - 1] >>> 63) : d[o + s] << 1;
+    }
+
+    private static long down(long[] d, int o, int s, int ys)
+    {
+        return s < ys - 1 ? (d[o + s] >>> 1) | (d[o + s + 1] << 63) : d[o + s] >>> 1;
+    }
+
+    private void column(final int x, final long[] zero)
+    {
+        final int ys = ySections, slot = x % capacity, o = slot * ys;
+        final long[] st = store;
+        final LazyRegion a = left, b = right;
+        switch (op)
+        {
+            case AND:
+            case OR:
+            case AND_NOT:
+            case XOR: {
+                final int ao = offset(a, x, zero), bo = offset(b, x, zero);
+                final long[] ad = source(a, x, zero), bd = source(b, x, zero);
+                for (int s = 0; s < ys; s++) {
+                    final long p = ad[ao + s], q = bd[bo + s];
+                    st[o + s] = op == AND ? p & q : op == OR ? p | q : op == AND_NOT ? p & ~q : p ^ q;
+                }
+                break;
+            }
+            case NOT: {
+                final int ao = offset(a, x, zero);
+                final long[] ad = source(a, x, zero);
+                for (int s = 0; s < ys; s++) {
+                    st[o + s] = ~ad[ao + s];
+                }
+                break;
+            }
+            case UP:
+            case DOWN: {
+                final int ao = offset(a, x, zero);
+                final long[] ad = source(a, x, zero);
+                for (int s = 0; s < ys; s++) {
+                    st[o + s] = op == UP ? up(ad, ao, s) : down(ad, ao, s, ys);
+                }
+                break;
+            }
+            case LEFT:
+            case RIGHT: {
+                final int sx = op == LEFT ? x - 1 : x + 1, ao = offset(a, sx, zero);
+                final long[] ad = source(a, sx, zero);
+                System.arraycopy(ad, ao, st, o, ys);
+                break;
+            }
+            case UP_LEFT:
+            case UP_RIGHT:
+            case DOWN_LEFT:
+            case DOWN_RIGHT: {
+                final int sx = (op == UP_LEFT || op == DOWN_LEFT) ? x - 1 : x + 1, ao = offset(a, sx, zero);
+                final long[] ad = source(a, sx, zero);
+                for (int s = 0; s < ys; s++) {
+                    st[o + s] = (op == UP_LEFT || op == UP_RIGHT) ? up(ad, ao, s) : down(ad, ao, s, ys);
+                }
+                break;
+            }
+            default: {
+                // EXPAND, EXPAND_8WAY, RETRACT, RETRACT_8WAY
+                final int lo = offset(a, x - 1, zero), co = offset(a, x, zero), ro = offset(a, x + 1, zero);
+                final long[] ld = source(a, x - 1, zero), cd = source(a, x, zero), rd = source(a, x + 1, zero);
+                for (int s = 0; s < ys; s++) {
+                    long c = cd[co + s], l = ld[lo + s], r = rd[ro + s];
+                    switch (op)
+                    {
+                        case EXPAND:
+                            st[o + s] = c | l | r | up(cd, co, s) | down(cd, co, s, ys);
+                            break;
+                        case EXPAND_8WAY:
+                            l |= up(ld, lo, s) | down(ld, lo, s, ys);
+                            r |= up(rd, ro, s) | down(rd, ro, s, ys);
+                            st[o + s] = c | l | r | up(cd, co, s) | down(cd, co, s, ys);
+                            break;
+                        case RETRACT:
+                            st[o + s] = c & l & r & up(cd, co, s) & down(cd, co, s, ys);
+                            break;
+                        default:
+                            l &= up(ld, lo, s) & down(ld, lo, s, ys);
+                            r &= up(rd, ro, s) & down(rd, ro, s, ys);
+                            st[o + s] = c & l & r & up(cd, co, s) & down(cd, co, s, ys);
+                            break;
+                    }
+                }
+            }
+        }
+        st[o + ys - 1] &= yEndMask;
+        storedColumns[slot] = x;
+    }
+}
@@ -0,0 +1,294 @@
+package jagd;
+
+import jagd.annotation.GwtIncompatible;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Lights a map with many light sources at once, adding each source's FOV straight into one shared buffer instead of
+ * calling {@link FOV#reuseFOV(double[][], double[][], int, int, double)} into a separate full-size light map per source
+ * and merging them with {@link FOV#addFOVs(double[][]...)} or {@link FOV#mixVisibleFOVs(double[][], double[][]...)}.
+ * Each source is cast into a small scratch window that only covers the cells within its radius, so the cost of a
+ * source depends on its radius rather than the size of the map.
+ * <br>
+ * An accumulator has one or more channels, such as 1 for plain light intensity or 3 for red, green, and blue light;
+ * each source adds its FOV multiplied by a strength per channel. The sums are not limited while lights are being
+ * added, and are limited to at most 1.0 when read with {@link #channel(int, double[][])} or
+ * {@link #channel(int, double[][], double[][])}, matching what addFOVs and mixVisibleFOVs do.
+ * <br>
+ * Many sources can be added in parallel with {@link #addAllParallel(ForkJoinPool, int[], int[], double[], double[])},
+ * which gives each task its own accumulator and merges them at the end; that method isn't available on GWT.
+ * Otherwise, instances are not thread-safe.
+ */
+public class LightAccumulator {
+    /**
+     * The xx, xy, yx, yy transforms for the 8 octants, in the order {@link FOV} casts them.
+     */
+    private static final int[] OCTANTS = {
+            0, 1, 1, 0,    1, 0, 0, 1,    0, 1, -1, 0,   1, 0, 0, -1,
+            0, -1, -1, 0,  -1, 0, 0, -1,  0, -1, 1, 0,   -1, 0, 0, 1};
+
+    /**
+     * The resistance map shared by all light sources; 1.0 resists all light, 0.0 does not resist. Not copied.
+     */
+    public final double[][] resistanceMap;
+    public final int width, height, channels;
+    /**
+     * The unlimited sums of light, with channel c at (x, y) stored at {@code (c * width + x) * height + y}.
+     */
+    public final double[] sums;
+    private double[][] window = new double[0][0], walls = new double[0][0];
+    private double[] stack = new double[24];
+    private int windowX, windowY, windowWidth, windowHeight;
+
+    /**
+     * Constructs an empty LightAccumulator for the given resistance map with the given number of channels.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param channels how many channels of light to track, such as 1 for intensity or 3 for RGB; at least 1
+     */
+    public LightAccumulator(double[][] resistanceMap, int channels)
+    {
+        if(channels < 1)
+            throw new IllegalArgumentException("LightAccumulator needs at least one channel");
+        this.resistanceMap = resistanceMap;
+        width = resistanceMap.length;
+        height = resistanceMap[0].length;
+        this.channels = channels;
+        sums = new double[channels * width * height];
+    }
+
+    /**
+     * Sets all accumulated light to 0.
+     * @return this for chaining
+     */
+    public LightAccumulator clear()
+    {
+        Arrays.fill(sums, 0.0);
+        return this;
+    }
+
+    /**
+     * Adds a light source with strength 1.0 in every channel.
+     * @param x the horizontal component of the light's location
+     * @param y the vertical component of the light's location
+     * @param radius the distance the light will extend to
+     * @return this for chaining
+     */
+    public LightAccumulator add(int x, int y, double radius)
+    {
+        cast(x, y, radius);
+        for (int c = 0; c < channels; c++) {
+            addWindow(c, 1.0);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a light source with the given strength in each channel.
+     * @param x the horizontal component of the light's location
+     * @param y the vertical component of the light's location
+     * @param radius the distance the light will extend to
+     * @param strengths the strength of the light in each channel, starting at index offset
+     * @param offset the index in strengths of the strength for channel 0
+     * @return this for chaining
+     */
+    public LightAccumulator add(int x, int y, double radius, double[] strengths, int offset)
+    {
+        cast(x, y, radius);
+        for (int c = 0; c < channels; c++) {
+            addWindow(c, strengths[offset + c]);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a colored light source to an accumulator with 3 channels, treated as red, green, and blue.
+     * @param x the horizontal component of the light's location
+     * @param y the vertical component of the light's location
+     * @param radius the distance the light will extend to
+     * @param red the strength of the light in channel 0
+     * @param green the strength of the light in channel 1
+     * @param blue the strength of the light in channel 2
+     * @return this for chaining
+     */
+    public LightAccumulator addColor(int x, int y, double radius, double red, double green, double blue)
+    {
+        if(channels != 3)
+            throw new IllegalStateException("addColor() needs a LightAccumulator with 3 channels");
+        cast(x, y, radius);
+        addWindow(0, red);
+        addWindow(1, green);
+        addWindow(2, blue);
+        return this;
+    }
+
+    /**
+     * Adds many light sources, with source i at {@code (xs[i], ys[i])} with radius {@code radii[i]}.
+     * @param xs the x-positions of the lights
+     * @param ys the y-positions of the lights; must have the same length as xs
+     * @param radii the radius of each light; must have the same length as xs
+     * @param strengths the strength of each light in each channel, with light i's strength in channel c at
+     *                  {@code i * channels + c}; if null, all strengths are 1.0
+     * @return this for chaining
+     */
+    public LightAccumulator addAll(int[] xs, int[] ys, double[] radii, double[] strengths)
+    {
+        return addRange(xs, ys, radii, strengths, 0, xs.length);
+    }
+
+    private LightAccumulator addRange(int[] xs, int[] ys, double[] radii, double[] strengths, int start, int end)
+    {
+        for (int i = start; i < end; i++) {
+            if(strengths == null)
+                add(xs[i], ys[i], radii[i]);
+            else
+                add(xs[i], ys[i], radii[i], strengths, i * channels);
+        }
+        return this;
+    }
+
+    /**
+     * Adds all the light in another accumulator with the same size and number of channels to this one.
+     * @param other another LightAccumulator with the same width, height, and channels
+     * @return this for chaining
+     */
+    public LightAccumulator merge(LightAccumulator other)
+    {
+        final double[] o = other.sums;
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] += o[i];
+        }
+        return this;
+    }
+
+    /**
+     * Gets the accumulated light in one channel, limited to at most 1.0, like {@link FOV#addFOVs(double[][]...)}.
+     * @param channel which channel to get, from 0 to {@link #channels} - 1
+     * @param into a 2D double array with the same size as the resistance map, or null to allocate one
+     * @return into, or a new 2D double array if into was null, after filling it
+     */
+    public double[][] channel(int channel, double[][] into)
+    {
+        return channel(channel, into, null);
+    }
+
+    /**
+     * Gets the accumulated light in one channel, limited to at most 1.0, and only in cells where losMap is greater
+     * than 0.0001, like {@link FOV#mixVisibleFOVs(double[][], double[][]...)}.
+     * @param channel which channel to get, from 0 to {@link #channels} - 1
+     * @param into a 2D double array with the same size as the resistance map, or null to allocate one
+     * @param losMap a line of sight map for the viewer, such as from {@link FOV#reuseLOS(double[][], double[][], int, int)},
+     *               or null to include all cells
+     * @return into, or a new 2D double array if into was null, after filling it
+     */
+    public double[][] channel(int channel, double[][] into, double[][] losMap)
+    {
+        if(into == null)
+            into = new double[width][height];
+        for (int x = 0, i = channel * width * height; x < width; x++) {
+            for (int y = 0; y < height; y++, i++) {
+                into[x][y] = (losMap == null || losMap[x][y] > 0.0001) ? Math.min(1.0, sums[i]) : 0.0;
+            }
+        }
+        return into;
+    }
+
+    /**
+     * Adds many light sources using the threads of a ForkJoinPool, with source i at {@code (xs[i], ys[i])} with radius
+     * {@code radii[i]}. Each task accumulates its share of the sources into its own LightAccumulator, and these are
+     * merged into this one at the end. Because sums happen in a different order, the results may differ from
+     * {@link #addAll(int[], int[], double[], double[])} in the last few bits.
+     * @param pool the ForkJoinPool to run in, such as {@link FOVBatch#sharedPool()}
+     * @param xs the x-positions of the lights
+     * @param ys the y-positions of the lights; must have the same length as xs
+     * @param radii the radius of each light; must have the same length as xs
+     * @param strengths the strength of each light in each channel, with light i's strength in channel c at
+     *                  {@code i * channels + c}; if null, all strengths are 1.0
+     * @return this for chaining
+     */
+    @GwtIncompatible
+    public LightAccumulator addAllParallel(ForkJoinPool pool, int[] xs, int[] ys, double[] radii, double[] strengths)
+    {
+        final int grain = Math.max(4, xs.length / (pool.getParallelism() * 4) + 1);
+        return merge(pool.invoke(new AccumulateTask(this, xs, ys, radii, strengths, 0, xs.length, grain)));
+    }
+
+    @GwtIncompatible
+    private static final class AccumulateTask extends RecursiveTask<LightAccumulator> {
+        private static final long serialVersionUID = 0L;
+
+        private final LightAccumulator parent;
+        private final int[] xs, ys;
+        private final double[] radii, strengths;
+        private final int start, end, grain;
+
+        AccumulateTask(LightAccumulator parent, int[] xs, int[] ys, double[] radii, double[] strengths,
+                       int start, int end, int grain) {
+            this.parent = parent;
+            this.xs = xs;
+            this.ys = ys;
+            this.radii = radii;
+            this.strengths = strengths;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected LightAccumulator compute() {
+            if(end - start <= grain)
+                return new LightAccumulator(parent.resistanceMap, parent.channels)
+                        .addRange(xs, ys, radii, strengths, start, end);
+            final int mid = start + end >>> 1;
+            AccumulateTask left = new AccumulateTask(parent, xs, ys, radii, strengths, start, mid, grain);
+            left.fork();
+            LightAccumulator right = new AccumulateTask(parent, xs, ys, radii, strengths, mid, end, grain).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    /**
+     * Casts FOV from x, y into the scratch window, which is sized to fit only the cells within radius; the resistance
+     * of those cells is copied into walls first, so the cast can work in the window's coordinates.
+     */
+    private void cast(int startX, int startY, double radius)
+    {
+        final int reach = (int) Math.min(width + height, Math.ceil(radius));
+        windowX = Math.max(0, startX - reach);
+        windowY = Math.max(0, startY - reach);
+        windowWidth = Math.min(width, startX + reach + 1) - windowX;
+        windowHeight = Math.min(height, startY + reach + 1) - windowY;
+        if(window.length < windowWidth || window[0].length < windowHeight) {
+            final int w = Math.max(windowWidth, window.length), h = Math.max(windowHeight, window.length == 0 ? 0
+                    : window[0].length);
+            window = new double[w][h];
+            walls = new double[w][h];
+        }
+        for (int wx = 0; wx < windowWidth; wx++) {
+            Arrays.fill(window[wx], 0, windowHeight, 0.0);
+            System.arraycopy(resistanceMap[windowX + wx], windowY, walls[wx], 0, windowHeight);
+        }
+        final int x = startX - windowX, y = startY - windowY;
+        window[x][y] = Math.min(1.0, radius);
+        final double decay = 1.0 / radius;
+        for (int o = 0; o < 32; o += 4) {
+            stack = FOV.shadowCast(1, 1.0, 0.0, OCTANTS[o], OCTANTS[o+1], OCTANTS[o+2], OCTANTS[o+3], radius, x, y, decay,
+                    window, walls, 0, 0, windowWidth, windowHeight, null, stack);
+        }
+    }
+
+    private void addWindow(int channel, double strength)
+    {
+        if(strength == 0.0)
+            return;
+        final int base = channel * width * height + windowY;
+        for (int wx = 0; wx < windowWidth; wx++) {
+            final double[] column = window[wx];
+            for (int wy = 0, i = base + (windowX + wx) * height; wy < windowHeight; wy++, i++) {
+                sums[i] += column[wy] * strength;
+            }
+        }
+    }
+}
@@ -13,6 +13,8 @@ import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntIntMap;
 import com.badlogic.gdx.utils.ObjectIntMap;
 
+import java.util.Arrays;
+
 /**
  * A port of WaveFunctionCollapse by ExUtumno/mxgmn; takes a single sample of a grid to imitate and produces one or more
  * grids of requested sizes that have a similar layout of cells to the sample. Samples are given as {@code int[][]}
@@ -25,10 +27,19 @@ import com.badlogic.gdx.utils.ObjectIntMap;
  * Brought into Jagd on 2/2/2019 by Tommy Ettinger.
  */
 public class MimicWFC {
-    private boolean[][] wave;
+    /**
+     * The patterns still possible for each cell, as a bitset of {@link #waveWords} longs per cell; pattern t is
+     * possible in cell i if bit {@code t & 63} of {@code wave[i * waveWords + (t >>> 6)]} is set.
+     */
+    private long[] wave;
+    private int waveWords, cells;
 
     private int[][][] propagator;
-    private int[][][] compatible;
+    /**
+     * For cell i, pattern t, and direction d, at {@code (i * totalOptions + t) * 4 + d}, how many patterns in the
+     * neighbor in direction d still allow pattern t in cell i.
+     */
+    private int[] compatible;
     private int[] observed;
 
     private int[] stack;
@@ -44,12 +55,37 @@ public class MimicWFC {
     private int[] sumsOfOnes;
     private double sumOfWeights, sumOfWeightLogWeights, startingEntropy;
     private double[] sumsOfWeights, sumsOfWeightLogWeights, entropies;
+    /**
+     * A small random amount added to each cell's entropy to break ties, chosen once per run in {@link #clear()}.
+     */
+    private double[] noise;
+    /**
+     * An indexed min-heap of the cells that can still be observed (not on the boundary, with more than one pattern
+     * left), ordered by entropy plus noise; heapIndex holds the position of each cell in heap, or -1.
+     */
+    private int[] heap, heapIndex;
+    private int heapSize;
+    private boolean contradiction;
+
+    /**
+     * When trailing, every ban is recorded on trail as cell, pattern, and every observation as trail size, cell,
+     * pattern on decisions, so bans back to a decision can be undone by {@link #backtrack()}.
+     */
+    private boolean trailing;
+    private int[] trail = new int[0], decisions = new int[0];
+    private int trailSize, decisionSize;
+    /**
+     * The center and radius of the last area {@link #restart(int)} restarted, so a contradiction that comes back in
+     * the same place can restart a larger area.
+     */
+    private int lastRestart, lastRadius;
 
 
     private int order;
     private Array<IntArray> patterns;
     private IntIntMap choices, revChoices;
     private Integer surround;
+    private volatile boolean cancelled;
 
     /**
      * Constructs a MimicWFC that will imitate a given 2D int array. The order should usually be 2, the width and height
@@ -214,6 +250,27 @@ public class MimicWFC {
         }
     }
 
+    /**
+     * Constructs a MimicWFC that imitates the same sample as other, with the same output size and settings. The
+     * patterns and propagator are shared with other rather than analyzed again, since they never change after
+     * construction, so this is cheap; each copy has its own wave, and copies can run on different threads at once.
+     * @param other another MimicWFC to copy; it doesn't need to have run yet
+     */
+    public MimicWFC(MimicWFC other)
+    {
+        FMX = other.FMX;
+        FMY = other.FMY;
+        totalOptions = other.totalOptions;
+        periodic = other.periodic;
+        order = other.order;
+        patterns = other.patterns;
+        baseWeights = other.baseWeights;
+        choices = other.choices;
+        revChoices = other.revChoices;
+        surround = other.surround;
+        propagator = other.propagator;
+    }
+
 //    private long index(byte[] p, long C)
 //    {
 //        long result = 0, power = 1;
@@ -302,14 +359,10 @@ public class MimicWFC {
 
     private void init()
     {
-        wave = new boolean[FMX * FMY][];
-        compatible = new int[wave.length][][];
-        for (int i = 0; i < wave.length; i++)
-        {
-            wave[i] = new boolean[totalOptions];
-            compatible[i] = new int[totalOptions][];
-            for (int t = 0; t < totalOptions; t++) compatible[i][t] = new int[4];
-        }
+        cells = FMX * FMY;
+        waveWords = totalOptions + 63 >>> 6;
+        wave = new long[cells * waveWords];
+        compatible = new int[cells * totalOptions * 4];
 
         weightLogWeights = new double[totalOptions];
         sumOfWeights = 0;
@@ -329,42 +382,26 @@ public class MimicWFC {
         sumsOfWeights = new double[FMX * FMY];
         sumsOfWeightLogWeights = new double[FMX * FMY];
         entropies = new double[FMX * FMY];
+        noise = new double[FMX * FMY];
+        heap = new int[FMX * FMY];
+        heapIndex = new int[FMX * FMY];
 
-        stack = new int[wave.length * totalOptions << 1];
+        stack = new int[cells * totalOptions << 1];
         stacksize = 0;
     }
 
     private Boolean observe()
     {
-        double min = 1E+3;
-        int argmin = -1;
-
-        for (int i = 0; i < wave.length; i++)
-        {
-            if (onBoundary(i % FMX, i / FMX)) continue;
-
-            int amount = sumsOfOnes[i];
-            if (amount == 0) return false;
-
-            double entropy = entropies[i];
-            if (amount > 1 && entropy <= min)
-            {
-                double noise = 1E-6 * random.nextDouble();
-                if (entropy + noise < min)
-                {
-                    min = entropy + noise;
-                    argmin = i;
-                }
-            }
-        }
+        if (contradiction) return false;
+        int argmin = heapSize == 0 ? -1 : heap[0];
 
         if (argmin == -1)
         {
-            observed = new int[FMX * FMY];
-            for (int i = 0; i < wave.length; i++) {
-                for (int t = 0; t < totalOptions; t++) {
-                    if (wave[i][t]) {
-                        observed[i] = t;
+            observed = new int[cells];
+            for (int i = 0; i < cells; i++) {
+                for (int k = i * waveWords, w = 0; w < waveWords; w++, k++) {
+                    if (wave[k] != 0L) {
+                        observed[i] = w << 6 | Long.numberOfTrailingZeros(wave[k]);
                         break;
                     }
                 }
@@ -372,71 +409,329 @@ public class MimicWFC {
             return true;
         }
 
-        double[] distribution = new double[totalOptions];
+        final int base = argmin * waveWords;
         double sum = 0.0, x = 0.0;
-        for (int t = 0; t < totalOptions; t++)
-        {
-            sum += (distribution[t] = wave[argmin][t] ? baseWeights.get(t) : 0);
+        for (int w = 0; w < waveWords; w++) {
+            for (long bits = wave[base + w]; bits != 0L; bits &= bits - 1L) {
+                sum += baseWeights.get(w << 6 | Long.numberOfTrailingZeros(bits));
+            }
         }
-        int r = 0;
+        int r = totalOptions;
         sum *= random.nextDouble();
-        for (; r < totalOptions; r++) {
-            if((x += distribution[r]) > sum)
-                break;
+        PICK:
+        for (int w = 0; w < waveWords; w++) {
+            for (long bits = wave[base + w]; bits != 0L; bits &= bits - 1L) {
+                final int t = w << 6 | Long.numberOfTrailingZeros(bits);
+                if ((x += baseWeights.get(t)) > sum) {
+                    r = t;
+                    break PICK;
+                }
+            }
         }
 
-        boolean[] w = wave[argmin];
-        for (int t = 0; t < totalOptions; t++){
-            if (w[t] != (t == r))
-                ban(argmin, t);
+        if (trailing)
+        {
+            if (decisionSize + 3 > decisions.length)
+                decisions = Arrays.copyOf(decisions, Math.max(48, decisions.length << 1));
+            decisions[decisionSize++] = trailSize;
+            decisions[decisionSize++] = argmin;
+            decisions[decisionSize++] = r;
+        }
+        for (int w = 0; w < waveWords; w++) {
+            // bits is a copy, so ban() clearing bits in the wave doesn't disturb this loop
+            for (long bits = wave[base + w]; bits != 0L; bits &= bits - 1L) {
+                final int t = w << 6 | Long.numberOfTrailingZeros(bits);
+                if (t != r)
+                    ban(argmin, t);
+            }
         }
 
         return null;
     }
 
+    /**
+     * Counts only go down here, once for each ban, so a count reaches 0 exactly once; the wave is checked because the
+     * pattern may already have been banned by a count in another direction. Stops early on a contradiction, leaving
+     * the rest of the stack for {@link #settle()}.
+     */
     private void propagate()
     {
-        while (stacksize > 0)
+        while (stacksize > 0 && !contradiction)
         {
             int i1 = stack[stacksize - 2], e2 = stack[stacksize - 1];
             stacksize -= 2;
-            int x1 = i1 % FMX, y1 = i1 / FMX;
 
             for (int d = 0; d < 4; d++)
             {
-                int dx = DX[d], dy = DY[d];
-                int x2 = x1 + dx, y2 = y1 + dy;
-                if (onBoundary(x2, y2)) continue;
-
-                if (x2 < 0) x2 += FMX;
-                else if (x2 >= FMX) x2 -= FMX;
-                if (y2 < 0) y2 += FMY;
-                else if (y2 >= FMY) y2 -= FMY;
-
-                int i2 = x2 + y2 * FMX;
+                int i2 = neighbor(i1, d);
+                if (i2 == -1) continue;
                 int[] p = propagator[d][e2];
-                int[][] compat = compatible[i2];
+                final int compat = i2 * totalOptions << 2 | d;
 
                 for (int l = 0; l < p.length; l++)
                 {
                     int t2 = p[l];
-                    int[] comp = compat[t2];
+                    if (--compatible[compat + (t2 << 2)] == 0
+                            && (wave[i2 * waveWords + (t2 >>> 6)] & 1L << t2) != 0L) ban(i2, t2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the cell next to i in direction d that bans in i affect, or -1 if there isn't one.
+     */
+    private int neighbor(int i, int d)
+    {
+        int x2 = i % FMX + DX[d], y2 = i / FMX + DY[d];
+        if (onBoundary(x2, y2)) return -1;
+
+        if (x2 < 0) x2 += FMX;
+        else if (x2 >= FMX) x2 -= FMX;
+        if (y2 < 0) y2 += FMY;
+        else if (y2 >= FMY) y2 -= FMY;
+        return x2 + y2 * FMX;
+    }
 
-                    comp[d]--;
-                    if (comp[d] == 0) ban(i2, t2);
+    /**
+     * Applies the count changes for bans still on the stack without banning anything more, so every ban made so far
+     * is reflected in the counts, and any of them can be undone by {@link #unban(int, int)}.
+     */
+    private void settle()
+    {
+        while (stacksize > 0)
+        {
+            int i1 = stack[stacksize - 2], e2 = stack[stacksize - 1];
+            stacksize -= 2;
+            for (int d = 0; d < 4; d++)
+            {
+                int i2 = neighbor(i1, d);
+                if (i2 == -1) continue;
+                int[] p = propagator[d][e2];
+                final int compat = i2 * totalOptions << 2 | d;
+                for (int l = 0; l < p.length; l++) compatible[compat + (p[l] << 2)]--;
+            }
+        }
+    }
+
+    /**
+     * Undoes the last observation and everything it caused, then bans the pattern it chose. Returns false if there is
+     * no observation left to undo.
+     */
+    private boolean backtrack()
+    {
+        settle();
+        if (decisionSize == 0) return false;
+        final int r = decisions[--decisionSize], cell = decisions[--decisionSize], mark = decisions[--decisionSize];
+        while (trailSize > mark)
+        {
+            final int t = trail[--trailSize];
+            unban(trail[--trailSize], t);
+        }
+        contradiction = false;
+        // this goes on the trail of the observation before, so backtracking past that one undoes this too
+        if (r < totalOptions) ban(cell, r);
+        propagate();
+        return true;
+    }
+
+    /**
+     * Allows pattern t in cell i again, after its ban has been applied to the counts.
+     */
+    private void unban(int i, int t)
+    {
+        wave[i * waveWords + (t >>> 6)] |= 1L << t;
+        for (int d = 0; d < 4; d++)
+        {
+            int i2 = neighbor(i, d);
+            if (i2 == -1) continue;
+            int[] p = propagator[d][t];
+            final int compat = i2 * totalOptions << 2 | d;
+            for (int l = 0; l < p.length; l++) compatible[compat + (p[l] << 2)]++;
+        }
+        sumsOfOnes[i] += 1;
+        sumsOfWeights[i] += baseWeights.get(t);
+        sumsOfWeightLogWeights[i] += weightLogWeights[t];
+        final double sum = sumsOfWeights[i];
+        entropies[i] = Math.log(sum) - sumsOfWeightLogWeights[i] / sum;
+        reheap(i);
+    }
+
+    /**
+     * Puts cell i in the heap if it can be observed, or moves it to its place if it is already there.
+     */
+    private void reheap(int i)
+    {
+        int h = heapIndex[i];
+        if (h == -1)
+        {
+            if (sumsOfOnes[i] <= 1 || onBoundary(i % FMX, i / FMX)) return;
+            h = heapSize++;
+            heap[h] = i;
+            heapIndex[i] = h;
+        }
+        siftUp(h);
+        siftDown(heapIndex[i]);
+    }
+
+    /**
+     * Restarts the square of cells within radius of a cell with no patterns left, keeping the rest of the wave, then
+     * bans whatever the cells around the square no longer allow. If the contradiction is in or next to the square
+     * restarted last time, the cells outside that square can't be satisfied there, so the square grows by 1 instead.
+     */
+    private void restart(int radius)
+    {
+        int center = -1;
+        for (int i = 0; i < cells && center == -1; i++)
+        {
+            if (sumsOfOnes[i] == 0 && !onBoundary(i % FMX, i / FMX)) center = i;
+        }
+        if (center == -1) return;
+        if (lastRestart != -1 && within(center, lastRestart % FMX, lastRestart / FMX, lastRadius + 1))
+        {
+            center = lastRestart;
+            radius = Math.min(lastRadius + 1, Math.max(FMX, FMY));
+        }
+        lastRestart = center;
+        lastRadius = radius;
+        final int cx = center % FMX, cy = center / FMX;
+        // bans that haven't been propagated yet; those inside the square are about to be undone anyway
+        final int[] pending = Arrays.copyOf(stack, stacksize);
+        stacksize = 0;
+        final long lastWord = -1L >>> -totalOptions;
+        for (int y = cy - radius; y <= cy + radius; y++)
+        {
+            for (int x = cx - radius; x <= cx + radius; x++)
+            {
+                final int i = cell(x, y);
+                if (i == -1) continue;
+                final int k = i * waveWords;
+                for (int w = 0; w < waveWords - 1; w++) wave[k + w] = -1L;
+                wave[k + waveWords - 1] = lastWord;
+                sumsOfOnes[i] = baseWeights.size;
+                sumsOfWeights[i] = sumOfWeights;
+                sumsOfWeightLogWeights[i] = sumOfWeightLogWeights;
+                entropies[i] = startingEntropy;
+                reheap(i);
+            }
+        }
+        // counts in and just around the square are taken again from the wave, which already lacks pending bans
+        for (int y = cy - radius - 1; y <= cy + radius + 1; y++)
+        {
+            for (int x = cx - radius - 1; x <= cx + radius + 1; x++)
+            {
+                final int i = cell(x, y);
+                if (i == -1 || onBoundary(i % FMX, i / FMX)) continue;
+                for (int d = 0; d < 4; d++)
+                {
+                    final int n = cell(i % FMX - DX[d], i / FMX - DY[d]);
+                    final int od = OPPOSITE[d];
+                    for (int t = 0; t < totalOptions; t++)
+                    {
+                        final int[] p = propagator[od][t];
+                        int count = p.length;
+                        if (n != -1)
+                        {
+                            count = 0;
+                            for (int l = 0; l < p.length; l++)
+                            {
+                                if ((wave[n * waveWords + (p[l] >>> 6)] & 1L << p[l]) != 0L) count++;
+                            }
+                        }
+                        compatible[(i * totalOptions + t) << 2 | d] = count;
+                    }
+                }
+            }
+        }
+        contradiction = false;
+        for (int i = 0; i < cells && !contradiction; i++)
+        {
+            contradiction = sumsOfOnes[i] == 0 && !onBoundary(i % FMX, i / FMX);
+        }
+        // pending bans outside the square still count against cells whose counts weren't just taken again
+        for (int j = 0; j < pending.length; j += 2)
+        {
+            final int i1 = pending[j], e2 = pending[j + 1];
+            if (within(i1, cx, cy, radius)) continue;
+            for (int d = 0; d < 4; d++)
+            {
+                final int i2 = neighbor(i1, d);
+                if (i2 == -1 || within(i2, cx, cy, radius + 1)) continue;
+                final int[] p = propagator[d][e2];
+                final int compat = i2 * totalOptions << 2 | d;
+                for (int l = 0; l < p.length; l++)
+                {
+                    final int t2 = p[l];
+                    if (--compatible[compat + (t2 << 2)] == 0
+                            && (wave[i2 * waveWords + (t2 >>> 6)] & 1L << t2) != 0L) ban(i2, t2);
                 }
             }
         }
+        for (int y = cy - radius - 1; y <= cy + radius + 1; y++)
+        {
+            for (int x = cx - radius - 1; x <= cx + radius + 1; x++)
+            {
+                final int i = cell(x, y);
+                if (i == -1) continue;
+                // x and y can be outside the output when it wraps, so the border is checked on the wrapped cell
+                final int wx = i % FMX, wy = i / FMX;
+                if (surround != null && within(i, cx, cy, radius)
+                        && (wx == 0 || wy == 0 || wx == FMX - 1 || wy == FMY - 1))
+                {
+                    for (int t = 0; t < totalOptions; t++)
+                    {
+                        if (t != surround && (wave[i * waveWords + (t >>> 6)] & 1L << t) != 0L) ban(i, t);
+                    }
+                }
+                if (onBoundary(wx, wy)) continue;
+                for (int t = 0, c = i * totalOptions << 2; t < totalOptions; t++, c += 4)
+                {
+                    if ((wave[i * waveWords + (t >>> 6)] & 1L << t) != 0L
+                            && (compatible[c] == 0 || compatible[c + 1] == 0
+                            || compatible[c + 2] == 0 || compatible[c + 3] == 0))
+                        ban(i, t);
+                }
+            }
+        }
+        propagate();
+    }
+
+    /**
+     * True if cell i is within radius of cx, cy on both x and y, wrapping if the output is periodic.
+     */
+    private boolean within(int i, int cx, int cy, int radius)
+    {
+        int dx = Math.abs(i % FMX - cx), dy = Math.abs(i / FMX - cy);
+        if (periodic)
+        {
+            dx = Math.min(dx, FMX - dx);
+            dy = Math.min(dy, FMY - dy);
+        }
+        return dx <= radius && dy <= radius;
+    }
+
+    /**
+     * Gets the index of the cell at x, y, wrapping if the output is periodic, or -1 if it is outside the output.
+     */
+    private int cell(int x, int y)
+    {
+        if (periodic)
+        {
+            x = (x % FMX + FMX) % FMX;
+            y = (y % FMY + FMY) % FMY;
+        }
+        else if (x < 0 || y < 0 || x >= FMX || y >= FMY) return -1;
+        return x + y * FMX;
     }
 
     public boolean run(long seed, int limit)
     {
         if (wave == null) init();
 
-        clear();
         random = new RNG(seed);
+        clear();
 
-        for (int l = 0; l < limit || limit == 0; l++)
+        for (int l = 0; (l < limit || limit == 0) && !cancelled; l++)
         {
             Boolean result = observe();
             if (result != null) return result;
@@ -450,9 +745,9 @@ public class MimicWFC {
     {
         if (wave == null) init();
 
-        clear();
         random = rng;
-        for (int l = 0; l < limit || limit == 0; l++)
+        clear();
+        for (int l = 0; (l < limit || limit == 0) && !cancelled; l++)
         {
             Boolean result = observe();
             if (result != null) return result;
@@ -462,14 +757,105 @@ public class MimicWFC {
         return false;
     }
 
+    /**
+     * Like {@link #run(long, int)}, but repairs contradictions instead of failing on the first one; see
+     * {@link #run(RNG, int, int, int)}.
+     * @param seed the seed for the RNG this will use
+     * @param limit the most observations to make, or 0 for no limit
+     * @param maxRepairs how many contradictions to repair before giving up and returning false
+     * @param restartRadius if 0 or less, backtrack to the last observation; otherwise, the radius of the square area
+     *                      around a contradiction to restart
+     * @return true if this finished without a contradiction left, or false otherwise
+     */
+    public boolean run(long seed, int limit, int maxRepairs, int restartRadius)
+    {
+        return run(new RNG(seed), limit, maxRepairs, restartRadius);
+    }
+
+    /**
+     * Like {@link #run(RNG, int)}, but repairs contradictions instead of failing on the first one, so samples that
+     * rarely finish in one attempt (especially with order 3 or more) can finish in a predictable time. There are two
+     * ways to repair a contradiction. If restartRadius is 0 or less, this backtracks: every ban made since the last
+     * observation is undone, and the pattern that observation chose is banned instead. If restartRadius is positive,
+     * this restarts only a local area: every cell within restartRadius (on x and y) of the contradiction goes back to
+     * allowing all patterns, then loses the patterns its neighbors outside the area no longer allow, and observation
+     * continues from there, leaving the rest of the output as it was. Backtracking keeps a trail of every ban, which
+     * can use as much memory as the wave does; restarting needs no trail, but can repeat work.
+     * @param rng the RNG this will use; its state will change
+     * @param limit the most observations to make, or 0 for no limit
+     * @param maxRepairs how many contradictions to repair before giving up and returning false
+     * @param restartRadius if 0 or less, backtrack to the last observation; otherwise, the radius of the square area
+     *                      around a contradiction to restart
+     * @return true if this finished without a contradiction left, or false otherwise
+     */
+    public boolean run(RNG rng, int limit, int maxRepairs, int restartRadius)
+    {
+        if (wave == null) init();
+
+        random = rng;
+        clear();
+        trailing = restartRadius <= 0 && maxRepairs > 0;
+        trailSize = decisionSize = 0;
+        lastRestart = -1;
+        try
+        {
+            int repairs = 0;
+            for (int l = 0; (l < limit || limit == 0) && !cancelled; l++)
+            {
+                Boolean result = observe();
+                if (result == null) propagate();
+                else if (result) return true;
+                else if (repairs++ >= maxRepairs) return false;
+                else if (restartRadius > 0) restart(restartRadius);
+                else if (!backtrack()) return false;
+            }
+            return false;
+        }
+        finally
+        {
+            trailing = false;
+        }
+    }
+
+    /**
+     * Makes any run in progress on this, and any later run, stop and return false at its next observation, until
+     * {@link #resetCancel()} is called. This is meant to be called from another thread, such as to stop the other
+     * attempts once one has succeeded.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Undoes {@link #cancel()}, so later runs on this go ahead normally. If a run is still in progress on another
+     * thread when this is called, it may or may not stop.
+     */
+    public void resetCancel()
+    {
+        cancelled = false;
+    }
+
+    /**
+     * @return true if {@link #cancel()} has been called on this, and {@link #resetCancel()} hasn't been called since
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
     private void ban(int i, int t)
     {
-        wave[i][t] = false;
+        wave[i * waveWords + (t >>> 6)] &= ~(1L << t);
 
-        int[] comp = compatible[i][t];
-        for (int d = 0; d < 4; d++) comp[d] = 0;
         stack[stacksize++] = i;
         stack[stacksize++] = t;
+        if (trailing)
+        {
+            if (trailSize + 2 > trail.length) trail = Arrays.copyOf(trail, Math.max(64, trail.length << 1));
+            trail[trailSize++] = i;
+            trail[trailSize++] = t;
+        }
 
         double sum = sumsOfWeights[i];
         entropies[i] += sumsOfWeightLogWeights[i] / sum - Math.log(sum);
@@ -480,6 +866,70 @@ public class MimicWFC {
 
         sum = sumsOfWeights[i];
         entropies[i] -= sumsOfWeightLogWeights[i] / sum - Math.log(sum);
+
+        final int h = heapIndex[i];
+        if (h != -1)
+        {
+            if (sumsOfOnes[i] <= 1) heapRemove(h);
+            else
+            {
+                siftUp(h);
+                siftDown(heapIndex[i]);
+            }
+        }
+        else if (sumsOfOnes[i] == 0 && !onBoundary(i % FMX, i / FMX)) contradiction = true;
+    }
+
+    private double key(int i)
+    {
+        return entropies[i] + noise[i];
+    }
+
+    private void heapRemove(int h)
+    {
+        final int i = heap[h];
+        heapIndex[i] = -1;
+        if (--heapSize == h) return;
+        final int last = heap[heapSize];
+        heap[h] = last;
+        heapIndex[last] = h;
+        siftUp(h);
+        siftDown(heapIndex[last]);
+    }
+
+    private void siftUp(int h)
+    {
+        final int i = heap[h];
+        final double k = key(i);
+        while (h > 0)
+        {
+            final int parent = h - 1 >>> 1, p = heap[parent];
+            if (key(p) <= k) break;
+            heap[h] = p;
+            heapIndex[p] = h;
+            h = parent;
+        }
+        heap[h] = i;
+        heapIndex[i] = h;
+    }
+
+    private void siftDown(int h)
+    {
+        final int i = heap[h];
+        final double k = key(i);
+        while (true)
+        {
+            int child = (h << 1) + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && key(heap[child + 1]) < key(heap[child])) child++;
+            final int c = heap[child];
+            if (key(c) >= k) break;
+            heap[h] = c;
+            heapIndex[c] = h;
+            h = child;
+        }
+        heap[h] = i;
+        heapIndex[i] = h;
     }
 
 
@@ -508,19 +958,37 @@ public class MimicWFC {
 
     private void clear()
     {
-        for (int i = 0; i < wave.length; i++)
+        final long lastWord = -1L >>> -totalOptions;
+        for (int i = 0, k = 0; i < cells; i++)
         {
-            for (int t = 0; t < totalOptions; t++)
+            for (int w = 1; w < waveWords; w++) wave[k++] = -1L;
+            wave[k++] = lastWord;
+            for (int t = 0, c = i * totalOptions << 2; t < totalOptions; t++)
             {
-                wave[i][t] = true;
-                for (int d = 0; d < 4; d++) compatible[i][t][d] = propagator[OPPOSITE[d]][t].length;
+                for (int d = 0; d < 4; d++) compatible[c++] = propagator[OPPOSITE[d]][t].length;
             }
 
             sumsOfOnes[i] = baseWeights.size;
             sumsOfWeights[i] = sumOfWeights;
             sumsOfWeightLogWeights[i] = sumOfWeightLogWeights;
             entropies[i] = startingEntropy;
+            noise[i] = 1E-6 * random.nextDouble();
+        }
+
+        // every cell starts with the same entropy, so only the noise orders the heap at first
+        contradiction = false;
+        stacksize = 0;
+        heapSize = 0;
+        for (int i = 0; i < cells; i++)
+        {
+            if (totalOptions > 1 && !onBoundary(i % FMX, i / FMX))
+            {
+                heap[heapSize] = i;
+                heapIndex[i] = heapSize++;
+            }
+            else heapIndex[i] = -1;
         }
+        for (int h = (heapSize >>> 1) - 1; h >= 0; h--) siftDown(h);
 
 
         if (surround != null)
@@ -0,0 +1,182 @@
+package jagd;
+
+import jagd.annotation.GwtIncompatible;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many seeded attempts of a {@link MimicWFC} at once on the threads of an {@link ExecutorService}, stopping the
+ * rest as soon as one succeeds. Each thread gets its own copy of the model made with
+ * {@link MimicWFC#MimicWFC(MimicWFC)}, which shares the patterns and propagator and only allocates its own wave, and
+ * reuses it for every attempt that thread makes. Attempt k uses the seed {@code firstSeed + k}, so the seed in the
+ * {@link Outcome} can be given to {@link MimicWFC#run(long, int)} (or the overload that repairs, with the same
+ * settings) to produce the same grid again on one thread. Cancelling the other attempts only cancels those copies, so
+ * the model given to the constructor is never cancelled.
+ * <br>
+ * This is not available on GWT, since it needs threads; {@link MimicWFC} is.
+ */
+@GwtIncompatible
+public class MimicWFCRunner {
+    /**
+     * What happened during {@link #run(ExecutorService, int, long, int, int, int, int)}.
+     */
+    public static final class Outcome {
+        /**
+         * True if any attempt succeeded; if false, {@link #result} is null and {@link #seed} means nothing.
+         */
+        public final boolean succeeded;
+        /**
+         * The grid from the first attempt to succeed, or null if none did.
+         */
+        public final int[][] result;
+        /**
+         * The seed of the attempt that succeeded, which can be any long, including -1; only meaningful if
+         * {@link #succeeded} is true.
+         */
+        public final long seed;
+        /**
+         * How many attempts were started, failed on their own, and were stopped because another attempt succeeded.
+         */
+        public final int started, failed, cancelled;
+        /**
+         * How long the whole run took, in nanoseconds.
+         */
+        public final long nanos;
+
+        Outcome(int[][] result, long seed, int started, int failed, int cancelled, long nanos) {
+            this.succeeded = result != null;
+            this.result = result;
+            this.seed = seed;
+            this.started = started;
+            this.failed = failed;
+            this.cancelled = cancelled;
+            this.nanos = nanos;
+        }
+    }
+
+    private static ForkJoinPool sharedPool;
+
+    /**
+     * The model that attempts are copied from; it is never run by this, so it can still be used on its own.
+     */
+    public final MimicWFC model;
+
+    /**
+     * Constructs a runner that makes attempts with copies of model.
+     * @param model a MimicWFC with the sample, output size, and settings to use
+     */
+    public MimicWFCRunner(MimicWFC model)
+    {
+        this.model = model;
+    }
+
+    /**
+     * Gets the ForkJoinPool used by {@link #run(long, int, int)}, creating it with one thread per available processor
+     * the first time this is called. It is kept apart from other pools, such as {@link FOVBatch#sharedPool()}, because
+     * each attempt can hold a thread for a long time.
+     * @return the shared ForkJoinPool for MimicWFC attempts
+     */
+    public static synchronized ForkJoinPool sharedPool()
+    {
+        if(sharedPool == null)
+            sharedPool = new ForkJoinPool();
+        return sharedPool;
+    }
+
+    /**
+     * Makes up to attempts attempts without repairing contradictions, on {@link #sharedPool()} with one thread per
+     * available processor.
+     * @param firstSeed the seed of the first attempt; attempt k uses {@code firstSeed + k}
+     * @param attempts the most attempts to make
+     * @param limit the most observations each attempt can make, or 0 for no limit
+     * @return an Outcome with the first successful result (or null) and counts of what the attempts did
+     */
+    public Outcome run(long firstSeed, int attempts, int limit)
+    {
+        return run(sharedPool(), Runtime.getRuntime().availableProcessors(), firstSeed, attempts, limit, 0, 0);
+    }
+
+    /**
+     * Makes up to attempts attempts, spread over threads tasks submitted to executor, and returns once one succeeds
+     * (after stopping the others) or all have failed. Each attempt calls
+     * {@link MimicWFC#run(long, int, int, int)} with the given limit, maxRepairs, and restartRadius.
+     * @param executor the ExecutorService to run attempts on
+     * @param threads how many tasks to submit, each with its own copy of the model; usually the number of threads
+     *                executor has
+     * @param firstSeed the seed of the first attempt; attempt k uses {@code firstSeed + k}
+     * @param attempts the most attempts to make
+     * @param limit the most observations each attempt can make, or 0 for no limit
+     * @param maxRepairs how many contradictions each attempt can repair before failing; 0 repairs none
+     * @param restartRadius if 0 or less, attempts repair by backtracking; otherwise, the radius of the area to restart
+     * @return an Outcome with the first successful result (or null) and counts of what the attempts did
+     */
+    public Outcome run(ExecutorService executor, int threads, long firstSeed, final int attempts, final int limit,
+                       final int maxRepairs, final int restartRadius)
+    {
+        final long startTime = System.nanoTime();
+        threads = Math.max(1, Math.min(threads, attempts));
+        final MimicWFC[] copies = new MimicWFC[threads];
+        for (int i = 0; i < threads; i++) {
+            copies[i] = new MimicWFC(model);
+        }
+        final AtomicInteger next = new AtomicInteger(), failed = new AtomicInteger(), cancelled = new AtomicInteger();
+        // result[0] stays null until an attempt wins, since any long (even -1) can be a winning seed
+        final long[] winner = {0L};
+        final int[][][] result = new int[1][][];
+        final long seed0 = firstSeed;
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            final MimicWFC wfc = copies[i];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int k;
+                    while (!wfc.isCancelled() && (k = next.getAndIncrement()) < attempts) {
+                        if (wfc.run(seed0 + k, limit, maxRepairs, restartRadius)) {
+                            synchronized (winner) {
+                                if (result[0] == null) {
+                                    winner[0] = seed0 + k;
+                                    result[0] = wfc.result();
+                                }
+                            }
+                            for (MimicWFC other : copies) {
+                                other.cancel();
+                            }
+                            return null;
+                        }
+                        if (wfc.isCancelled())
+                            cancelled.incrementAndGet();
+                        else
+                            failed.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (MimicWFC wfc : copies) {
+                wfc.cancel();
+            }
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        synchronized (winner) {
+            return new Outcome(result[0], winner[0], Math.min(next.get(), attempts), failed.get(), cancelled.get(),
+                    System.nanoTime() - startTime);
+        }
+    }
+}
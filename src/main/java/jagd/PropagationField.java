@@ -0,0 +1,178 @@
+package jagd;
+
+import java.util.Arrays;
+
+/**
+ * Spreads sound, scent, or anything else that flows around corners, from one or more sources across a resistance map,
+ * using the same convention as {@link FOV}: cells with resistance 1.0 or more are walls, and lower values slow the
+ * spread. Unlike FOV, which only lights cells in a straight line from the source, this finds the shortest path to each
+ * cell, moving in 8 directions, so it reaches around corners and through winding corridors; unlike ripple FOV, which
+ * only bends a little, there is no limit on how much a path can turn.
+ * <br>
+ * The value at a cell is {@code strength - distance / radius} for the source that gives the highest value, where
+ * distance is the length of the shortest path from that source (1 for each orthogonal step and about 1.414 for each
+ * diagonal step), plus {@code resistance * radius} for each cell the path passes through, so a cell with resistance
+ * 0.5 takes away half of the full strength from anything that passes it. Walls receive a value, like walls being lit
+ * in FOV, but nothing passes through them. Cells with no path that keeps the value above 0 get 0.
+ * <br>
+ * This is a Dijkstra search that processes cells in order of distance, using a bucket queue: distances are measured
+ * in fixed-point units of 1/256 of a cell, with one bucket for each possible distance up to the radius, so finding the
+ * next cell never needs a heap. All sources are spread in one pass. An instance keeps all of its buffers (as flat
+ * arrays) and reuses them on each call, so using it every turn produces no garbage as long as the map size and radius
+ * don't grow. Instances are not thread-safe; use one per thread.
+ */
+public class PropagationField {
+    /**
+     * The 8 directions to neighbors, orthogonal ones first.
+     */
+    private static final int[] DX = {1, 0, -1, 0, 1, -1, -1, 1}, DY = {0, 1, 0, -1, 1, 1, -1, -1};
+    /**
+     * The length of an orthogonal step and of a diagonal step, in the fixed-point units distances are measured in.
+     */
+    private static final int UNIT = 256, DIAGONAL = 362;
+    private static final byte NEW = 0, QUEUED = 1, DONE = 2;
+
+    private int width, height, limit;
+    /**
+     * The best known distance of each cell, at {@code x * height + y}, in units of 1/256 of a cell.
+     */
+    private int[] cost;
+    /**
+     * Doubly-linked lists of the queued cells in each bucket; buckets holds the first cell with each distance.
+     */
+    private int[] next, prev, buckets;
+    private byte[] state;
+
+    /**
+     * Constructs a PropagationField with empty buffers; they will be sized on the first call.
+     */
+    public PropagationField()
+    {
+        cost = next = prev = buckets = new int[0];
+        state = new byte[0];
+    }
+
+    /**
+     * Constructs a PropagationField with buffers sized for maps with the given width and height.
+     * @param width the width of maps this will usually be used with
+     * @param height the height of maps this will usually be used with
+     */
+    public PropagationField(int width, int height)
+    {
+        this();
+        ensure(width, height);
+    }
+
+    private void ensure(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        final int size = width * height;
+        if(cost.length < size) {
+            cost = new int[size];
+            next = new int[size];
+            prev = new int[size];
+            state = new byte[size];
+        }
+        else
+            Arrays.fill(state, 0, size, NEW);
+    }
+
+    /**
+     * Spreads from one source with full strength (1.0), writing the value for each cell into field, which is cleared
+     * first.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 or more blocks the spread, lower values slow it
+     * @param field a 2D double array with the same size as resistanceMap, which will be overwritten
+     * @param startX the x-position of the source
+     * @param startY the y-position of the source
+     * @param radius how far the spread reaches through open cells before it fades to 0
+     * @return field, after filling it
+     */
+    public double[][] spread(double[][] resistanceMap, double[][] field, int startX, int startY, double radius)
+    {
+        return spread(resistanceMap, field, new int[]{startX}, new int[]{startY}, null, radius);
+    }
+
+    /**
+     * Spreads from many sources at once, with source i at {@code (xs[i], ys[i])} with strength {@code strengths[i]},
+     * writing the highest value any source gives each cell into field, which is cleared first. This takes one pass
+     * over the map no matter how many sources there are.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 or more blocks the spread, lower values slow it
+     * @param field a 2D double array with the same size as resistanceMap, which will be overwritten
+     * @param xs the x-positions of the sources
+     * @param ys the y-positions of the sources; must have the same length as xs
+     * @param strengths the strength of each source, usually from 0.0 to 1.0, or null to give every source 1.0
+     * @param radius how far a source with strength 1.0 reaches through open cells before it fades to 0
+     * @return field, after filling it
+     */
+    public double[][] spread(double[][] resistanceMap, double[][] field, int[] xs, int[] ys, double[] strengths,
+                             double radius)
+    {
+        FOV.fill(field, 0.0);
+        double top = 0.0;
+        for (int i = 0; i < xs.length; i++) {
+            top = Math.max(top, strengths == null ? 1.0 : strengths[i]);
+        }
+        if(!(top > 0.0 && radius > 0.0))
+            return field;
+        ensure(field.length, field[0].length);
+        // a source with strength s starts as far along as a path from the strongest source that has faded to s
+        final double scale = radius * UNIT;
+        limit = (int) Math.min(Integer.MAX_VALUE - 1, Math.ceil(top * scale));
+        if(buckets.length < limit)
+            buckets = new int[limit];
+        Arrays.fill(buckets, 0, limit, -1);
+        for (int i = 0; i < xs.length; i++) {
+            final double strength = strengths == null ? 1.0 : strengths[i];
+            if(strength > 0.0)
+                push(xs[i] * height + ys[i], (int) Math.round((top - strength) * scale));
+        }
+        for (int c = 0; c < limit; c++) {
+            int i;
+            while ((i = buckets[c]) != -1) {
+                buckets[c] = next[i];
+                if(next[i] != -1)
+                    prev[next[i]] = -1;
+                state[i] = DONE;
+                final int x = i / height, y = i - x * height;
+                field[x][y] = top - c / scale;
+                final double resistance = resistanceMap[x][y];
+                if(resistance >= 1.0)
+                    continue;//walls receive a value but don't pass it on
+                final int penalty = resistance > 0.0 ? (int) Math.round(resistance * scale) : 0;
+                for (int d = 0; d < 8; d++) {
+                    final int nx = x + DX[d], ny = y + DY[d];
+                    if(nx < 0 || ny < 0 || nx >= width || ny >= height)
+                        continue;
+                    push(nx * height + ny, c + (d < 4 ? UNIT : DIAGONAL) + penalty);
+                }
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Queues cell i with distance c if c is within the limit and better than its current distance, moving it to a
+     * different bucket if it was already queued.
+     */
+    private void push(int i, int c)
+    {
+        if(c >= limit || c < 0 || state[i] == DONE || (state[i] == QUEUED && cost[i] <= c))
+            return;
+        if(state[i] == QUEUED) {
+            if(prev[i] == -1)
+                buckets[cost[i]] = next[i];
+            else
+                next[prev[i]] = next[i];
+            if(next[i] != -1)
+                prev[next[i]] = prev[i];
+        }
+        state[i] = QUEUED;
+        cost[i] = c;
+        prev[i] = -1;
+        next[i] = buckets[c];
+        if(next[i] != -1)
+            prev[next[i]] = i;
+        buckets[c] = i;
+    }
+}
@@ -1792,6 +1792,91 @@ public class Region implements Collection<GridPoint2>, Serializable {
         return new Region(this);
     }
 
+    /**
+     * Writes the transpose of this Region into another Region, so the cell at x, y here is at y, x in into; into is
+     * resized to have this Region's height as its width and this Region's width as its height if needed. This works on
+     * blocks of 64 by 64 cells at a time, swapping bits between words instead of reading and writing each cell, so it
+     * is cheap enough to use when something needs to scan rows of a Region a word at a time, since a Region normally
+     * stores whole columns in its words.
+     * @param into a Region that will be overwritten with the transpose of this; must not be this Region
+     * @return into, after modifications
+     */
+    public Region transpose(Region into)
+    {
+        if(into.width != height || into.height != width)
+            into.resizeAndEmpty(height, width);
+        transposeBlocks(this, into, false);
+        return into;
+    }
+
+    /**
+     * Turns on every cell at x, y in this Region where other has its cell at y, x "on", so this is the union of this
+     * Region with the transpose of other, without allocating the transpose. Like {@link #transpose(Region)}, this
+     * works on blocks of 64 by 64 cells at a time. Only the cells that other's transpose and this Region share are
+     * changed, the same as {@link #or(Region)} does when the sizes don't match.
+     * @param other a Region whose transpose will be merged into this; will not be modified, and must not be this
+     * @return this, after modifications, for chaining
+     */
+    public Region orTranspose(Region other)
+    {
+        transposeBlocks(other, this, true);
+        return this;
+    }
+
+    /**
+     * Writes (or merges, if or is true) the transpose of from into to, a 64 by 64 block at a time, skipping any part
+     * that falls outside to.
+     */
+    private static void transposeBlocks(Region from, Region to, boolean or)
+    {
+        final long[] block = new long[64];
+        final int fromSections = from.ySections, toSections = to.ySections;
+        for (int bx = 0, bs = 0; bx < from.width && bs < toSections; bx += 64, bs++) {
+            final int w = Math.min(64, from.width - bx);
+            final long mask = bs == toSections - 1 ? to.yEndMask : -1L;
+            for (int s = 0; s < fromSections && (s << 6) < to.width; s++) {
+                for (int i = 0; i < 64; i++) {
+                    block[i] = i < w ? from.data[(bx + i) * fromSections + s] : 0L;
+                }
+                transpose64(block);
+                final int h = Math.min(64, Math.min(from.height, to.width) - (s << 6));
+                for (int j = 0, t = (s << 6) * toSections + bs; j < h; j++, t += toSections) {
+                    if(or)
+                        to.data[t] |= block[j] & mask;
+                    else
+                        to.data[t] = block[j] & mask;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transposes a 64 by 64 matrix of bits in place, where bit j of a[i] is the item at row i, column j, by swapping
+     * successively smaller blocks (32 by 32, then 16 by 16, and so on).
+     */
+    private static void transpose64(final long[] a)
+    {
+        long m = 0x00000000FFFFFFFFL, t;
+        for (int j = 32; j != 0; j >>= 1, m ^= m << j) {
+            for (int k = 0; k < 64; k = (k + j + 1) & ~j) {
+                t = ((a[k] >>> j) ^ a[k | j]) & m;
+                a[k] ^= t << j;
+                a[k | j] ^= t;
+            }
+        }
+    }
+
+    /**
+     * Starts a deferred chain of operations that uses this Region as its first input; see {@link LazyRegion} for
+     * how that can avoid copying and writing a full Region at every step. This Region is not copied, and will be read
+     * when the LazyRegion is evaluated.
+     * @return a new LazyRegion that reads from this Region
+     */
+    public LazyRegion lazy()
+    {
+        return LazyRegion.of(this);
+    }
+
     /**
      * Returns this Region's data as a 2D boolean array, [width][height] in size, with on treated as true and off
      * treated as false.
@@ -2459,43 +2544,27 @@ public class Region implements Collection<GridPoint2>, Serializable {
             return this;
 
         final long[] next = new long[width * ySections];
-        System.arraycopy(data, 0, next, 0, width * ySections);
+        final int last = ySections - 1, edge = (width - 1) * ySections;
+        long c, up, down;
         for (int a = 0; a < ySections; a++) {
-            next[a] |= ((data[a] << 1) & (data[a] >>> 1)) | data[a+ySections];
-            next[(width-1)*ySections+a] |= ((data[(width-1)*ySections+a] << 1) & (data[(width-1)*ySections+a] >>> 1)) | data[(width-2) *ySections+a];
-
-            for (int i = ySections+a; i < (width - 1) * ySections; i+= ySections) {
-                next[i] |= ((data[i] << 1) & (data[i] >>> 1)) | (data[i - ySections] & data[i + ySections]);
-            }
-
-            if(a > 0) {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= (data[i - 1] & 0x8000000000000000L) >>> 63 & (data[i] >>> 1);
-                }
-            }
-            else
-            {
-                for (int i = ySections; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= (data[i] >>> 1 & 1L);
-                }
-            }
-
-            if(a < ySections - 1) {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= (data[i + 1] & 1L) << 63 & (data[i] << 1);
-                }
-            }
-            else
-            {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= (data[i] << 1 & 0x8000000000000000L);
-                }
-
+            c = data[a];
+            next[a] = c | ((c << 1) & (c >>> 1)) | data[a+ySections];
+            c = data[edge+a];
+            next[edge+a] = c | ((c << 1) & (c >>> 1)) | data[edge-ySections+a];
+        }
+        // interior columns get one fused pass per word; the cells past the top and bottom count as "on" here
+        for (int i = ySections; i < edge; i += ySections) {
+            for (int a = 0; a < ySections; a++) {
+                c = data[i+a];
+                up = a > 0 ? data[i+a-1] >>> 63 : 1L;
+                down = a < last ? data[i+a+1] << 63 : 0x8000000000000000L;
+                next[i+a] = c | ((c << 1) & (c >>> 1)) | (data[i+a-ySections] & data[i+a+ySections])
+                        | (up & (c >>> 1)) | (down & (c << 1));
             }
         }
 
-        if(ySections > 0 && yEndMask != -1) {
-            for (int a = ySections - 1; a < next.length; a += ySections) {
+        if(yEndMask != -1) {
+            for (int a = last; a < next.length; a += ySections) {
                 next[a] &= yEndMask;
             }
         }
@@ -2518,51 +2587,44 @@ public class Region implements Collection<GridPoint2>, Serializable {
             return this;
 
         final long[] next = new long[width * ySections];
-        System.arraycopy(data, 0, next, 0, width * ySections);
+        final int last = ySections - 1, edge = (width - 1) * ySections;
+        long c, l, r, upC, upL, upR, downC, downL, downR;
         for (int a = 0; a < ySections; a++) {
-            next[a] |= ((data[a] << 1) & (data[a] >>> 1)) | data[a+ySections] | (data[a+ySections] << 1) | (data[a+ySections] >>> 1);
-            next[(width-1)*ySections+a] |= ((data[(width-1)*ySections+a] << 1) & (data[(width-1)*ySections+a] >>> 1))
-                    | data[(width-2) *ySections+a] | (data[(width-2)*ySections+a] << 1) | (data[(width-2)*ySections+a] >>> 1);
-
-            for (int i = ySections+a; i < (width - 1) * ySections; i+= ySections) {
-                next[i] |= ((data[i] << 1) & (data[i] >>> 1)) | (data[i - ySections] & data[i + ySections])
-                        | ((data[i - ySections] << 1) & (data[i + ySections] >>> 1))
-                        | ((data[i + ySections] << 1) & (data[i - ySections] >>> 1));
-            }
-
-            if(a > 0) {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= ((data[i - 1] & 0x8000000000000000L) >>> 63 & (data[i] >>> 1)) |
-                            ((data[i - ySections - 1] & 0x8000000000000000L) >>> 63 & (data[i + ySections] >>> 1)) |
-                            ((data[i + ySections - 1] & 0x8000000000000000L) >>> 63 & (data[i - ySections] >>> 1));
-                }
-            }
-            else
-            {
-                for (int i = ySections; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= (data[i] >>> 1 & 1L) | (data[i - ySections] >>> 1 & 1L) | (data[i + ySections] >>> 1 & 1L);
+            c = data[a];
+            r = data[a+ySections];
+            next[a] = c | ((c << 1) & (c >>> 1)) | r | (r << 1) | (r >>> 1);
+            c = data[edge+a];
+            l = data[edge-ySections+a];
+            next[edge+a] = c | ((c << 1) & (c >>> 1)) | l | (l << 1) | (l >>> 1);
+        }
+        // interior columns get one fused pass per word; the cells past the top and bottom count as "on" here
+        for (int i = ySections; i < edge; i += ySections) {
+            for (int a = 0; a < ySections; a++) {
+                c = data[i+a];
+                l = data[i+a-ySections];
+                r = data[i+a+ySections];
+                if(a > 0) {
+                    upC = data[i+a-1] >>> 63;
+                    upL = data[i+a-ySections-1] >>> 63;
+                    upR = data[i+a+ySections-1] >>> 63;
                 }
-            }
-
-            if(a < ySections - 1) {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= ((data[i + 1] & 1L) << 63 & (data[i] << 1)) |
-                            ((data[i - ySections + 1] & 1L) << 63 & (data[i + ySections] << 1)) |
-                            ((data[i + ySections + 1] & 1L) << 63 & (data[i - ySections] << 1)) ;
-                }
-            }
-            else
-            {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= (data[i] << 1 & 0x8000000000000000L)
-                            | (data[i - ySections] << 1 & 0x8000000000000000L) | (data[i + ySections] << 1 & 0x8000000000000000L);
+                else
+                    upC = upL = upR = 1L;
+                if(a < last) {
+                    downC = data[i+a+1] << 63;
+                    downL = data[i+a-ySections+1] << 63;
+                    downR = data[i+a+ySections+1] << 63;
                 }
-
+                else
+                    downC = downL = downR = 0x8000000000000000L;
+                next[i+a] = c | ((c << 1) & (c >>> 1)) | (l & r) | ((l << 1) & (r >>> 1)) | ((r << 1) & (l >>> 1))
+                        | (upC & (c >>> 1)) | (upL & (r >>> 1)) | (upR & (l >>> 1))
+                        | (downC & (c << 1)) | (downL & (r << 1)) | (downR & (l << 1));
             }
         }
 
-        if(ySections > 0 && yEndMask != -1) {
-            for (int a = ySections - 1; a < next.length; a += ySections) {
+        if(yEndMask != -1) {
+            for (int a = last; a < next.length; a += ySections) {
                 next[a] &= yEndMask;
             }
         }
@@ -2587,51 +2649,39 @@ public class Region implements Collection<GridPoint2>, Serializable {
             return this;
 
         final long[] next = new long[width * ySections];
-        System.arraycopy(data, 0, next, 0, width * ySections);
+        final int last = ySections - 1, edge = (width - 1) * ySections;
+        long c, l, r, upper, lower;
         for (int a = 0; a < ySections; a++) {
-            next[a] |= ((data[a] << 1) & (data[a] >>> 1)) | data[a+ySections] | (data[a+ySections] << 1) | (data[a+ySections] >>> 1);
-            next[(width-1)*ySections+a] |= ((data[(width-1)*ySections+a] << 1) & (data[(width-1)*ySections+a] >>> 1))
-                    | data[(width-2) *ySections+a] | (data[(width-2)*ySections+a] << 1) | (data[(width-2)*ySections+a] >>> 1);
-
-            for (int i = ySections+a; i < (width - 1) * ySections; i+= ySections) {
-                next[i] |= ((data[i] << 1) & (data[i] >>> 1)) | (data[i - ySections] & data[i + ySections])
-                        | (((data[i - ySections] << 1) & (data[i + ySections] >>> 1))
-                           ^ ((data[i + ySections] << 1) & (data[i - ySections] >>> 1)));
-            }
-
-            if(a > 0) {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= ((data[i - 1] & 0x8000000000000000L) >>> 63 & (data[i] >>> 1))
-                            | (((data[i - ySections - 1] & 0x8000000000000000L) >>> 63 & (data[i + ySections] >>> 1))
-                               ^ ((data[i + ySections - 1] & 0x8000000000000000L) >>> 63 & (data[i - ySections] >>> 1)));
-                }
-            }
-            else
-            {
-                for (int i = ySections; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= (data[i] >>> 1 & 1L) | (data[i - ySections] >>> 1 & 1L) | (data[i + ySections] >>> 1 & 1L);
-                }
-            }
-
-            if(a < ySections - 1) {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= ((data[i + 1] & 1L) << 63 & (data[i] << 1))
-                            | (((data[i - ySections + 1] & 1L) << 63 & (data[i + ySections] << 1))
-                               ^ ((data[i + ySections + 1] & 1L) << 63 & (data[i - ySections] << 1)));
-                }
-            }
-            else
-            {
-                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
-                    next[i] |= (data[i] << 1 & 0x8000000000000000L)
-                            | (data[i - ySections] << 1 & 0x8000000000000000L) | (data[i + ySections] << 1 & 0x8000000000000000L);
-                }
-
+            c = data[a];
+            r = data[a+ySections];
+            next[a] = c | ((c << 1) & (c >>> 1)) | r | (r << 1) | (r >>> 1);
+            c = data[edge+a];
+            l = data[edge-ySections+a];
+            next[edge+a] = c | ((c << 1) & (c >>> 1)) | l | (l << 1) | (l >>> 1);
+        }
+        // interior columns get one fused pass per word; at the top and bottom edges, the diagonals use OR, not XOR
+        for (int i = ySections; i < edge; i += ySections) {
+            for (int a = 0; a < ySections; a++) {
+                c = data[i+a];
+                l = data[i+a-ySections];
+                r = data[i+a+ySections];
+                if(a > 0)
+                    upper = (data[i+a-1] >>> 63 & (c >>> 1))
+                            | ((data[i+a-ySections-1] >>> 63 & (r >>> 1)) ^ (data[i+a+ySections-1] >>> 63 & (l >>> 1)));
+                else
+                    upper = (c >>> 1 | l >>> 1 | r >>> 1) & 1L;
+                if(a < last)
+                    lower = (data[i+a+1] << 63 & (c << 1))
+                            | ((data[i+a-ySections+1] << 63 & (r << 1)) ^ (data[i+a+ySections+1] << 63 & (l << 1)));
+                else
+                    lower = (c << 1 | l << 1 | r << 1) & 0x8000000000000000L;
+                next[i+a] = c | ((c << 1) & (c >>> 1)) | (l & r)
+                        | (((l << 1) & (r >>> 1)) ^ ((r << 1) & (l >>> 1))) | upper | lower;
             }
         }
 
-        if(ySections > 0 && yEndMask != -1) {
-            for (int a = ySections - 1; a < next.length; a += ySections) {
+        if(yEndMask != -1) {
+            for (int a = last; a < next.length; a += ySections) {
                 next[a] &= yEndMask;
             }
         }
@@ -3996,6 +4046,140 @@ public class Region implements Collection<GridPoint2>, Serializable {
         return false;
     }
 
+    /**
+     * Finds every long in this Region's {@link #data} that differs from the matching long in previous, and writes
+     * the index of each changed long into indices and the current (new) value of that long into words, in ascending
+     * order of index. This does not allocate. The index of a changed long can be turned into a position with
+     * {@code x = index / ySections} and {@code y = (index % ySections) << 6}, where ySections is
+     * {@code (height + 63) >> 6}; XORing the old and new long gives the 64 cells starting at that y that changed.
+     * Pass the indices, words, and returned count to {@link #patch(int[], long[], int)} on a copy of previous to make
+     * it equal to this Region. If indices or words are too short to hold every change, only as many as fit are
+     * written, but the full count is still returned, so a caller can check if the count exceeds its buffers. Like
+     * {@link #deltaFrom(Region, long[])}, this throws if the sizes don't match, rather than returning a count.
+     * @param previous an older Region with the same width and height as this one
+     * @param indices receives the indices of changed longs; may be shorter than needed, or empty
+     * @param words receives the new values of the changed longs; should have the same length as indices
+     * @return how many longs differ
+     * @throws IllegalArgumentException if previous is null or has a different width or height
+     */
+    public int changedWords(Region previous, int[] indices, long[] words)
+    {
+        if(previous == null || previous.width != width || previous.height != height)
+            throw new IllegalArgumentException("changedWords() requires a previous Region with matching width and height");
+        final long[] prev = previous.data;
+        final int len = width * ySections, limit = Math.min(indices.length, words.length);
+        int ct = 0;
+        for (int i = 0; i < len; i++) {
+            if(data[i] != prev[i])
+            {
+                if(ct < limit)
+                {
+                    indices[ct] = i;
+                    words[ct] = data[i];
+                }
+                ct++;
+            }
+        }
+        return ct;
+    }
+
+    /**
+     * Sets the longs in this Region's {@link #data} at the first count positions in indices to the matching values
+     * in words, as produced by {@link #changedWords(Region, int[], long[])}. Indices that are out of bounds are
+     * ignored. This does not allocate.
+     * @param indices indices into data, as produced by changedWords()
+     * @param words the values to place at those indices
+     * @param count how many indices and words to use
+     * @return this for chaining
+     */
+    public Region patch(int[] indices, long[] words, int count)
+    {
+        final int len = width * ySections;
+        int idx;
+        for (int i = 0; i < count; i++) {
+            if((idx = indices[i]) >= 0 && idx < len)
+                data[idx] = words[i];
+        }
+        if(ySections > 0 && yEndMask != -1) {
+            for (int a = ySections - 1; a < len; a += ySections) {
+                data[a] &= yEndMask;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Encodes the differences between previous and this Region into delta, without allocating, so they can be sent
+     * or stored and later applied with {@link #applyDelta(long[], int)}. The encoding is a series of runs; each run
+     * starts with a header long that holds the index of its first changed long in the upper 32 bits and the number of
+     * longs in the run in the lower 32 bits, followed by that many longs with the new values. Changed longs separated
+     * by only one unchanged long share a run, since that costs no more than a new header. Unchanged areas cost
+     * nothing, so a Region that changes in a few places each turn (like fog-of-war) makes a very short delta.
+     * <br>
+     * If delta is too short, this writes nothing past its end and returns the negative of the length it would need,
+     * so the caller can grow its buffer and try again. An unchanged Region produces a length of 0.
+     * @param previous an older Region with the same width and height as this one
+     * @param delta the buffer to write the encoded delta into
+     * @return the number of longs written to delta, or the negative of the needed length if delta is too short
+     * @throws IllegalArgumentException if previous is null or has a different width or height
+     */
+    public int deltaFrom(Region previous, long[] delta)
+    {
+        if(previous == null || previous.width != width || previous.height != height)
+            throw new IllegalArgumentException("deltaFrom() requires a previous Region with matching width and height");
+        final long[] prev = previous.data;
+        final int len = width * ySections, cap = delta.length;
+        int pos = 0, i = 0, start, end;
+        while (i < len)
+        {
+            if(data[i] == prev[i])
+            {
+                i++;
+                continue;
+            }
+            start = i;
+            end = i + 1;
+            while (end < len && (data[end] != prev[end] || (end + 1 < len && data[end + 1] != prev[end + 1])))
+                end++;
+            if(pos + 1 + end - start <= cap)
+            {
+                delta[pos] = (long) start << 32 | (end - start);
+                System.arraycopy(data, start, delta, pos + 1, end - start);
+            }
+            pos += 1 + end - start;
+            i = end;
+        }
+        return pos > cap ? -pos : pos;
+    }
+
+    /**
+     * Applies a delta produced by {@link #deltaFrom(Region, long[])} to this Region in-place, without allocating.
+     * This Region should be equal to the previous Region that was given to deltaFrom(), and afterwards will be equal
+     * to the Region deltaFrom() was called on. Runs that would go out of bounds are clipped.
+     * @param delta the encoded delta
+     * @param length how many longs of delta to read, as returned by deltaFrom()
+     * @return this for chaining
+     */
+    public Region applyDelta(long[] delta, int length)
+    {
+        final int len = width * ySections;
+        long header;
+        int start, count;
+        for (int pos = 0; pos < length; pos += 1 + count) {
+            header = delta[pos];
+            start = (int) (header >>> 32);
+            count = (int) header;
+            if(start < len)
+                System.arraycopy(delta, pos + 1, data, start, Math.min(count, len - start));
+        }
+        if(ySections > 0 && yEndMask != -1) {
+            for (int a = ySections - 1; a < len; a += ySections) {
+                data[a] &= yEndMask;
+            }
+        }
+        return this;
+    }
+
     public static IndexedSet<Region> whichContain(int x, int y, Region ... packed)
     {
         IndexedSet<Region> found = new IndexedSet<Region>(packed.length);
@@ -5321,6 +5505,265 @@ public class Region implements Collection<GridPoint2>, Serializable {
         return new Region(data, width, height);
     }
 
+    /**
+     * Encodes this Region as alternating run lengths of "off" and "on" cells, writing them as variable-length
+     * numbers into the byte array into, starting at offset. Cells are visited in the same order as they are stored,
+     * all of column x = 0 from top to bottom, then column x = 1, and so on, and the first run is always "off" (it may
+     * have length 0). The width and height are written first, so the result can be read back with
+     * {@link #fromRuns(byte[], int)} or {@link #refillRuns(byte[], int)} without any other information. Each number
+     * uses 7 bits per byte, with the highest bit set on every byte except the last one of a number. Run boundaries are
+     * found 64 cells at a time with {@link Long#numberOfTrailingZeros(long)}, and there is no limit on height.
+     * <br>
+     * This does not allocate. If into is too short, this writes nothing past its end and returns the negative of the
+     * number of bytes it would need after offset; {@link #toRunBytes()} is an allocating alternative.
+     * @param into the byte array to write into
+     * @param offset the first index in into to write to
+     * @return the number of bytes written, or the negative of the needed number of bytes if into is too short
+     */
+    public int toRuns(byte[] into, int offset)
+    {
+        return encodeRuns(into, null, offset);
+    }
+
+    /**
+     * Encodes this Region as alternating run lengths of "off" and "on" cells, writing them as variable-length
+     * numbers into the char array into, starting at offset. This uses the same order of cells and runs as
+     * {@link #toRuns(byte[], int)}, but each number uses 14 bits per char, with 0x4000 set on every char except the
+     * last one of a number; this keeps every char below 0x8000, so the result can be stored safely in a String and
+     * written in any text encoding. Read the result back with {@link #fromRuns(char[], int)},
+     * {@link #refillRuns(char[], int)}, or {@link #fromRuns(String)}.
+     * <br>
+     * This does not allocate. If into is too short, this writes nothing past its end and returns the negative of the
+     * number of chars it would need after offset; {@link #toRunString()} is an allocating alternative.
+     * @param into the char array to write into
+     * @param offset the first index in into to write to
+     * @return the number of chars written, or the negative of the needed number of chars if into is too short
+     */
+    public int toRuns(char[] into, int offset)
+    {
+        return encodeRuns(null, into, offset);
+    }
+
+    /**
+     * Encodes this Region with {@link #toRuns(byte[], int)} into a newly-allocated byte array of exactly the needed
+     * size. This is a compact persistence format for large masks, like explored areas.
+     * @return a new byte array that can be decoded with {@link #fromRuns(byte[], int)}
+     */
+    public byte[] toRunBytes()
+    {
+        byte[] bytes = new byte[-encodeRuns(new byte[0], null, 0)];
+        encodeRuns(bytes, null, 0);
+        return bytes;
+    }
+
+    /**
+     * Encodes this Region with {@link #toRuns(char[], int)} into a String. Unlike {@link #toCompressedString()},
+     * this has no limit on height, and the result can be decoded with {@link #fromRuns(String)}.
+     * @return a String that can be decoded with {@link #fromRuns(String)}
+     */
+    public String toRunString()
+    {
+        char[] chars = new char[-encodeRuns(null, new char[0], 0)];
+        encodeRuns(null, chars, 0);
+        return String.valueOf(chars);
+    }
+
+    private int encodeRuns(final byte[] bytes, final char[] chars, final int offset)
+    {
+        final int cap = bytes == null ? chars.length - offset : bytes.length - offset,
+                lastBits = ((height - 1) & 63) + 1;
+        int pos = writeRun(bytes, chars, offset, 0, cap, width);
+        pos = writeRun(bytes, chars, offset, pos, cap, height);
+        if(width <= 0 || height <= 0)
+            return pos > cap ? -pos : pos;
+        long run = 0L, w, cur;
+        boolean on = false;
+        int bits, p, n;
+        for (int i = 0, s = 0; i < width * ySections; i++) {
+            w = data[i];
+            bits = (s == ySections - 1) ? lastBits : 64;
+            p = 0;
+            while (p < bits)
+            {
+                // the next change is the lowest bit that differs from the current state
+                cur = (on ? ~w : w) >>> p;
+                n = cur == 0L ? 64 : Long.numberOfTrailingZeros(cur);
+                if(p + n >= bits)
+                {
+                    run += bits - p;
+                    p = bits;
+                }
+                else
+                {
+                    run += n;
+                    pos = writeRun(bytes, chars, offset, pos, cap, run);
+                    run = 0L;
+                    on = !on;
+                    p += n;
+                }
+            }
+            if(++s == ySections)
+                s = 0;
+        }
+        pos = writeRun(bytes, chars, offset, pos, cap, run);
+        return pos > cap ? -pos : pos;
+    }
+
+    private static int writeRun(final byte[] bytes, final char[] chars, final int offset, int pos, final int cap, long run)
+    {
+        if(bytes != null) {
+            while (run >= 0x80L) {
+                if(pos < cap) bytes[offset + pos] = (byte) (run | 0x80L);
+                pos++;
+                run >>>= 7;
+            }
+            if(pos < cap) bytes[offset + pos] = (byte) run;
+        }
+        else {
+            while (run >= 0x4000L) {
+                if(pos < cap) chars[offset + pos] = (char) ((run & 0x3FFFL) | 0x4000L);
+                pos++;
+                run >>>= 14;
+            }
+            if(pos < cap) chars[offset + pos] = (char) run;
+        }
+        return pos + 1;
+    }
+
+    /**
+     * Decodes a Region from the format written by {@link #toRuns(byte[], int)} or {@link #toRunBytes()}.
+     * @param runs a byte array containing an encoded Region
+     * @param offset the index in runs where the encoded Region starts
+     * @return a new Region with the decoded contents
+     */
+    public static Region fromRuns(byte[] runs, int offset)
+    {
+        return new Region(0, 0).refillRuns(runs, offset);
+    }
+
+    /**
+     * Decodes a Region from the format written by {@link #toRuns(char[], int)}.
+     * @param runs a char array containing an encoded Region
+     * @param offset the index in runs where the encoded Region starts
+     * @return a new Region with the decoded contents
+     */
+    public static Region fromRuns(char[] runs, int offset)
+    {
+        return new Region(0, 0).refillRuns(runs, offset);
+    }
+
+    /**
+     * Decodes a Region from the format written by {@link #toRunString()}.
+     * @param runs a String produced by toRunString()
+     * @return a new Region with the decoded contents
+     */
+    public static Region fromRuns(String runs)
+    {
+        return new Region(0, 0).refillRuns(runs.toCharArray(), 0);
+    }
+
+    /**
+     * Reassigns this Region to the contents encoded by {@link #toRuns(byte[], int)} or {@link #toRunBytes()},
+     * decoding straight into {@link #data}. This reuses the current data storage (without extra allocations) if the
+     * encoded width and height match this Region's width and height.
+     * @param runs a byte array containing an encoded Region
+     * @param offset the index in runs where the encoded Region starts
+     * @return this for chaining
+     */
+    public Region refillRuns(byte[] runs, int offset)
+    {
+        return decodeRuns(runs, null, offset);
+    }
+
+    /**
+     * Reassigns this Region to the contents encoded by {@link #toRuns(char[], int)}, decoding straight into
+     * {@link #data}. This reuses the current data storage (without extra allocations) if the encoded width and height
+     * match this Region's width and height.
+     * @param runs a char array containing an encoded Region
+     * @param offset the index in runs where the encoded Region starts
+     * @return this for chaining
+     */
+    public Region refillRuns(char[] runs, int offset)
+    {
+        return decodeRuns(null, runs, offset);
+    }
+
+    private Region decodeRuns(final byte[] bytes, final char[] chars, int offset)
+    {
+        final int[] pos = {offset};
+        final int w = (int) readRun(bytes, chars, pos), h = (int) readRun(bytes, chars, pos);
+        resizeAndEmpty(w, h);
+        if(width <= 0 || height <= 0)
+            return this;
+        final long total = (long) width * height;
+        long cell = 0L, run, end;
+        boolean on = false;
+        int x, y, ex, ey;
+        while (cell < total) {
+            run = readRun(bytes, chars, pos);
+            end = Math.min(total, cell + run);
+            if(on)
+            {
+                x = (int) (cell / height);
+                y = (int) (cell % height);
+                ex = (int) ((end - 1) / height);
+                ey = (int) ((end - 1) % height);
+                for (; x <= ex; x++) {
+                    fillColumn(x, y, x == ex ? ey : height - 1);
+                    y = 0;
+                }
+            }
+            cell = end;
+            on = !on;
+        }
+        return this;
+    }
+
+    /**
+     * Turns on the cells in column x from startY to endY, inclusive, 64 at a time where possible.
+     */
+    private void fillColumn(final int x, final int startY, final int endY)
+    {
+        final int base = x * ySections, ss = startY >> 6, es = endY >> 6;
+        if(ss == es)
+        {
+            data[base + ss] |= (-1L >>> (63 - (endY & 63))) & (-1L << (startY & 63));
+            return;
+        }
+        data[base + ss] |= -1L << (startY & 63);
+        for (int s = ss + 1; s < es; s++) {
+            data[base + s] = -1L;
+        }
+        data[base + es] |= -1L >>> (63 - (endY & 63));
+    }
+
+    private static long readRun(final byte[] bytes, final char[] chars, final int[] pos)
+    {
+        long run = 0L, c;
+        int shift = 0;
+        if(bytes != null) {
+            do {
+                c = bytes[pos[0]++];
+                run |= (c & 0x7FL) << shift;
+                shift += 7;
+            } while ((c & 0x80L) != 0);
+        }
+        else {
+            do {
+                c = chars[pos[0]++];
+                run |= (c & 0x3FFFL) << shift;
+                shift += 14;
+            } while ((c & 0x4000L) != 0);
+        }
+        return run;
+    }
+
+    /**
+     * An older, limited encoding that checks one cell at a time, has no matching decoder, and fails if height is
+     * greater than 16384. Prefer {@link #toRunString()} or {@link #toRuns(byte[], int)}, which are faster, have no
+     * height limit, and can be decoded with {@link #fromRuns(String)} or {@link #fromRuns(byte[], int)}.
+     * @return a String with one line per column, where each char is a run length
+     */
     public String toCompressedString()
     {
         if(height > 0x4000)
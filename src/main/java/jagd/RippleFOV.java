@@ -0,0 +1,209 @@
+package jagd;
+
+import java.util.Arrays;
+
+/**
+ * Ripple FOV, which spreads light outward from a start cell like a flood fill, letting it bend slightly around corners
+ * and seep through translucent cells, instead of casting straight lines like shadowcasting does. The "looseness" of a
+ * ripple, from 1 to 6, is how many of the closest neighbors of a cell (closest to the start) are considered as
+ * sources of light for that cell; lower looseness gives tighter, more shadowcast-like results, and higher looseness
+ * lets light travel around more corners.
+ * <br>
+ * An instance of this keeps all the buffers it needs (an int ring buffer of packed cell positions and bitsets for
+ * queued and indirectly-lit cells), and reuses them on each call as long as the map size doesn't change, so it
+ * produces no garbage when used every frame for dynamic lights. Distances to the start are compared as squared
+ * integers, so no square roots are needed per cell. Instances are not thread-safe; use one per thread.
+ * {@link FOV#reuseRippleFOV(double[][], double[][], int, int, int, double)} is a convenience method that allocates a
+ * new instance (and all of its buffers) on every call, so prefer keeping an instance of this when casting repeatedly.
+ */
+public class RippleFOV {
+    /**
+     * The 8 directions to neighbors, counterclockwise starting with right; the order matters for ties in distance.
+     */
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1}, DY = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final double SQRT2 = Math.sqrt(2.0);
+
+    private int width, height;
+    private int[] queue;
+    private long[] queued, indirect;
+    private final int[] neighborDir = new int[8], neighborDist = new int[8];
+
+    /**
+     * Constructs a RippleFOV with empty buffers; they will be sized on the first call.
+     */
+    public RippleFOV()
+    {
+        queue = new int[0];
+        queued = indirect = new long[0];
+    }
+
+    /**
+     * Constructs a RippleFOV with buffers sized for maps with the given width and height.
+     * @param width the width of maps this will usually be used with
+     * @param height the height of maps this will usually be used with
+     */
+    public RippleFOV(int width, int height)
+    {
+        this();
+        ensure(width, height);
+    }
+
+    private void ensure(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        final int size = width * height;
+        if(queue.length < size) {
+            queue = new int[size];
+            queued = new long[size + 63 >> 6];
+            indirect = new long[size + 63 >> 6];
+        }
+        else {
+            Arrays.fill(queued, 0L);
+            Arrays.fill(indirect, 0L);
+        }
+    }
+
+    /**
+     * Calculates ripple FOV from the given x, y coordinates, assigning to and returning a light map where the values
+     * represent a percentage of fully lit. The values in light are cleared before this is run.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a non-null 2D double array that will have its contents overwritten, modified, and returned
+     * @param rippleLooseness how many of each cell's closest neighbors can light it; clamped between 1 and 6
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @return the computed light grid (the same as {@code light})
+     */
+    public double[][] reuseFOV(double[][] resistanceMap, double[][] light, int rippleLooseness,
+                               int startX, int startY, double radius)
+    {
+        return reuseFOV(resistanceMap, light, rippleLooseness, startX, startY, radius, 0.0, 360.0);
+    }
+
+    /**
+     * Calculates ripple FOV from the given x, y coordinates, lighting at the given angle in degrees and covering a span
+     * centered on that angle, also in degrees. Assigns to, and returns, a light map where the values represent a
+     * percentage of fully lit. The values in light are cleared before this is run.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @param light a non-null 2D double array that will have its contents overwritten, modified, and returned
+     * @param rippleLooseness how many of each cell's closest neighbors can light it; clamped between 1 and 6
+     * @param startX the horizontal component of the starting location
+     * @param startY the vertical component of the starting location
+     * @param radius the distance the light will extend to
+     * @param angle the angle in degrees that will be the center of the FOV cone, 0 points right
+     * @param span the angle in degrees that measures the full arc contained in the FOV cone
+     * @return the computed light grid (the same as {@code light})
+     */
+    public double[][] reuseFOV(double[][] resistanceMap, double[][] light, int rippleLooseness,
+                               int startX, int startY, double radius, double angle, double span)
+    {
+        ensure(light.length, light[0].length);
+        FOV.fill(light, 0.0);
+        light[startX][startY] = Math.min(1.0, radius);//make the starting space full power unless radius is tiny
+        angle = ((angle >= 360.0 || angle < 0.0)
+                ? (((angle % 360.0) + 360.0) % 360.0) : angle) * 0.002777777777777778;
+        span = span * 0.002777777777777778;
+        spread(light, resistanceMap, Math.min(Math.max(rippleLooseness, 1), 6), startX, startY, 1.0 / radius,
+                (radius + 1) * (radius + 1), angle, span >= 1.0 ? -1.0 : span * 0.5);
+        return light;
+    }
+
+    private void spread(double[][] lightMap, double[][] map, int ripple, int startX, int startY, double decay,
+                        double limit, double angle, double halfSpan)
+    {
+        final int capacity = width * height;
+        int head = 0, tail = 0, count = 1, p, px, py, x2, y2, dx, dy, i;
+        queue[tail++] = startX << 16 | startY;
+        queued[(i = startX * height + startY) >>> 6] |= 1L << i;
+        while (count > 0) {
+            p = queue[head];
+            if(++head == capacity) head = 0;
+            --count;
+            px = p >>> 16;
+            py = p & 0xFFFF;
+            queued[(i = px * height + py) >>> 6] &= ~(1L << i);
+            if (lightMap[px][py] <= 0 || (indirect[i >>> 6] & 1L << i) != 0) {
+                continue;//no light to spread
+            }
+
+            for (int d = 0; d < 8; d++) {
+                x2 = px + DX[d];
+                y2 = py + DY[d];
+                dx = x2 - startX;
+                dy = y2 - startY;
+                if (x2 < 0 || x2 >= width || y2 < 0 || y2 >= height //out of bounds
+                        || dx * dx + dy * dy >= limit) {//+1 to cover starting tile
+                    continue;
+                }
+                if(halfSpan >= 0.0) {
+                    double at2 = Math.abs(angle - FOV.atan2_(dy, dx));
+                    if(at2 > halfSpan && at2 < 1.0 - halfSpan)
+                        continue;
+                }
+
+                double surroundingLight = nearRippleLight(x2, y2, ripple, startX, startY, decay, lightMap, map);
+                if (lightMap[x2][y2] < surroundingLight) {
+                    lightMap[x2][y2] = surroundingLight;
+                    i = x2 * height + y2;
+                    if (map[x2][y2] < 1 && (queued[i >>> 6] & 1L << i) == 0) {//make sure it's not a wall
+                        queued[i >>> 6] |= 1L << i;
+                        queue[tail] = x2 << 16 | y2;//redo neighbors since this one's light changed
+                        if(++tail == capacity) tail = 0;
+                        ++count;
+                    }
+                }
+            }
+        }
+    }
+
+    private double nearRippleLight(int x, int y, int rippleNeighbors, int startX, int startY, double decay,
+                                   double[][] lightMap, double[][] map)
+    {
+        if (x == startX && y == startY) {
+            return 1;
+        }
+        // insertion sort of the neighbors by squared distance to the start; ties keep direction order
+        int n = 0, x2, y2, dist, j;
+        for (int d = 0; d < 8; d++) {
+            x2 = x + DX[d];
+            y2 = y + DY[d];
+            if (x2 >= 0 && x2 < width && y2 >= 0 && y2 < height) {
+                dist = (x2 - startX) * (x2 - startX) + (y2 - startY) * (y2 - startY);
+                for (j = n; j > 0 && neighborDist[j - 1] > dist; j--) {
+                    neighborDist[j] = neighborDist[j - 1];
+                    neighborDir[j] = neighborDir[j - 1];
+                }
+                neighborDist[j] = dist;
+                neighborDir[j] = d;
+                n++;
+            }
+        }
+
+        if (n == 0) {
+            return 0;
+        }
+        n = Math.min(n, rippleNeighbors);
+        double light = 0;
+        int lit = 0, indirects = 0, d, i;
+        for (j = 0; j < n; j++) {
+            d = neighborDir[j];
+            x2 = x + DX[d];
+            y2 = y + DY[d];
+            if (lightMap[x2][y2] > 0) {
+                lit++;
+                i = x2 * height + y2;
+                if ((indirect[i >>> 6] & 1L << i) != 0) {
+                    indirects++;
+                }
+                light = Math.max(light, lightMap[x2][y2] - ((d & 1) == 0 ? decay : SQRT2 * decay) - map[x2][y2]);
+            }
+        }
+
+        if (map[x][y] >= 1 || indirects >= lit) {
+            i = x * height + y;
+            indirect[i >>> 6] |= 1L << i;
+        }
+        return light;
+    }
+}
@@ -0,0 +1,363 @@
+package jagd;
+
+import jagd.annotation.GwtIncompatible;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A precomputed index of line of sight between every pair of cells on a map whose walls never change, so questions
+ * like "can the cell at A see the cell at B" take constant time instead of a call to
+ * {@link FOV#reuseLOS(double[][], double[][], int, int)} each. The answers are exactly what reuseLOS would give with
+ * A as the start: B can be seen from A if reuseLOS from A gives B light greater than 0.
+ * <br>
+ * Building the index casts LOS once from every cell, which is slow for large maps; it can be spread across threads
+ * with {@link #build(ForkJoinPool, double[][])}, and saved and loaded with {@link #toBytes()} and
+ * {@link #fromBytes(byte[], int)}. The visible set of each cell is stored as a Region covering only the bounding box of
+ * what that cell can see, and cells that see exactly the same set (which is common inside rooms and corridors) share
+ * one stored Region, so the index is usually much smaller than one full-map Region per cell.
+ * <br>
+ * Only sets that are exactly equal are shared, though; sets that differ in one cell are stored separately. In the
+ * worst case, such as an open cave with scattered pillars where every cell sees a slightly different set reaching
+ * across the whole map, every cell stores its own full-map Region, which takes about
+ * {@code width * height * width * ((height + 63) / 64) * 8} bytes: about 16 MB for a 100x100 map, and over 500 MB for
+ * 256x256. Check {@link #uniqueSets()} on a typical map before relying on this for large ones.
+ * <br>
+ * Instances are immutable once built, so they can be queried from many threads at once.
+ */
+public class VisibilityIndex {
+    /**
+     * How many columns of start cells a single task handles before it stops splitting its work further.
+     */
+    private static final int THRESHOLD = 4;
+
+    /**
+     * A visible set, stored as the window of the map from (minX, minY) that contains every visible cell.
+     */
+    private static final class Window {
+        final int minX, minY;
+        final Region bits;
+
+        Window(int minX, int minY, Region bits) {
+            this.minX = minX;
+            this.minY = minY;
+            this.bits = bits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Window window = (Window) o;
+            return minX == window.minX && minY == window.minY && bits.equals(window.bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return (minX * 0x1F1F1 + minY) * 0x9E3779B1 ^ bits.hashCode();
+        }
+    }
+
+    public final int width, height;
+    /**
+     * The index in sets of the visible set for each start cell, with the cell at x, y at {@code x * height + y}.
+     */
+    private final int[] setOf;
+    private final Window[] sets;
+
+    /**
+     * Builds an index of line of sight for the given resistance map, on the current thread. Cells with a resistance
+     * of 1.0 or more block line of sight, the same as in {@link FOV#reuseLOS(double[][], double[][], int, int)}.
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     */
+    public VisibilityIndex(double[][] resistanceMap)
+    {
+        width = resistanceMap.length;
+        height = resistanceMap[0].length;
+        setOf = new int[width * height];
+        final Window[] cells = new Window[width * height];
+        castColumns(new Region(resistanceMap, 1.0, Double.POSITIVE_INFINITY), cells, 0, width);
+        sets = intern(cells, setOf);
+    }
+
+    private VisibilityIndex(int width, int height, int[] setOf, Window[] sets)
+    {
+        this.width = width;
+        this.height = height;
+        this.setOf = setOf;
+        this.sets = sets;
+    }
+
+    /**
+     * Builds an index of line of sight for the given resistance map, using the threads of a ForkJoinPool to cast from
+     * many cells at once. The result is the same as {@link #VisibilityIndex(double[][])} would produce.
+     * @param pool the ForkJoinPool to run in, such as {@link FOVBatch#sharedPool()}
+     * @param resistanceMap the grid of cells to calculate on; 1.0 resists all light, 0.0 does not resist
+     * @return a new VisibilityIndex
+     */
+    @GwtIncompatible
+    public static VisibilityIndex build(ForkJoinPool pool, double[][] resistanceMap)
+    {
+        final int width = resistanceMap.length, height = resistanceMap[0].length;
+        final Window[] cells = new Window[width * height];
+        pool.invoke(new Task(new Region(resistanceMap, 1.0, Double.POSITIVE_INFINITY), cells, 0, width));
+        final int[] setOf = new int[width * height];
+        return new VisibilityIndex(width, height, setOf, intern(cells, setOf));
+    }
+
+    @GwtIncompatible
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 0L;
+
+        private final Region blocking;
+        private final Window[] cells;
+        private final int start, end;
+
+        Task(Region blocking, Window[] cells, int start, int end) {
+            this.blocking = blocking;
+            this.cells = cells;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start > THRESHOLD)
+            {
+                final int mid = start + end >>> 1;
+                invokeAll(new Task(blocking, cells, start, mid), new Task(blocking, cells, mid, end));
+                return;
+            }
+            castColumns(blocking, cells, start, end);
+        }
+    }
+
+    /**
+     * Casts LOS from every cell in the columns from startX (inclusive) to endX (exclusive), storing the window of each
+     * cell's visible set in cells; identical windows found here are shared, to save memory before interning.
+     */
+    private static void castColumns(Region blocking, Window[] cells, int startX, int endX)
+    {
+        final int height = blocking.height;
+        final Region flipped = blocking.transpose(new Region(height, blocking.width)),
+                visible = new Region(blocking.width, height), scratch = new Region(height, blocking.width);
+        final IndexedSet<Window> seen = new IndexedSet<>(64);
+        for (int x = startX; x < endX; x++) {
+            for (int y = 0; y < height; y++) {
+                Window w = window(FOV.reuseLOS(blocking, flipped, visible, scratch, x, y));
+                if(!seen.add(w))
+                    w = seen.getAt(seen.indexOf(w));
+                cells[x * height + y] = w;
+            }
+        }
+    }
+
+    /**
+     * Copies the bounding box of the "on" cells in visible into a new Window, finding the box and copying each column
+     * of it a word at a time.
+     */
+    private static Window window(Region visible)
+    {
+        final long[] data = visible.data;
+        final int ySections = visible.ySections;
+        int minX = visible.width, maxX = -1, minY = visible.height, maxY = -1;
+        for (int x = 0, i = 0; x < visible.width; x++) {
+            for (int s = 0; s < ySections; s++, i++) {
+                final long w = data[i];
+                if(w != 0L) {
+                    if(minX > x) minX = x;
+                    maxX = x;
+                    minY = Math.min(minY, s << 6 | Long.numberOfTrailingZeros(w));
+                    maxY = Math.max(maxY, s << 6 | 63 - Long.numberOfLeadingZeros(w));
+                }
+            }
+        }
+        if(maxX < 0)
+            return new Window(0, 0, new Region(0, 0));
+        final Region bits = new Region(maxX - minX + 1, maxY - minY + 1);
+        final int bitSections = bits.ySections, start = minY >> 6, shift = minY & 63;
+        for (int x = minX, b = 0; x <= maxX; x++) {
+            final int base = x * ySections + start;
+            for (int s = 0; s < bitSections; s++, b++) {
+                long w = data[base + s] >>> shift;
+                if(shift != 0 && start + s + 1 < ySections)
+                    w |= data[base + s + 1] << -shift;
+                bits.data[b] = w;
+            }
+            bits.data[b - 1] &= bits.yEndMask;
+        }
+        return new Window(minX, minY, bits);
+    }
+
+    /**
+     * Deduplicates the windows in cells, writing the index of each cell's window into setOf and returning the unique
+     * windows.
+     */
+    private static Window[] intern(Window[] cells, int[] setOf)
+    {
+        final IndexedSet<Window> unique = new IndexedSet<>(64);
+        for (int i = 0; i < cells.length; i++) {
+            unique.add(cells[i]);
+            setOf[i] = unique.indexOf(cells[i]);
+        }
+        final Window[] sets = new Window[unique.size()];
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = unique.getAt(i);
+        }
+        return sets;
+    }
+
+    /**
+     * Checks whether the cell at targetX, targetY is in line of sight from the cell at startX, startY, in constant
+     * time. This is the same as whether {@link FOV#reuseLOS(double[][], double[][], int, int)} from the start would
+     * give the target light greater than 0; it isn't always symmetric.
+     * @param startX the x-position of the viewer; must be within the map
+     * @param startY the y-position of the viewer; must be within the map
+     * @param targetX the x-position of the cell to check; may be outside the map, which is never visible
+     * @param targetY the y-position of the cell to check; may be outside the map, which is never visible
+     * @return true if the target can be seen from the start
+     */
+    public boolean canSee(int startX, int startY, int targetX, int targetY)
+    {
+        final Window w = sets[setOf[startX * height + startY]];
+        return w.bits.contains(targetX - w.minX, targetY - w.minY);
+    }
+
+    /**
+     * Writes every cell in line of sight from the cell at x, y into visible, which is resized to match the map if
+     * needed and cleared first.
+     * @param x the x-position of the viewer; must be within the map
+     * @param y the y-position of the viewer; must be within the map
+     * @param visible a Region that will be overwritten with the visible cells
+     * @return visible, after filling it
+     */
+    public Region visible(int x, int y, Region visible)
+    {
+        if(visible.width != width || visible.height != height)
+            visible.resizeAndEmpty(width, height);
+        else
+            visible.clear();
+        final Window w = sets[setOf[x * height + y]];
+        final Region bits = w.bits;
+        // each column of the window is shifted into place a word at a time
+        final int bitSections = bits.ySections, ySections = visible.ySections, start = w.minY >> 6,
+                shift = w.minY & 63;
+        for (int i = 0, b = 0; i < bits.width; i++) {
+            final int base = (w.minX + i) * ySections + start;
+            for (int s = 0; s < bitSections; s++, b++) {
+                final long word = bits.data[b];
+                visible.data[base + s] |= word << shift;
+                if(shift != 0 && start + s + 1 < ySections)
+                    visible.data[base + s + 1] |= word >>> -shift;
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Counts the cells in line of sight from the cell at x, y.
+     * @param x the x-position of the viewer; must be within the map
+     * @param y the y-position of the viewer; must be within the map
+     * @return how many cells can be seen from x, y, including itself
+     */
+    public int visibleCount(int x, int y)
+    {
+        return sets[setOf[x * height + y]].bits.size();
+    }
+
+    /**
+     * Gets how many different visible sets this stores; each is shared by every cell that sees exactly that set.
+     * @return the number of unique visible sets
+     */
+    public int uniqueSets()
+    {
+        return sets.length;
+    }
+
+    /**
+     * Encodes this index into a compact byte array, storing each unique visible set with
+     * {@link Region#toRunBytes()}, and every other number as a variable-length number using 7 bits per byte. Read it
+     * back with {@link #fromBytes(byte[], int)}.
+     * @return a new byte array holding this index
+     */
+    public byte[] toBytes()
+    {
+        final byte[][] runs = new byte[sets.length][];
+        int size = varSize(width) + varSize(height) + varSize(sets.length);
+        for (int i = 0; i < sets.length; i++) {
+            runs[i] = sets[i].bits.toRunBytes();
+            size += varSize(sets[i].minX) + varSize(sets[i].minY) + varSize(runs[i].length) + runs[i].length;
+        }
+        for (int i = 0; i < setOf.length; i++) {
+            size += varSize(setOf[i]);
+        }
+        final byte[] bytes = new byte[size];
+        int pos = writeVar(bytes, 0, width);
+        pos = writeVar(bytes, pos, height);
+        pos = writeVar(bytes, pos, sets.length);
+        for (int i = 0; i < sets.length; i++) {
+            pos = writeVar(bytes, pos, sets[i].minX);
+            pos = writeVar(bytes, pos, sets[i].minY);
+            pos = writeVar(bytes, pos, runs[i].length);
+            System.arraycopy(runs[i], 0, bytes, pos, runs[i].length);
+            pos += runs[i].length;
+        }
+        for (int i = 0; i < setOf.length; i++) {
+            pos = writeVar(bytes, pos, setOf[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes an index from the format written by {@link #toBytes()}.
+     * @param bytes a byte array containing an encoded VisibilityIndex
+     * @param offset the index in bytes where the encoded VisibilityIndex starts
+     * @return a new VisibilityIndex with the decoded contents
+     */
+    public static VisibilityIndex fromBytes(byte[] bytes, int offset)
+    {
+        final int[] pos = {offset};
+        final int width = readVar(bytes, pos), height = readVar(bytes, pos);
+        final Window[] sets = new Window[readVar(bytes, pos)];
+        for (int i = 0; i < sets.length; i++) {
+            final int minX = readVar(bytes, pos), minY = readVar(bytes, pos), length = readVar(bytes, pos);
+            sets[i] = new Window(minX, minY, Region.fromRuns(bytes, pos[0]));
+            pos[0] += length;
+        }
+        final int[] setOf = new int[width * height];
+        for (int i = 0; i < setOf.length; i++) {
+            setOf[i] = readVar(bytes, pos);
+        }
+        return new VisibilityIndex(width, height, setOf, sets);
+    }
+
+    private static int varSize(int n)
+    {
+        int size = 1;
+        while ((n >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVar(byte[] bytes, int pos, int n)
+    {
+        while ((n & ~0x7F) != 0) {
+            bytes[pos++] = (byte) (n | 0x80);
+            n >>>= 7;
+        }
+        bytes[pos++] = (byte) n;
+        return pos;
+    }
+
+    private static int readVar(byte[] bytes, int[] pos)
+    {
+        int n = 0, shift = 0, c;
+        do {
+            c = bytes[pos[0]++];
+            n |= (c & 0x7F) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return n;
+    }
+}
@@ -0,0 +1,715 @@
+import jagd.FOV;
+import jagd.FOVBatch;
+import jagd.FOVCache;
+import jagd.FOVTable;
+import jagd.FlatFOV;
+import jagd.HierarchicalFOV;
+import jagd.IncrementalFOV;
+import jagd.LightAccumulator;
+import jagd.PropagationField;
+import jagd.RNG;
+import jagd.RippleFOV;
+import jagd.Region;
+import jagd.VisibilityIndex;
+import com.badlogic.gdx.math.GridPoint2;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FOVTest {
+    static double[][] resistance(RNG rng, double fraction, int width, int height)
+    {
+        return new Region(rng, fraction, width, height).writeDoubles(new double[width][height], 1.0);
+    }
+
+    @Test
+    public void testBatchMatchesSequential()
+    {
+        RNG rng = new RNG("Batch");
+        double[][] res = resistance(rng, 0.25, 80, 60);
+        int count = 37;
+        int[] xs = new int[count], ys = new int[count];
+        double[] radii = new double[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rng.nextInt(80);
+            ys[i] = rng.nextInt(60);
+            radii[i] = 2 + rng.nextInt(12);
+        }
+        double[][][] lights = FOVBatch.reuseFOVs(res, new double[count][][], xs, ys, radii);
+        for (int i = 0; i < count; i++) {
+            Assert.assertArrayEquals(FOV.reuseFOV(res, new double[80][60], xs[i], ys[i], radii[i]), lights[i]);
+        }
+        lights = FOVBatch.reuseLOSs(res, lights, xs, ys);
+        for (int i = 0; i < count; i++) {
+            Assert.assertArrayEquals(FOV.reuseLOS(res, new double[80][60], xs[i], ys[i]), lights[i]);
+        }
+    }
+
+    @Test
+    public void testDirectionalIsReentrant() throws InterruptedException
+    {
+        RNG rng = new RNG("Cones");
+        final double[][] res = resistance(rng, 0.2, 50, 50);
+        final double[][] expected0 = FOV.reuseFOV(res, new double[50][50], 25, 25, 12, 0, 1, 0.5, 0.25, 0.1, 0.05),
+                expected1 = FOV.reuseFOV(res, new double[50][50], 25, 25, 12, 180, 0.2, 0.4, 1, 0.9, 0.8);
+        final boolean[] ok = {true, true};
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < 2; t++) {
+            final int which = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    double[][] light = new double[50][50];
+                    for (int i = 0; i < 200; i++) {
+                        if(which == 0)
+                            FOV.reuseFOV(res, light, 25, 25, 12, 0, 1, 0.5, 0.25, 0.1, 0.05);
+                        else
+                            FOV.reuseFOV(res, light, 25, 25, 12, 180, 0.2, 0.4, 1, 0.9, 0.8);
+                        ok[which] &= java.util.Arrays.deepEquals(which == 0 ? expected0 : expected1, light);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        Assert.assertTrue(ok[0] && ok[1]);
+    }
+
+    @Test
+    public void testFlatMatchesGrid()
+    {
+        RNG rng = new RNG("Flat");
+        int width = 45, height = 31;
+        double[][] res = resistance(rng, 0.3, width, height), light = new double[width][height];
+        float[] resF = FlatFOV.flatten(res, (float[]) null), lightF = new float[width * height];
+        double[] resD = FlatFOV.flatten(res, (double[]) null), lightD = new double[width * height];
+        for (int i = 0; i < 20; i++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height);
+            double radius = 1 + rng.nextInt(15);
+            FOV.reuseFOV(res, light, x, y, radius);
+            FlatFOV.reuseFOV(resD, lightD, width, height, x, y, radius);
+            FlatFOV.reuseFOV(resF, lightF, width, height, x, y, radius);
+            Assert.assertArrayEquals(FlatFOV.flatten(light, (double[]) null), lightD, 0.0);
+            Assert.assertArrayEquals(FlatFOV.flatten(light, (float[]) null), lightF, 0f);
+            FOV.reuseLOS(res, light, x, y);
+            FlatFOV.reuseLOS(resD, lightD, width, height, x, y);
+            FlatFOV.reuseLOS(resF, lightF, width, height, x, y);
+            Assert.assertArrayEquals(FlatFOV.flatten(light, (double[]) null), lightD, 0.0);
+            Assert.assertArrayEquals(FlatFOV.flatten(light, (float[]) null), lightF, 0f);
+        }
+    }
+
+    @Test
+    public void testQuantizedMatchesGrid()
+    {
+        RNG rng = new RNG("Quantized");
+        int width = 45, height = 31;
+        double[][] res = resistance(rng, 0.3, width, height), light = new double[width][height];
+        float[] resF = FlatFOV.flatten(res, (float[]) null);
+        double[] flat = new double[width * height];
+        byte[] bytes = new byte[width * height];
+        short[] shorts = new short[width * height];
+        for (int i = 0; i < 20; i++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height);
+            double radius = 1 + rng.nextInt(15);
+            FOV.reuseFOV(res, light, x, y, radius);
+            FlatFOV.flatten(light, flat);
+            FlatFOV.reuseFOV(resF, bytes, width, height, x, y, radius);
+            FlatFOV.reuseFOV(resF, shorts, width, height, x, y, radius);
+            for (int j = 0; j < flat.length; j++) {
+                Assert.assertEquals(flat[j] * 255, bytes[j] & 255, 0.5);
+                Assert.assertEquals(flat[j] * 65535, shorts[j] & 0xFFFF, 0.5);
+            }
+            FOV.reuseLOS(res, light, x, y);
+            FlatFOV.flatten(light, flat);
+            FlatFOV.reuseLOS(resF, bytes, width, height, x, y);
+            FlatFOV.reuseLOS(resF, shorts, width, height, x, y);
+            for (int j = 0; j < flat.length; j++) {
+                Assert.assertEquals(flat[j] * 255, bytes[j] & 255, 0.0);
+                Assert.assertEquals(flat[j] * 65535, shorts[j] & 0xFFFF, 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testRegionMatchesGrid()
+    {
+        RNG rng = new RNG("Bits");
+        for (int[] size : new int[][]{{45, 31}, {70, 150}, {150, 70}, {130, 130}}) {
+            int width = size[0], height = size[1];
+            for (double fraction : new double[]{0.3, 0.05}) {
+                Region blocking = new Region(rng, fraction, width, height), visible = new Region(1, 1),
+                        flipped = blocking.transpose(new Region(1, 1)), scratch = new Region(1, 1);
+                double[][] res = blocking.writeDoubles(new double[width][height], 1.0), light = new double[width][height],
+                        runs = new double[width][height];
+                for (int i = 0; i < 20; i++) {
+                    int x = rng.nextInt(width), y = rng.nextInt(height);
+                    double radius = 1 + rng.nextInt(40) + (i & 1) * 0.5;
+                    FOV.reuseFOV(res, light, x, y, radius);
+                    Assert.assertEquals(new Region(light, Double.MIN_VALUE, 2.0), FOV.reuseFOV(blocking, visible, x, y, radius));
+                    Assert.assertArrayEquals(light, FOV.reuseFOV(blocking, runs, x, y, radius));
+                    FOV.reuseLOS(res, light, x, y);
+                    Assert.assertEquals(new Region(light, Double.MIN_VALUE, 2.0), FOV.reuseLOS(blocking, visible, x, y));
+                    Assert.assertArrayEquals(light, FOV.reuseLOS(blocking, runs, x, y));
+                    Assert.assertEquals(new Region(light, Double.MIN_VALUE, 2.0), FOV.reuseLOS(blocking, flipped, visible, scratch, x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalMatchesFull()
+    {
+        RNG rng = new RNG("Doors");
+        int width = 60, height = 90;
+        double[][] res = resistance(rng, 0.2, width, height), light = new double[width][height];
+        IncrementalFOV inc = new IncrementalFOV(res);
+        int count = 12;
+        int[] xs = new int[count], ys = new int[count];
+        double[] radii = new double[count];
+        for (int i = 0; i < count; i++) {
+            radii[i] = 3 + rng.nextInt(10);
+            Assert.assertEquals(i, inc.addViewer(xs[i] = rng.nextInt(width), ys[i] = rng.nextInt(height), radii[i]));
+        }
+        int before = inc.octantsCast(), changes = 200;
+        for (int t = 0; t < changes; t++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height);
+            inc.set(x, y, 1.0 - res[x][y]);
+            for (int i = 0; i < count; i++) {
+                Assert.assertArrayEquals(FOV.reuseFOV(res, light, xs[i], ys[i], radii[i]), inc.light(i));
+            }
+        }
+        Assert.assertTrue(inc.octantsCast() - before < changes * count * 8 / 4);
+
+        Region changed = new Region(rng, 0.05, width, height);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if(changed.contains(x, y)) res[x][y] = 1.0 - res[x][y];
+            }
+        }
+        inc.update(changed).moveViewer(3, 1, 2);
+        xs[3] = 1;
+        ys[3] = 2;
+        for (int i = 0; i < count; i++) {
+            Assert.assertArrayEquals(FOV.reuseFOV(res, light, xs[i], ys[i], radii[i]), inc.light(i));
+        }
+    }
+
+    @Test
+    public void testCacheMatchesFOV()
+    {
+        RNG rng = new RNG("Cache");
+        int width = 40, height = 70;
+        double[][] res = resistance(rng, 0.25, width, height), light = new double[width][height],
+                expected = new double[width][height];
+        FOVCache cache = new FOVCache(res, 8);
+        Region visible = new Region(1, 1);
+        int[] xs = new int[12], ys = new int[12];
+        for (int i = 0; i < 12; i++) {
+            xs[i] = rng.nextInt(width);
+            ys[i] = rng.nextInt(height);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 6; i++) {
+                double radius = 2.5 + i;
+                Assert.assertArrayEquals(FOV.reuseFOV(res, expected, xs[i], ys[i], radius),
+                        cache.reuseFOV(light, xs[i], ys[i], radius));
+                Assert.assertEquals(new Region(expected, Double.MIN_VALUE, 2.0),
+                        cache.reuseFOV(visible, xs[i], ys[i], radius));
+            }
+            Assert.assertArrayEquals(FOV.reuseLOS(res, expected, xs[0], ys[0]), cache.reuseLOS(light, xs[0], ys[0]));
+            Assert.assertEquals(new Region(expected, 0.5, 2.0), cache.reuseLOS(visible, xs[0], ys[0]));
+        }
+        Assert.assertEquals(7, cache.misses());
+        Assert.assertEquals(3 * 14 - 7, cache.hits());
+        // a different array, with stale values everywhere, must be cleared completely
+        double[][] other = new double[width][height];
+        FOV.fill(other, 0.5);
+        Assert.assertArrayEquals(FOV.reuseFOV(res, expected, xs[2], ys[2], 4.5), cache.reuseFOV(other, xs[2], ys[2], 4.5));
+        Assert.assertArrayEquals(FOV.reuseLOS(res, expected, xs[0], ys[0]), cache.reuseLOS(light, xs[0], ys[0]));
+        for (int i = 0; i < 12; i++) {
+            cache.reuseFOV(light, xs[i], ys[i], 4.0);
+        }
+        Assert.assertEquals(8, cache.size());
+        Assert.assertTrue(cache.evictions() > 0);
+
+        res[xs[1]][ys[1] == 0 ? 1 : ys[1] - 1] = 1.0;
+        cache.invalidate().resetStats();
+        Assert.assertArrayEquals(FOV.reuseFOV(res, expected, xs[1], ys[1], 4.0), cache.reuseFOV(light, xs[1], ys[1], 4.0));
+        Assert.assertEquals(1, cache.misses());
+    }
+
+    // the allocating ripple FOV that FOV used to have as private code
+    private static final GridPoint2[] CCW = new GridPoint2[]{new GridPoint2(1, 0), new GridPoint2(1, 1),
+            new GridPoint2(0, 1), new GridPoint2(-1, 1), new GridPoint2(-1, 0), new GridPoint2(-1, -1),
+            new GridPoint2(0, -1), new GridPoint2(1, -1)};
+
+    private static void doRippleFOV(double[][] lightMap, int ripple, int x, int y, int startX, int startY, double decay, double radius, double[][] map, boolean[][] indirect) {
+        final ArrayDeque<GridPoint2> dq = new ArrayDeque<>();
+        int width = lightMap.length;
+        int height = lightMap[0].length;
+        dq.offer(new GridPoint2(x, y));
+        while (!dq.isEmpty()) {
+            GridPoint2 p = dq.removeFirst();
+            if (lightMap[p.x][p.y] <= 0 || indirect[p.x][p.y]) {
+                continue;//no light to spread
+            }
+
+            for (GridPoint2 dir : CCW) {
+                int x2 = p.x + dir.x;
+                int y2 = p.y + dir.y;
+                if (x2 < 0 || x2 >= width || y2 < 0 || y2 >= height //out of bounds
+                        || FOV.radius(startX, startY, x2, y2) >= radius + 1) {//+1 to cover starting tile
+                    continue;
+                }
+
+                double surroundingLight = nearRippleLight(x2, y2, ripple, startX, startY, decay, lightMap, map, indirect);
+                if (lightMap[x2][y2] < surroundingLight) {
+                    lightMap[x2][y2] = surroundingLight;
+                    if (map[x2][y2] < 1) {//make sure it's not a wall
+                        dq.offer(new GridPoint2(x2, y2));//redo neighbors since this one's light changed
+                    }
+                }
+            }
+        }
+    }
+
+    private static double nearRippleLight(int x, int y, int rippleNeighbors, int startX, int startY, double decay, double[][] lightMap, double[][] map, boolean[][] indirect) {
+        if (x == startX && y == startY) {
+            return 1;
+        }
+        int width = lightMap.length;
+        int height = lightMap[0].length;
+        List<GridPoint2> neighbors = new ArrayList<>();
+        double tmpDistance = 0, testDistance;
+        GridPoint2 c;
+        for (GridPoint2 di : CCW) {
+            int x2 = x + di.x;
+            int y2 = y + di.y;
+            if (x2 >= 0 && x2 < width && y2 >= 0 && y2 < height) {
+                tmpDistance = FOV.radius(startX, startY, x2, y2);
+                int idx = 0;
+                for(int i = 0; i < neighbors.size() && i <= rippleNeighbors; i++)
+                {
+                    c = neighbors.get(i);
+                    testDistance = FOV.radius(startX, startY, c.x, c.y);
+                    if(tmpDistance < testDistance) {
+                        break;
+                    }
+                    idx++;
+                }
+                neighbors.add(idx, new GridPoint2(x2, y2));
+            }
+        }
+
+        if (neighbors.isEmpty()) {
+            return 0;
+        }
+        neighbors = neighbors.subList(0, Math.min(neighbors.size(), rippleNeighbors));
+        double light = 0;
+        int lit = 0, indirects = 0;
+        for (GridPoint2 p : neighbors) {
+            if (lightMap[p.x][p.y] > 0) {
+                lit++;
+                if (indirect[p.x][p.y]) {
+                    indirects++;
+                }
+                double dist = FOV.radius(x, y, p.x, p.y);
+                light = Math.max(light, lightMap[p.x][p.y] - dist * decay - map[p.x][p.y]);
+            }
+        }
+
+        if (map[x][y] >= 1 || indirects >= lit) {
+            indirect[x][y] = true;
+        }
+        return light;
+    }
+
+    @Test
+    public void testRippleMatchesOld()
+    {
+        RNG rng = new RNG("Ripple");
+        int width = 50, height = 45;
+        double[][] res = resistance(rng, 0.2, width, height), light = new double[width][height],
+                expected = new double[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if(res[x][y] == 0.0 && rng.nextInt(10) == 0) res[x][y] = 0.3;
+            }
+        }
+        RippleFOV ripple = new RippleFOV();
+        for (int i = 0; i < 30; i++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height), looseness = 1 + i % 6;
+            double radius = 2 + rng.nextInt(12);
+            FOV.fill(expected, 0.0);
+            expected[x][y] = Math.min(1.0, radius);
+            doRippleFOV(expected, looseness, x, y, x, y, 1.0 / radius, radius, res, new boolean[width][height]);
+            Assert.assertArrayEquals(expected, ripple.reuseFOV(res, light, looseness, x, y, radius));
+        }
+        Assert.assertArrayEquals(ripple.reuseFOV(res, light, 3, 20, 20, 9.0, 90.0, 120.0),
+                FOV.reuseRippleFOV(res, expected, 3, 20, 20, 9.0, 90.0, 120.0));
+        Assert.assertEquals(0.0, light[20][10], 0.0);
+        Assert.assertTrue(light[20][21] > 0.0);
+    }
+
+    @Test
+    public void testSymmetricFOV()
+    {
+        RNG rng = new RNG("Mirror");
+        int width = 36, height = 30;
+        double radius = 9.5;
+        double[][] res = resistance(rng, 0.25, width, height);
+        double[][][] lights = new double[width * height][][];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if(res[x][y] < 1.0)
+                    lights[x * height + y] = FOV.reuseFOVSymmetric(res, new double[width][height], x, y, radius);
+            }
+        }
+        for (int a = 0; a < lights.length; a++) {
+            if(lights[a] == null) continue;
+            for (int b = a + 1; b < lights.length; b++) {
+                if(lights[b] == null) continue;
+                Assert.assertEquals(lights[a][b / height][b % height] > 0.0, lights[b][a / height][a % height] > 0.0);
+            }
+        }
+        double[][] open = new double[width][height];
+        Assert.assertArrayEquals(FOV.reuseFOV(open, new double[width][height], 5, 7, radius),
+                FOV.reuseFOVSymmetric(open, new double[width][height], 5, 7, radius));
+    }
+
+    @Test
+    public void testLightAccumulator()
+    {
+        RNG rng = new RNG("Lamps");
+        int width = 64, height = 48, count = 40;
+        double[][] res = resistance(rng, 0.2, width, height);
+        int[] xs = new int[count], ys = new int[count];
+        double[] radii = new double[count], colors = new double[count * 3];
+        double[][][] maps = new double[count][][], reds = new double[count][width][height];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rng.nextInt(width);
+            ys[i] = rng.nextInt(height);
+            radii[i] = 1.5 + rng.nextInt(9);
+            colors[i * 3] = rng.nextDouble();
+            colors[i * 3 + 1] = rng.nextDouble();
+            colors[i * 3 + 2] = rng.nextDouble();
+            maps[i] = FOV.reuseFOV(res, new double[width][height], xs[i], ys[i], radii[i]);
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    reds[i][x][y] = maps[i][x][y] * colors[i * 3];
+                }
+            }
+        }
+        LightAccumulator plain = new LightAccumulator(res, 1).addAll(xs, ys, radii, null);
+        Assert.assertArrayEquals(FOV.addFOVs(maps), plain.channel(0, null));
+        double[][] los = FOV.reuseLOS(res, new double[width][height], xs[0], ys[0]);
+        Assert.assertArrayEquals(FOV.mixVisibleFOVs(los, maps), plain.channel(0, null, los));
+
+        LightAccumulator colored = new LightAccumulator(res, 3).addAll(xs, ys, radii, colors);
+        double[][] expected = FOV.addFOVs(reds), actual = colored.channel(0, null);
+        for (int x = 0; x < width; x++) {
+            Assert.assertArrayEquals(expected[x], actual[x], 1e-12);
+        }
+        LightAccumulator parallel = new LightAccumulator(res, 3)
+                .addAllParallel(FOVBatch.sharedPool(), xs, ys, radii, colors);
+        Assert.assertArrayEquals(colored.sums, parallel.sums, 1e-9);
+    }
+
+    @Test
+    public void testTableMatchesFOV()
+    {
+        RNG rng = new RNG("Tables");
+        int width = 50, height = 40;
+        double[][] res = resistance(rng, 0.25, width, height), light = new double[width][height],
+                expected = new double[width][height];
+        for (int i = 0; i < 30; i++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height);
+            double radius = 0.5 + rng.nextInt(16) * 0.75, angle = rng.nextInt(360), span = rng.nextInt(200);
+            FOVTable table = FOVTable.get(radius);
+            Assert.assertArrayEquals(FOV.reuseFOV(res, expected, x, y, radius), FOV.reuseFOV(res, light, x, y, table));
+            Assert.assertArrayEquals(FOV.reuseFOV(res, expected, x, y, radius, angle, span),
+                    FOV.reuseFOV(res, light, x, y, table, angle, span));
+        }
+        Assert.assertSame(FOVTable.get(3.0), FOVTable.get(3.0));
+    }
+
+    /**
+     * The recursive shadowCast that FOV used before it switched to an explicit stack, kept to check they match.
+     */
+    private static void recursiveShadowCast(int row, double start, double end, int xx, int xy, int yx, int yy,
+                                            double radius, int startX, int startY, double decay, double[][] lightMap,
+                                            double[][] map) {
+        double newStart = 0;
+        if (start < end) {
+            return;
+        }
+        int width = lightMap.length, height = lightMap[0].length;
+        boolean blocked = false;
+        for (int distance = row; distance <= radius && distance < width + height && !blocked; distance++) {
+            int deltaY = -distance;
+            for (int deltaX = -distance; deltaX <= 0; deltaX++) {
+                int currentX = startX + deltaX * xx + deltaY * xy;
+                int currentY = startY + deltaX * yx + deltaY * yy;
+                double leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
+                double rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+
+                if (!(currentX >= 0 && currentY >= 0 && currentX < width && currentY < height) || start < rightSlope) {
+                    continue;
+                } else if (end > leftSlope) {
+                    break;
+                }
+                double deltaRadius = FOV.radius(deltaX, deltaY);
+                if (deltaRadius <= radius) {
+                    lightMap[currentX][currentY] = 1.0 - decay * deltaRadius;
+                }
+
+                if (blocked) {
+                    if (map[currentX][currentY] >= 1) {
+                        newStart = rightSlope;
+                    } else {
+                        blocked = false;
+                        start = newStart;
+                    }
+                } else {
+                    if (map[currentX][currentY] >= 1 && distance < radius) {
+                        blocked = true;
+                        recursiveShadowCast(distance + 1, start, leftSlope, xx, xy, yx, yy, radius, startX, startY,
+                                decay, lightMap, map);
+                        newStart = rightSlope;
+                    }
+                }
+            }
+        }
+    }
+
+    private static double[][] recursiveFOV(double[][] res, double[][] light, int x, int y, double radius)
+    {
+        final int[] octants = {0, 1, 1, 0,  1, 0, 0, 1,  0, 1, -1, 0,  1, 0, 0, -1,
+                0, -1, -1, 0,  -1, 0, 0, -1,  0, -1, 1, 0,  -1, 0, 0, 1};
+        FOV.fill(light, 0.0);
+        light[x][y] = Math.min(1.0, radius);
+        for (int i = 0; i < 32; i += 4) {
+            recursiveShadowCast(1, 1.0, 0.0, octants[i], octants[i+1], octants[i+2], octants[i+3], radius, x, y,
+                    1.0 / radius, light, res);
+        }
+        return light;
+    }
+
+    @Test
+    public void testStackMatchesRecursive()
+    {
+        RNG rng = new RNG("Stacks");
+        int width = 70, height = 50;
+        double[][] res = resistance(rng, 0.3, width, height), light = new double[width][height],
+                expected = new double[width][height];
+        for (int i = 0; i < 40; i++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height);
+            double radius = 1.5 + rng.nextInt(30);
+            Assert.assertArrayEquals(recursiveFOV(res, expected, x, y, radius),
+                    FOV.reuseFOV(res, light, x, y, radius));
+        }
+        // a huge open map with scattered pillars makes many deep, narrow intervals
+        width = height = 1200;
+        res = new double[width][height];
+        for (int i = 0; i < 4000; i++) {
+            res[rng.nextInt(width)][rng.nextInt(height)] = 1.0;
+        }
+        light = FOV.reuseLOS(res, new double[width][height], width >> 1, height >> 1);
+        expected = recursiveFOV(res, new double[width][height], width >> 1, height >> 1, width + height);
+        byte[] bytes = FlatFOV.reuseLOS(FlatFOV.flatten(res, (float[]) null), new byte[width * height], width, height,
+                width >> 1, height >> 1);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                Assert.assertEquals(expected[x][y] > 0.0, light[x][y] > 0.0);
+                Assert.assertEquals(expected[x][y] > 0.0, bytes[y * width + x] != 0);
+            }
+        }
+    }
+
+    @Test
+    public void testVisibilityIndex()
+    {
+        RNG rng = new RNG("Index");
+        int width = 30, height = 25;
+        double[][] res = resistance(rng, 0.3, width, height), light = new double[width][height];
+        VisibilityIndex index = new VisibilityIndex(res), parallel = VisibilityIndex.build(FOVBatch.sharedPool(), res),
+                loaded = VisibilityIndex.fromBytes(index.toBytes(), 0);
+        Assert.assertEquals(index.uniqueSets(), parallel.uniqueSets());
+        Region visible = new Region(1, 1), expected = new Region(width, height);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                FOV.reuseLOS(res, light, x, y);
+                for (int tx = 0; tx < width; tx++) {
+                    for (int ty = 0; ty < height; ty++) {
+                        boolean lit = light[tx][ty] > 0.0;
+                        Assert.assertEquals(lit, index.canSee(x, y, tx, ty));
+                        Assert.assertEquals(lit, parallel.canSee(x, y, tx, ty));
+                        Assert.assertEquals(lit, loaded.canSee(x, y, tx, ty));
+                    }
+                }
+                expected.refill(light, 0.0001, Double.POSITIVE_INFINITY);
+                Assert.assertEquals(expected, index.visible(x, y, visible));
+                Assert.assertEquals(expected.size(), loaded.visibleCount(x, y));
+            }
+        }
+        Assert.assertFalse(index.canSee(0, 0, -1, 0));
+        // a tall map, so windows start and end partway through words
+        width = 12;
+        height = 150;
+        res = resistance(rng, 0.1, width, height);
+        light = new double[width][height];
+        index = new VisibilityIndex(res);
+        expected = new Region(width, height);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                expected.refill(FOV.reuseLOS(res, light, x, y), 0.0001, Double.POSITIVE_INFINITY);
+                Assert.assertEquals(expected, index.visible(x, y, visible));
+            }
+        }
+        // every cell in an open room sees the whole room, so it only needs one stored set
+        Assert.assertEquals(1, new VisibilityIndex(new double[width][height]).uniqueSets());
+    }
+
+    @Test
+    public void testConeMatchesMaskedFOV()
+    {
+        RNG rng = new RNG("Cones");
+        int width = 60, height = 50;
+        double[][] res = resistance(rng, 0.2, width, height), full = new double[width][height],
+                cone = new double[width][height], table = new double[width][height],
+                narrow = new double[width][height];
+        int same = 0, total = 0;
+        for (int i = 0; i < 400; i++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height);
+            double radius = 2.5 + rng.nextInt(25), angle = (i & 1) == 0 ? rng.nextInt(8) * 45.0 : rng.nextDouble(720.0) - 360.0,
+                    span = (i & 2) == 0 ? rng.nextInt(9) * 45.0 : rng.nextDouble(380.0);
+            FOV.reuseFOV(res, full, x, y, radius);
+            FOV.reuseFOV(res, cone, x, y, radius, angle, span);
+            FOV.reuseFOV(res, table, x, y, FOVTable.get(radius), angle, span);
+            FOV.reuseFOVCone(res, narrow, x, y, radius, angle, span);
+            double turn = ((angle % 360.0) + 360.0) % 360.0 / 360.0, half = span / 720.0;
+            for (int cx = 0; cx < width; cx++) {
+                for (int cy = 0; cy < height; cy++) {
+                    double at2 = Math.abs(turn - FOV.atan2_(cy - y, cx - x));
+                    double expected = (cx == x && cy == y) || at2 <= half || at2 >= 1.0 - half ? full[cx][cy] : 0.0;
+                    Assert.assertEquals(expected, cone[cx][cy], 0.0);
+                    Assert.assertEquals(expected, table[cx][cy], 0.0);
+                    // the narrowed cast can only differ at the edges of the cone, and where it lights a cell, the
+                    // light is the same
+                    Assert.assertTrue(narrow[cx][cy] == expected || narrow[cx][cy] == 0.0 || expected == 0.0);
+                    if(expected > 0.0 || narrow[cx][cy] > 0.0) {
+                        ++total;
+                        if(narrow[cx][cy] == expected) ++same;
+                    }
+                }
+            }
+        }
+        Assert.assertTrue(same > total * 0.99);
+    }
+
+    @Test
+    public void testPropagationField()
+    {
+        int width = 40, height = 30, cx = 20, cy = 15;
+        double[][] res = new double[width][height], field = new double[width][height];
+        PropagationField prop = new PropagationField();
+        prop.spread(res, field, cx, cy, 10.0);
+        Assert.assertEquals(1.0, field[cx][cy], 0.0);
+        Assert.assertEquals(0.7, field[cx + 3][cy], 1e-9);
+        Assert.assertEquals(1.0 - 3 * 362 / 2560.0, field[cx - 3][cy - 3], 1e-9);
+        Assert.assertEquals(0.0, field[cx + 10][cy], 0.0);
+        // a wall with a gap at one end; sound goes around it, so the cell behind it is quieter but still reached
+        for (int y = 5; y < height; y++) {
+            res[cx + 2][y] = 1.0;
+        }
+        prop.spread(res, field, cx, cy, 30.0);
+        Assert.assertTrue(field[cx + 2][cy] > field[cx + 3][cy]);
+        Assert.assertTrue(field[cx + 3][cy] > 0.0);
+        Assert.assertTrue(field[cx + 3][cy] < 1.0 - 3 / 30.0);
+        // translucent cells take resistance * radius away from the distance left
+        res = new double[width][height];
+        res[cx + 1][cy] = 0.25;
+        double[][] open = new double[width][height];
+        prop.spread(res, field, cx, cy, 10.0);
+        Assert.assertEquals(1.0 - 0.1, field[cx + 1][cy], 1e-9);
+        // going around the translucent cell is shorter than going through it
+        Assert.assertEquals(1.0 - 2 * 362 / 2560.0, field[cx + 2][cy], 1e-9);
+
+        // many sources in one pass give the highest value any single source would
+        RNG rng = new RNG("Sound");
+        res = resistance(rng, 0.2, width, height);
+        for (int i = 0; i < 30; i++) {
+            res[rng.nextInt(width)][rng.nextInt(height)] = 0.1 * rng.nextInt(10);
+        }
+        int[] xs = new int[5], ys = new int[5];
+        double[] strengths = new double[5];
+        double[][] expected = new double[width][height];
+        for (int i = 0; i < 5; i++) {
+            xs[i] = rng.nextInt(width);
+            ys[i] = rng.nextInt(height);
+            strengths[i] = 0.5 + 0.1 * i;
+        }
+        prop.spread(res, field, xs, ys, strengths, 12.0);
+        for (int i = 0; i < 5; i++) {
+            new PropagationField().spread(res, open, new int[]{xs[i]}, new int[]{ys[i]}, new double[]{strengths[i]}, 12.0);
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    expected[x][y] = Math.max(expected[x][y], open[x][y]);
+                }
+            }
+        }
+        // source strengths are rounded to the nearest 1/256 of a cell of distance
+        for (int x = 0; x < width; x++) {
+            Assert.assertArrayEquals(expected[x], field[x], 0.5 / (12.0 * 256.0) + 1e-9);
+        }
+    }
+
+    @Test
+    public void testHierarchicalFOV()
+    {
+        RNG rng = new RNG("Towers");
+        int width = 200, height = 160;
+        double[][] res = new double[width][height], light = new double[width][height],
+                expected = new double[width][height];
+        // with no walls, every sector is clear and lit directly
+        HierarchicalFOV open = new HierarchicalFOV(res);
+        for (int i = 0; i < 10; i++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height);
+            FOV.reuseLOS(res, expected, x, y);
+            open.reuseLOS(light, x, y);
+            for (int j = 0; j < width; j++) {
+                Assert.assertArrayEquals(expected[j], light[j], 0.0);
+            }
+            FOV.reuseFOV(res, expected, x, y, 70.0);
+            open.reuseFOV(light, x, y, 70.0);
+            for (int j = 0; j < width; j++) {
+                Assert.assertArrayEquals(expected[j], light[j], 0.0);
+            }
+        }
+        // a few scattered walls and some buildings
+        res = resistance(rng, 0.002, width, height);
+        for (int i = 0; i < 12; i++) {
+            int bx = rng.nextInt(width - 10), by = rng.nextInt(height - 10);
+            for (int x = bx; x < bx + 8; x++) {
+                for (int y = by; y < by + 8; y++) {
+                    res[x][y] = 1.0;
+                }
+            }
+        }
+        // one sector per octant is the same cast as FOV, only started past the clear rows
+        HierarchicalFOV whole = new HierarchicalFOV(res, 1), split = new HierarchicalFOV(res);
+        for (int i = 0; i < 10; i++) {
+            int x = rng.nextInt(width), y = rng.nextInt(height);
+            Assert.assertArrayEquals(new int[]{0, 0, 0}, Arrays.copyOf(whole.compareLOS(x, y), 3));
+            Assert.assertArrayEquals(new int[]{0, 0, 0}, Arrays.copyOf(whole.compareFOV(x, y, 50.0), 3));
+            int[] los = split.compareLOS(x, y), fov = split.compareFOV(x, y, 50.0);
+            Assert.assertTrue(los[0] + los[1] + los[2] <= los[3] / 100);
+            Assert.assertTrue(fov[0] + fov[1] + fov[2] <= fov[3] / 100);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+import jagd.ChunkedRegion;
+import jagd.LazyRegion;
+import jagd.RNG;
+import jagd.Region;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RegionTest {
+    @Test
+    public void testLazyMatchesEager()
+    {
+        RNG rng = new RNG("Lazy");
+        for (int height : new int[]{64, 40, 17}) {
+            Region floors = new Region(rng, 0.6, 70, height), walls = new Region(rng, 0.2, 70, height);
+
+            Region eager = floors.copy().retract8way().flood(floors, 2).andNot(walls)
+                    .and(walls.copy().fringe());
+            Region lazy = floors.lazy().retract8way().flood(floors, 2).andNot(walls)
+                    .and(walls.lazy().fringe()).evaluate();
+            Assert.assertEquals(eager, lazy);
+
+            eager = floors.copy().expand8way().xor(walls.copy().not()).surface();
+            lazy = floors.lazy().expand8way().xor(walls.lazy().not()).surface().evaluate();
+            Assert.assertEquals(eager, lazy);
+
+            eager = floors.copy().neighborUpLeft().or(floors.copy().neighborDownRight());
+            lazy = floors.lazy().neighborUpLeft().or(floors.lazy().neighborDownRight()).evaluate();
+            eager.and(new Region(70, height).allOn());
+            Assert.assertEquals(eager, lazy);
+        }
+    }
+
+    @Test
+    public void testLazyMultipleSections()
+    {
+        RNG rng = new RNG("Tall");
+        Region floors = new Region(rng, 0.7, 33, 150), walls = new Region(rng, 0.15, 33, 150);
+        Region eager = floors.copy().retract().retract8way().xor(walls).andNot(floors.copy().retract(2));
+        Region lazy = floors.lazy().retract().retract8way().xor(walls).andNot(floors.lazy().retract(2)).evaluate();
+        Assert.assertEquals(eager, lazy);
+
+        eager = floors.copy().neighborDown().and(walls.copy().neighborLeft()).not();
+        lazy = floors.lazy().neighborDown().and(walls.lazy().neighborLeft()).not().evaluate();
+        Assert.assertEquals(eager, lazy);
+    }
+
+    @Test
+    public void testLazyIntoLeaf()
+    {
+        RNG rng = new RNG("Alias");
+        Region floors = new Region(rng, 0.55, 90, 90);
+        Region expected = floors.copy().retract().expand8way().andNot(floors.copy().neighborRight());
+        LazyRegion shared = floors.lazy();
+        shared.retract().expand8way().andNot(shared.neighborRight()).into(floors);
+        Assert.assertEquals(expected, floors);
+    }
+
+    @Test
+    public void testDiffAndPatch()
+    {
+        RNG rng = new RNG("Fog");
+        Region old = new Region(rng, 0.4, 100, 130), next = old.copy();
+        next.insertCircle(20, 30, 5).removeRectangle(60, 70, 8, 40).insert(99, 129);
+        int[] indices = new int[400];
+        long[] words = new long[400];
+        int count = next.changedWords(old, indices, words);
+        Assert.assertTrue(count > 0 && count <= 400);
+        Assert.assertEquals(next, old.copy().patch(indices, words, count));
+        Assert.assertEquals(0, next.changedWords(next.copy(), indices, words));
+
+        long[] delta = new long[4];
+        int length = next.deltaFrom(old, delta);
+        Assert.assertTrue(length < 0);
+        delta = new long[-length];
+        Assert.assertEquals(-length, next.deltaFrom(old, delta));
+        Assert.assertEquals(next, old.copy().applyDelta(delta, delta.length));
+        Assert.assertEquals(0, old.deltaFrom(old.copy(), delta));
+
+        Region other = new Region(100, 131);
+        try {
+            next.changedWords(other, indices, words);
+            Assert.fail("changedWords() should reject a Region of another size");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            next.deltaFrom(other, delta);
+            Assert.fail("deltaFrom() should reject a Region of another size");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testRunLengthCodec()
+    {
+        RNG rng = new RNG("Runs");
+        int[][] sizes = {{1, 1}, {64, 64}, {70, 130}, {3, 40000}, {200, 17}};
+        for (int[] size : sizes) {
+            Region region = new Region(rng, 0.3, size[0], size[1]).expand8way();
+            Assert.assertEquals(region, Region.fromRuns(region.toRunBytes(), 0));
+            Assert.assertEquals(region, Region.fromRuns(region.toRunString()));
+            char[] chars = new char[8];
+            int length = region.toRuns(chars, 2);
+            if(length < 0) {
+                chars = new char[2 - length];
+                Assert.assertEquals(-length, region.toRuns(chars, 2));
+            }
+            Region reused = new Region(size[0], size[1]).allOn();
+            Assert.assertEquals(region, reused.refillRuns(chars, 2));
+        }
+        Region empty = new Region(300, 300), full = new Region(300, 300).allOn();
+        Assert.assertTrue(empty.toRunBytes().length < 10);
+        Assert.assertTrue(full.toRunBytes().length < 10);
+        Assert.assertEquals(full, Region.fromRuns(full.toRunBytes(), 0));
+    }
+
+    private static boolean[][] step(boolean[][] grid, boolean eight, boolean grow, boolean[][] bounds)
+    {
+        int w = grid.length, h = grid[0].length;
+        boolean[][] next = new boolean[w][h];
+        for (int x = 0; x < w; x++) {
+            for (int y = 0; y < h; y++) {
+                boolean result = grid[x][y];
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        if((dx != 0 && dy != 0 && !eight) || (dx == 0 && dy == 0)) continue;
+                        boolean n = x + dx >= 0 && x + dx < w && y + dy >= 0 && y + dy < h && grid[x + dx][y + dy];
+                        result = grow ? result || n : result && n;
+                    }
+                }
+                next[x][y] = result && (bounds == null || bounds[x][y]);
+            }
+        }
+        return next;
+    }
+
+    private static void assertChunks(boolean[][] grid, ChunkedRegion chunked, int startX, int startY)
+    {
+        Region region = chunked.intoRegion(null, startX, startY, grid.length, grid[0].length);
+        Assert.assertEquals(new Region(grid), region);
+        Assert.assertEquals(region.size(), chunked.size());
+    }
+
+    @Test
+    public void testChunkedRegion()
+    {
+        RNG rng = new RNG("Chunks");
+        Region initial = new Region(rng, 0.5, 192, 128), bounds = new Region(rng, 0.6, 192, 128);
+        ChunkedRegion chunked = new ChunkedRegion(), chunkedBounds = new ChunkedRegion();
+        for (int x = 0; x < 192; x++) {
+            for (int y = 0; y < 128; y++) {
+                chunkedBounds.load((x - 64) >> 6, (y - 64) >> 6);
+                chunked.load((x - 64) >> 6, (y - 64) >> 6);
+                if(initial.contains(x, y)) chunked.insert(x - 64, y - 64);
+                if(bounds.contains(x, y)) chunkedBounds.insert(x - 64, y - 64);
+            }
+        }
+        Assert.assertEquals(6, chunked.chunkCount());
+        boolean[][] grid = initial.decode(), limits = bounds.decode();
+        assertChunks(grid, chunked, -64, -64);
+        // a window that starts partway into a chunk and reaches past the loaded chunks
+        Region window = chunked.intoRegion(null, -51, -27, 170, 130);
+        for (int x = 0; x < 170; x++) {
+            for (int y = 0; y < 130; y++) {
+                Assert.assertEquals(y + 37 < 128 && grid[x + 13][y + 37], window.contains(x, y));
+            }
+        }
+        grid = step(grid, false, false, null);
+        assertChunks(grid, chunked.retract(), -64, -64);
+        grid = step(step(grid, true, true, null), false, true, null);
+        assertChunks(grid, chunked.expand8way().expand(), -64, -64);
+        grid = step(grid, true, false, null);
+        assertChunks(grid, chunked.retract8way(), -64, -64);
+        grid = step(step(grid, true, true, limits), false, true, limits);
+        assertChunks(grid, chunked.flood8way(chunkedBounds).flood(chunkedBounds), -64, -64);
+        Region before = new Region(grid);
+        grid = step(grid, true, true, null);
+        Region fringe = new Region(grid).andNot(before);
+        Assert.assertEquals(fringe, chunked.fringe8way().intoRegion(null, -64, -64, 192, 128));
+    }
+
+    @Test
+    public void testChunkedEviction()
+    {
+        final int[] evicted = new int[3];
+        ChunkedRegion chunked = new ChunkedRegion(2, new ChunkedRegion.IChunkEvictor() {
+            @Override
+            public void evict(int chunkX, int chunkY, Region chunk) {
+                evicted[0]++;
+                evicted[1] = chunkX;
+                evicted[2] = chunkY;
+            }
+        });
+        chunked.insert(5, 5).insert(-70, 3).insert(200, -1);
+        Assert.assertEquals(2, chunked.chunkCount());
+        Assert.assertArrayEquals(new int[]{1, 0, 0}, evicted);
+        Assert.assertFalse(chunked.contains(5, 5));
+        // reading a cell doesn't count as a use, so this doesn't save the coldest chunk from eviction
+        Assert.assertTrue(chunked.contains(-70, 3));
+        Assert.assertEquals(-2, chunked.chunkXAt(0));
+        Assert.assertNotNull(chunked.chunk(-2, 0));
+        chunked.insert(0, 0);
+        Assert.assertArrayEquals(new int[]{2, 3, -1}, evicted);
+        Assert.assertTrue(chunked.contains(-70, 3) && chunked.contains(0, 0));
+        Assert.assertFalse(chunked.contains(200, -1));
+        Assert.assertNull(chunked.chunk(3, -1));
+    }
+
+    // the cell-by-section implementations that connect(), connect8way(), and connectLines() used to have
+    private static long[] oldConnect(Region region)
+    {
+        final long[] data = region.data;
+        final int width = region.width, ySections = region.height + 63 >> 6;
+        final long yEndMask = -1L >>> (64 - (region.height & 63));
+
+        final long[] next = new long[width * ySections];
+        System.arraycopy(data, 0, next, 0, width * ySections);
+        for (int a = 0; a < ySections; a++) {
+            next[a] |= ((data[a] << 1) & (data[a] >>> 1)) | data[a+ySections];
+            next[(width-1)*ySections+a] |= ((data[(width-1)*ySections+a] << 1) & (data[(width-1)*ySections+a] >>> 1)) | data[(width-2) *ySections+a];
+
+            for (int i = ySections+a; i < (width - 1) * ySections; i+= ySections) {
+                next[i] |= ((data[i] << 1) & (data[i] >>> 1)) | (data[i - ySections] & data[i + ySections]);
+            }
+
+            if(a > 0) {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= (data[i - 1] & 0x8000000000000000L) >>> 63 & (data[i] >>> 1);
+                }
+            }
+            else
+            {
+                for (int i = ySections; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= (data[i] >>> 1 & 1L);
+                }
+            }
+
+            if(a < ySections - 1) {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= (data[i + 1] & 1L) << 63 & (data[i] << 1);
+                }
+            }
+            else
+            {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= (data[i] << 1 & 0x8000000000000000L);
+                }
+
+            }
+        }
+
+        if(ySections > 0 && yEndMask != -1) {
+            for (int a = ySections - 1; a < next.length; a += ySections) {
+                next[a] &= yEndMask;
+            }
+        }
+        return next;
+    }
+
+    private static long[] oldConnect8way(Region region)
+    {
+        final long[] data = region.data;
+        final int width = region.width, ySections = region.height + 63 >> 6;
+        final long yEndMask = -1L >>> (64 - (region.height & 63));
+
+        final long[] next = new long[width * ySections];
+        System.arraycopy(data, 0, next, 0, width * ySections);
+        for (int a = 0; a < ySections; a++) {
+            next[a] |= ((data[a] << 1) & (data[a] >>> 1)) | data[a+ySections] | (data[a+ySections] << 1) | (data[a+ySections] >>> 1);
+            next[(width-1)*ySections+a] |= ((data[(width-1)*ySections+a] << 1) & (data[(width-1)*ySections+a] >>> 1))
+                    | data[(width-2) *ySections+a] | (data[(width-2)*ySections+a] << 1) | (data[(width-2)*ySections+a] >>> 1);
+
+            for (int i = ySections+a; i < (width - 1) * ySections; i+= ySections) {
+                next[i] |= ((data[i] << 1) & (data[i] >>> 1)) | (data[i - ySections] & data[i + ySections])
+                        | ((data[i - ySections] << 1) & (data[i + ySections] >>> 1))
+                        | ((data[i + ySections] << 1) & (data[i - ySections] >>> 1));
+            }
+
+            if(a > 0) {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= ((data[i - 1] & 0x8000000000000000L) >>> 63 & (data[i] >>> 1)) |
+                            ((data[i - ySections - 1] & 0x8000000000000000L) >>> 63 & (data[i + ySections] >>> 1)) |
+                            ((data[i + ySections - 1] & 0x8000000000000000L) >>> 63 & (data[i - ySections] >>> 1));
+                }
+            }
+            else
+            {
+                for (int i = ySections; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= (data[i] >>> 1 & 1L) | (data[i - ySections] >>> 1 & 1L) | (data[i + ySections] >>> 1 & 1L);
+                }
+            }
+
+            if(a < ySections - 1) {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= ((data[i + 1] & 1L) << 63 & (data[i] << 1)) |
+                            ((data[i - ySections + 1] & 1L) << 63 & (data[i + ySections] << 1)) |
+                            ((data[i + ySections + 1] & 1L) << 63 & (data[i - ySections] << 1)) ;
+                }
+            }
+            else
+            {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= (data[i] << 1 & 0x8000000000000000L)
+                            | (data[i - ySections] << 1 & 0x8000000000000000L) | (data[i + ySections] << 1 & 0x8000000000000000L);
+                }
+
+            }
+        }
+
+        if(ySections > 0 && yEndMask != -1) {
+            for (int a = ySections - 1; a < next.length; a += ySections) {
+                next[a] &= yEndMask;
+            }
+        }
+        return next;
+    }
+
+    private static long[] oldConnectLines(Region region)
+    {
+        final long[] data = region.data;
+        final int width = region.width, ySections = region.height + 63 >> 6;
+        final long yEndMask = -1L >>> (64 - (region.height & 63));
+
+        final long[] next = new long[width * ySections];
+        System.arraycopy(data, 0, next, 0, width * ySections);
+        for (int a = 0; a < ySections; a++) {
+            next[a] |= ((data[a] << 1) & (data[a] >>> 1)) | data[a+ySections] | (data[a+ySections] << 1) | (data[a+ySections] >>> 1);
+            next[(width-1)*ySections+a] |= ((data[(width-1)*ySections+a] << 1) & (data[(width-1)*ySections+a] >>> 1))
+                    | data[(width-2) *ySections+a] | (data[(width-2)*ySections+a] << 1) | (data[(width-2)*ySections+a] >>> 1);
+
+            for (int i = ySections+a; i < (width - 1) * ySections; i+= ySections) {
+                next[i] |= ((data[i] << 1) & (data[i] >>> 1)) | (data[i - ySections] & data[i + ySections])
+                        | (((data[i - ySections] << 1) & (data[i + ySections] >>> 1))
+                           ^ ((data[i + ySections] << 1) & (data[i - ySections] >>> 1)));
+            }
+
+            if(a > 0) {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= ((data[i - 1] & 0x8000000000000000L) >>> 63 & (data[i] >>> 1))
+                            | (((data[i - ySections - 1] & 0x8000000000000000L) >>> 63 & (data[i + ySections] >>> 1))
+                               ^ ((data[i + ySections - 1] & 0x8000000000000000L) >>> 63 & (data[i - ySections] >>> 1)));
+                }
+            }
+            else
+            {
+                for (int i = ySections; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= (data[i] >>> 1 & 1L) | (data[i - ySections] >>> 1 & 1L) | (data[i + ySections] >>> 1 & 1L);
+                }
+            }
+
+            if(a < ySections - 1) {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= ((data[i + 1] & 1L) << 63 & (data[i] << 1))
+                            | (((data[i - ySections + 1] & 1L) << 63 & (data[i + ySections] << 1))
+                               ^ ((data[i + ySections + 1] & 1L) << 63 & (data[i - ySections] << 1)));
+                }
+            }
+            else
+            {
+                for (int i = ySections+a; i < (width-1) * ySections; i+= ySections) {
+                    next[i] |= (data[i] << 1 & 0x8000000000000000L)
+                            | (data[i - ySections] << 1 & 0x8000000000000000L) | (data[i + ySections] << 1 & 0x8000000000000000L);
+                }
+
+            }
+        }
+
+        if(ySections > 0 && yEndMask != -1) {
+            for (int a = ySections - 1; a < next.length; a += ySections) {
+                next[a] &= yEndMask;
+            }
+        }
+        return next;
+    }
+
+    @Test
+    public void testConnectMatchesOld()
+    {
+        RNG rng = new RNG("Connect");
+        int[][] sizes = {{2, 1}, {3, 64}, {70, 130}, {40, 17}, {65, 128}, {9, 200}};
+        for (int[] size : sizes) {
+            for (double fraction : new double[]{0.1, 0.35, 0.6}) {
+                Region region = new Region(rng, fraction, size[0], size[1]);
+                Assert.assertArrayEquals(oldConnect(region), region.copy().connect().data);
+                Assert.assertArrayEquals(oldConnect8way(region), region.copy().connect8way().data);
+                Assert.assertArrayEquals(oldConnectLines(region), region.copy().connectLines().data);
+            }
+        }
+    }
+
+    @Test
+    public void testTranspose()
+    {
+        RNG rng = new RNG("Transpose");
+        for (int[] size : new int[][]{{1, 1}, {63, 65}, {130, 70}, {64, 200}}) {
+            Region r = new Region(rng, 0.5, size[0], size[1]), t = r.transpose(new Region(1, 1));
+            Assert.assertEquals(size[1], t.width);
+            Assert.assertEquals(size[0], t.height);
+            for (int x = 0; x < size[0]; x++) {
+                for (int y = 0; y < size[1]; y++) {
+                    Assert.assertEquals(r.contains(x, y), t.contains(y, x));
+                }
+            }
+            Assert.assertEquals(r, t.transpose(new Region(size[0], size[1])));
+            Region other = new Region(rng, 0.5, size[0], size[1]);
+            Assert.assertEquals(other.copy().or(r), other.orTranspose(t));
+        }
+    }
+}
@@ -1,54 +1,184 @@
 import jagd.MimicWFC;
+import jagd.MimicWFCRunner;
 import jagd.RNG;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by Tommy Ettinger on 3/28/2018.
  */
 public class WFCTest {
-    public static void main(String[] args)
+    static final char[][] DUNGEON = new char[][]{
+            "                                  ".toCharArray(),
+            "    ┌───────┐ ┌─────┐ ┌────────┐  ".toCharArray(),
+            "  ┌─┤.......│ │.....└─┤........│  ".toCharArray(),
+            "  │.└┐......│┌┴───....│........│  ".toCharArray(),
+            "  │..├───┐..││.................│  ".toCharArray(),
+            "  │..│   │..││.................├─┐".toCharArray(),
+            "  │..└┐┌─┘..││....┌┐.....──────┘.│".toCharArray(),
+            "  │...└┘....││..──┤│.............│".toCharArray(),
+            "  │.........││....└┼─┐..........┌┘".toCharArray(),
+            "  └┐.....┌──┘│.....└┐└┬────────┬┘ ".toCharArray(),
+            "   │.....│   │......│ │........│  ".toCharArray(),
+            "   ├─...┌┘  ┌┴─..┌──┴─┘........│  ".toCharArray(),
+            "   │....│   │....│.............└─┐".toCharArray(),
+            "  ┌┘...┌┘   │....│...............│".toCharArray(),
+            "  │....└─┐  │..┌─┴────...........│".toCharArray(),
+            "  │......└┐ │..│...............─.│".toCharArray(),
+            "  │.......└─┘..│.................│".toCharArray(),
+            "  │..┌┐...........┌───...........│".toCharArray(),
+            "  └──┘└─┐.........│............┌─┘".toCharArray(),
+            "        └───┐..│..│............│  ".toCharArray(),
+            "      ┌────┐└┬─┘..└┬───┐......┌┘  ".toCharArray(),
+            "   ┌──┘....│┌┘.....└─┐┌┘..─┬──┘   ".toCharArray(),
+            "  ┌┘.......││........├┘....└┐     ".toCharArray(),
+            "  │........├┘........│......└┐    ".toCharArray(),
+            "  │........│...─┐....│.......└┐   ".toCharArray(),
+            "  └┐....│..│....│....│........│   ".toCharArray(),
+            "   └─┬──┘.......│..──┘..┌┐....│   ".toCharArray(),
+            "     │..........│.......││....│   ".toCharArray(),
+            "    ┌┘.....│....│......┌┘│...┌┘   ".toCharArray(),
+            "    │......├────┤..──┬─┘ │...│    ".toCharArray(),
+            "    │.....┌┘    │....│ ┌─┘..─┤    ".toCharArray(),
+            "    └──┐..│     │....│ │.....│    ".toCharArray(),
+            "       └──┘     └────┘ └─────┘    ".toCharArray(),
+    };
+
+    static int[][] sample()
     {
-        RNG random = new RNG(1337);
         int[][] grid = new int[32][32];
-        char[][] dungeon = new char[][]{
-                "                                  ".toCharArray(),
-                "    ┌───────┐ ┌─────┐ ┌────────┐  ".toCharArray(),
-                "  ┌─┤.......│ │.....└─┤........│  ".toCharArray(),
-                "  │.└┐......│┌┴───....│........│  ".toCharArray(),
-                "  │..├───┐..││.................│  ".toCharArray(),
-                "  │..│   │..││.................├─┐".toCharArray(),
-                "  │..└┐┌─┘..││....┌┐.....──────┘.│".toCharArray(),
-                "  │...└┘....││..──┤│.............│".toCharArray(),
-                "  │.........││....└┼─┐..........┌┘".toCharArray(),
-                "  └┐.....┌──┘│.....└┐└┬────────┬┘ ".toCharArray(),
-                "   │.....│   │......│ │........│  ".toCharArray(),
-                "   ├─...┌┘  ┌┴─..┌──┴─┘........│  ".toCharArray(),
-                "   │....│   │....│.............└─┐".toCharArray(),
-                "  ┌┘...┌┘   │....│...............│".toCharArray(),
-                "  │....└─┐  │..┌─┴────...........│".toCharArray(),
-                "  │......└┐ │..│...............─.│".toCharArray(),
-                "  │.......└─┘..│.................│".toCharArray(),
-                "  │..┌┐...........┌───...........│".toCharArray(),
-                "  └──┘└─┐.........│............┌─┘".toCharArray(),
-                "        └───┐..│..│............│  ".toCharArray(),
-                "      ┌────┐└┬─┘..└┬───┐......┌┘  ".toCharArray(),
-                "   ┌──┘....│┌┘.....└─┐┌┘..─┬──┘   ".toCharArray(),
-                "  ┌┘.......││........├┘....└┐     ".toCharArray(),
-                "  │........├┘........│......└┐    ".toCharArray(),
-                "  │........│...─┐....│.......└┐   ".toCharArray(),
-                "  └┐....│..│....│....│........│   ".toCharArray(),
-                "   └─┬──┘.......│..──┘..┌┐....│   ".toCharArray(),
-                "     │..........│.......││....│   ".toCharArray(),
-                "    ┌┘.....│....│......┌┘│...┌┘   ".toCharArray(),
-                "    │......├────┤..──┬─┘ │...│    ".toCharArray(),
-                "    │.....┌┘    │....│ ┌─┘..─┤    ".toCharArray(),
-                "    └──┐..│     │....│ │.....│    ".toCharArray(),
-                "       └──┘     └────┘ └─────┘    ".toCharArray(),
-        };
         for (int y = 0; y < 32; y++) {
             for (int x = 0; x < 32; x++) {
-                grid[y][x] = dungeon[x][y];
+                grid[y][x] = DUNGEON[x][y];
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Checks that every order by order window of result (without wrapping) appears somewhere in sample.
+     */
+    static void assertMimics(int[][] sample, int[][] result, int order)
+    {
+        HashSet<String> windows = new HashSet<>();
+        for (int x = 0; x + order <= sample.length; x++) {
+            for (int y = 0; y + order <= sample[0].length; y++) {
+                windows.add(window(sample, x, y, order));
             }
         }
+        for (int x = 0; x + order <= result.length; x++) {
+            for (int y = 0; y + order <= result[0].length; y++) {
+                Assert.assertTrue(windows.contains(window(result, x, y, order)));
+            }
+        }
+    }
+
+    private static String window(int[][] grid, int x, int y, int order)
+    {
+        StringBuilder sb = new StringBuilder(order * order);
+        for (int dy = 0; dy < order; dy++) {
+            for (int dx = 0; dx < order; dx++) {
+                sb.append((char) grid[x + dx][y + dy]);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testOutputMimicsSample()
+    {
+        int[][] grid = sample();
+        MimicWFC wfc = new MimicWFC(grid, 2, 48, 40, false, false, 1, Integer.valueOf(' '));
+        RNG random = new RNG(1337);
+        int attempts = 0;
+        while (!wfc.run(random, 0)) Assert.assertTrue(++attempts < 20);
+        int[][] result = wfc.result();
+        assertMimics(grid, result, 2);
+        for (int x = 0; x < 48; x++) {
+            Assert.assertEquals(' ', result[x][0]);
+            Assert.assertEquals(' ', result[x][39]);
+        }
+        // the same seed gives the same result
+        long seed = 1L;
+        while (!wfc.run(seed, 0)) seed++;
+        result = wfc.result();
+        Assert.assertTrue(wfc.run(seed, 0));
+        Assert.assertArrayEquals(result, wfc.result());
+    }
+
+    @Test
+    public void testRepairs()
+    {
+        // order 3 on this sample almost never finishes in one attempt without repairs
+        int[][] grid = sample();
+        MimicWFC wfc = new MimicWFC(grid, 3, 32, 32, false, false, 1, Integer.valueOf(' '));
+        for (long seed = 0; seed < 3; seed++) {
+            Assert.assertTrue(wfc.run(seed, 0, 100000, 0));
+            assertMimics(grid, wfc.result(), 3);
+            Assert.assertTrue(wfc.run(seed, 0, 100000, 2));
+            assertMimics(grid, wfc.result(), 3);
+        }
+        // restarts that wrap around a periodic output must still keep its border surrounded
+        wfc = new MimicWFC(grid, 2, 32, 32, false, true, 1, Integer.valueOf(' '));
+        for (long seed = 0; seed < 5; seed++) {
+            Assert.assertTrue(wfc.run(seed, 0, 100000, 2));
+            int[][] result = wfc.result();
+            for (int i = 0; i < 32; i++) {
+                Assert.assertEquals(' ', result[i][0]);
+                Assert.assertEquals(' ', result[i][31]);
+                Assert.assertEquals(' ', result[0][i]);
+                Assert.assertEquals(' ', result[31][i]);
+            }
+        }
+    }
+
+    @Test
+    public void testRunner()
+    {
+        int[][] grid = sample();
+        MimicWFC wfc = new MimicWFC(grid, 2, 40, 40, false, false, 1, Integer.valueOf(' '));
+        MimicWFCRunner.Outcome outcome = new MimicWFCRunner(wfc).run(100L, 200, 0);
+        Assert.assertTrue(outcome.succeeded);
+        Assert.assertNotNull(outcome.result);
+        Assert.assertTrue(outcome.started >= outcome.failed + outcome.cancelled + 1);
+        assertMimics(grid, outcome.result, 2);
+        // the winning seed gives the same grid on one thread
+        Assert.assertTrue(wfc.run(outcome.seed, 0));
+        Assert.assertArrayEquals(outcome.result, wfc.result());
+        // a cancelled model stops every run until the cancel is reset
+        wfc.cancel();
+        Assert.assertFalse(wfc.run(outcome.seed, 0));
+        wfc.resetCancel();
+        Assert.assertTrue(wfc.run(outcome.seed, 0));
+        // -1 is an ordinary seed, so it can win, and that doesn't look like a failure
+        outcome = new MimicWFCRunner(wfc).run(-1L, 1, 0);
+        Assert.assertTrue(outcome.succeeded);
+        Assert.assertEquals(-1L, outcome.seed);
+        Assert.assertTrue(wfc.run(-1L, 0));
+        Assert.assertArrayEquals(outcome.result, wfc.result());
+
+        // order 3 needs repairs, here by backtracking
+        wfc = new MimicWFC(grid, 3, 32, 32, false, false, 1, Integer.valueOf(' '));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            outcome = new MimicWFCRunner(wfc).run(executor, 3, 0L, 9, 0, 100000, 0);
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertNotNull(outcome.result);
+        assertMimics(grid, outcome.result, 3);
+        Assert.assertTrue(wfc.run(outcome.seed, 0, 100000, 0));
+        Assert.assertArrayEquals(outcome.result, wfc.result());
+    }
+
+    public static void main(String[] args)
+    {
+        RNG random = new RNG(1337);
+        int[][] grid = sample();
         // this uses order 2, which has slightly weaker quality but will finish quickly and more reliably.
         // you can try order 3 with some inputs, but it is much less likely to finish at all.
         // this specifies non-periodic input (meaning it doesn't wrap at edges), but periodic output, so it tiles.